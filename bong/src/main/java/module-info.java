@@ -12,10 +12,12 @@ module rawdata.collection.bong {
     requires lmdbjava;
     requires org.objectweb.asm;
 
+    requires rawdata.collection.pipeline;
     requires no.ssb.rawdata.migration.onprem;
     requires no.ssb.rawdata.encryption; // used in test
 
     requires java.sql;
+    requires java.xml;
     requires org.postgresql.jdbc;
     requires com.zaxxer.hikari;
 
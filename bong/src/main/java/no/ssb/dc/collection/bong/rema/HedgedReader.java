@@ -0,0 +1,143 @@
+package no.ssb.dc.collection.bong.rema;
+
+import no.ssb.dc.collection.pipeline.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads a file, and issues a second read of the same file when the first has not completed within the hedge delay.
+ * The first successful read wins and the other is cancelled. A cancelled read is interrupted, which closes its file
+ * channel.
+ * <p>
+ * With a zero hedge delay, reads are hedged after the observed p95 read latency, once enough reads are recorded.
+ */
+public class HedgedReader implements AutoCloseable {
+
+    static final long ADAPTIVE_MIN_READS = 100;
+    static final long ADAPTIVE_MIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    static final int ADAPTIVE_UPDATE_INTERVAL = 256;
+
+    private final long hedgeDelayNanos;
+    private final ExecutorService readExecutor;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder stragglers = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final AtomicInteger readsSinceUpdate = new AtomicInteger();
+    private volatile long adaptiveDelayNanos;
+
+    public HedgedReader(long hedgeDelayMillis) {
+        this.hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(hedgeDelayMillis, 0));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.readExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "rema-read-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    long hedgeDelayNanos() {
+        if (hedgeDelayNanos > 0) {
+            return hedgeDelayNanos;
+        }
+        if (readsSinceUpdate.incrementAndGet() >= ADAPTIVE_UPDATE_INTERVAL) {
+            readsSinceUpdate.set(0);
+            adaptiveDelayNanos = latencies.count() < ADAPTIVE_MIN_READS ? 0 :
+                    Math.max(latencies.percentileNanos(0.95), ADAPTIVE_MIN_DELAY_NANOS);
+        }
+        return adaptiveDelayNanos;
+    }
+
+    public byte[] read(Path file) {
+        long startNanos = System.nanoTime();
+        CompletableFuture<byte[]> winner = new CompletableFuture<>();
+        AtomicInteger pendingReads = new AtomicInteger();
+        Future<?> primary = submit(file, winner, pendingReads, false);
+        Future<?> hedge = null;
+        try {
+            long delayNanos = hedgeDelayNanos();
+            byte[] content;
+            if (delayNanos > 0) {
+                try {
+                    content = winner.get(delayNanos, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    stragglers.increment();
+                    hedge = submit(file, winner, pendingReads, true);
+                    content = winner.get();
+                }
+            } else {
+                content = winner.get();
+            }
+            latencies.record(System.nanoTime() - startNanos);
+            return content;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException((IOException) e.getCause());
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * The winner fails when the last pending read fails, so a failed read is covered by a hedged read in flight.
+     */
+    private Future<?> submit(Path file, CompletableFuture<byte[]> winner, AtomicInteger pendingReads, boolean hedge) {
+        pendingReads.incrementAndGet();
+        return readExecutor.submit(() -> {
+            try {
+                if (winner.complete(Files.readAllBytes(file)) && hedge) {
+                    hedgeWins.increment();
+                }
+            } catch (IOException | RuntimeException e) {
+                if (pendingReads.decrementAndGet() == 0) {
+                    winner.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    public LatencyHistogram latencies() {
+        return latencies;
+    }
+
+    public long stragglers() {
+        return stragglers.sum();
+    }
+
+    @Override
+    public void close() {
+        readExecutor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "HedgedReader{" +
+                "hedgeDelay=" + (hedgeDelayNanos > 0 ? TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos) + "ms" : "p95") +
+                ", stragglers=" + stragglers.sum() +
+                ", hedgeWins=" + hedgeWins.sum() +
+                ", latency={" + latencies + "}" +
+                '}';
+    }
+}
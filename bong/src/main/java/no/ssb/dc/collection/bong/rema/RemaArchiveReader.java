@@ -0,0 +1,211 @@
+package no.ssb.dc.collection.bong.rema;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Streams the file entries of zip, tar and tar.gz archives without extracting them to disk. One entry is held in
+ * memory at a time. Tar archives are read in ustar, GNU long name and pax path formats.
+ */
+public class RemaArchiveReader {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int TAR_BLOCK_SIZE = 512;
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        /**
+         * @param entryName          entry path in the archive
+         * @param lastModifiedMillis entry modified time in epoch millis
+         */
+        void accept(String entryName, long lastModifiedMillis, byte[] content);
+    }
+
+    public static boolean isArchive(String filename) {
+        String lowerCaseFilename = filename.toLowerCase(Locale.ROOT);
+        return lowerCaseFilename.endsWith(".zip") || lowerCaseFilename.endsWith(".tar")
+                || lowerCaseFilename.endsWith(".tar.gz") || lowerCaseFilename.endsWith(".tgz");
+    }
+
+    /**
+     * @return filename part of an entry path
+     */
+    public static String entryFilename(String entryName) {
+        return entryName.substring(entryName.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Hidden entries and directories are skipped.
+     *
+     * @param stopped reading ends before the next entry when this returns true
+     * @return number of file entries
+     */
+    public static int read(Path archive, BooleanSupplier stopped, EntryConsumer entryConsumer) {
+        String filename = archive.getFileName().toString().toLowerCase(Locale.ROOT);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(archive), BUFFER_SIZE)) {
+            if (filename.endsWith(".zip")) {
+                return readZip(in, stopped, entryConsumer);
+            }
+            if (filename.endsWith(".tar.gz") || filename.endsWith(".tgz")) {
+                return readTar(new GZIPInputStream(in, BUFFER_SIZE), stopped, entryConsumer);
+            }
+            if (filename.endsWith(".tar")) {
+                return readTar(in, stopped, entryConsumer);
+            }
+            throw new IllegalArgumentException("Unsupported archive format: " + archive);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static boolean isHidden(String entryName) {
+        return entryFilename(entryName).startsWith(".") || entryFilename(entryName).isEmpty();
+    }
+
+    static int readZip(InputStream in, BooleanSupplier stopped, EntryConsumer entryConsumer) throws IOException {
+        int count = 0;
+        ZipInputStream zipInputStream = new ZipInputStream(in);
+        ZipEntry entry;
+        while (!stopped.getAsBoolean() && (entry = zipInputStream.getNextEntry()) != null) {
+            if (entry.isDirectory() || isHidden(entry.getName())) {
+                continue;
+            }
+            entryConsumer.accept(entry.getName(), entry.getTime(), zipInputStream.readAllBytes());
+            count++;
+        }
+        return count;
+    }
+
+    static int readTar(InputStream in, BooleanSupplier stopped, EntryConsumer entryConsumer) throws IOException {
+        int count = 0;
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+        String extendedName = null;
+        while (!stopped.getAsBoolean()) {
+            if (!readBlock(in, header) || isZeroBlock(header)) {
+                break;
+            }
+            long size = parseNumber(header, 124, 12);
+            char type = (char) header[156];
+            byte[] content = readContent(in, size);
+            switch (type) {
+                case 'L' -> extendedName = cString(content, 0, content.length);
+                case 'x' -> {
+                    String paxPath = paxPath(content);
+                    if (paxPath != null) {
+                        extendedName = paxPath;
+                    }
+                }
+                case '0', '\0', '7' -> {
+                    String name = extendedName != null ? extendedName : headerName(header);
+                    extendedName = null;
+                    if (!isHidden(name)) {
+                        entryConsumer.accept(name, parseNumber(header, 136, 12) * 1000, content);
+                        count++;
+                    }
+                }
+                default -> extendedName = null; // directories, links and global headers
+            }
+        }
+        return count;
+    }
+
+    static String headerName(byte[] header) {
+        String name = cString(header, 0, 100);
+        boolean ustar = cString(header, 257, 6).startsWith("ustar");
+        String prefix = ustar ? cString(header, 345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    static String paxPath(byte[] content) {
+        String records = new String(content, StandardCharsets.UTF_8);
+        int position = 0;
+        while (position < records.length()) {
+            int space = records.indexOf(' ', position);
+            if (space == -1) {
+                break;
+            }
+            int length = Integer.parseInt(records.substring(position, space));
+            String record = records.substring(space + 1, position + length - 1);
+            if (record.startsWith("path=")) {
+                return record.substring("path=".length());
+            }
+            position += length;
+        }
+        return null;
+    }
+
+    static byte[] readContent(InputStream in, long size) throws IOException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Archive entry is too large: " + size);
+        }
+        byte[] content = new byte[(int) size];
+        if (in.readNBytes(content, 0, content.length) != content.length) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        in.skipNBytes((TAR_BLOCK_SIZE - size % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE);
+        return content;
+    }
+
+    static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int read = in.readNBytes(block, 0, block.length);
+        if (read == 0) {
+            return false;
+        }
+        if (read != block.length) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        return true;
+    }
+
+    static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String cString(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Octal number, or a base-256 number when the high bit of the first byte is set (GNU).
+     */
+    static long parseNumber(byte[] header, int offset, int length) {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xFF);
+            }
+            return value;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (value > 0) {
+                    break;
+                }
+                continue;
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+}
@@ -3,6 +3,13 @@ package no.ssb.dc.collection.bong.rema;
 import no.ssb.dapla.migration.rawdata.onprem.config.TargetConfiguration;
 import no.ssb.dapla.migration.rawdata.onprem.utils.FixedThreadPool;
 import no.ssb.dapla.migration.rawdata.onprem.worker.ULIDGenerator;
+import no.ssb.dc.collection.pipeline.AdaptiveConcurrencyLimiter;
+import no.ssb.dc.collection.pipeline.CircuitBreaker;
+import no.ssb.dc.collection.pipeline.InFlightByteBudget;
+import no.ssb.dc.collection.pipeline.Quarantine;
+import no.ssb.dc.collection.pipeline.RetryPolicy;
+import no.ssb.dc.collection.pipeline.ShutdownDrain;
+import no.ssb.dc.collection.pipeline.StageMetrics;
 import no.ssb.rawdata.api.RawdataClient;
 import no.ssb.rawdata.api.RawdataClientInitializer;
 import no.ssb.rawdata.api.RawdataMessage;
@@ -12,21 +19,42 @@ import no.ssb.service.provider.api.ProviderConfigurator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
+import java.time.Duration;
+import java.time.Instant;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 public class RemaBongWorker implements AutoCloseable {
 
@@ -36,14 +64,45 @@ public class RemaBongWorker implements AutoCloseable {
     private final SourceRemaConfiguration sourceConfiguration;
     private final TargetConfiguration targetConfiguration;
     private final FixedThreadPool threadPool;
-    private final BufferedReordering<String> bufferedReordering = new BufferedReordering<>();
-    private final Queue<CompletableFuture<RawdataMessageBuffer>> futures;
+    private final SequenceReordering<RawdataMessageBuffer> reordering = new SequenceReordering<>();
+    private final Queue<CompletableFuture<Void>> futures;
     private final RawdataClient client;
     private final RawdataProducer producer;
     private final int queueCapacity;
     private final Path sourcePath;
     private final EncryptionClient encryptionClient;
     private final byte[] secretKey;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final ExecutorService adaptiveExecutor;
+    private final InFlightByteBudget byteBudget;
+    private final RetryPolicy retryPolicy;
+    private final Quarantine quarantine;
+    private final HedgedReader hedgedReader;
+    private final SpillStore spillStore;
+    private final long reorderMemoryBytes;
+    private final AtomicLong heldBytes = new AtomicLong();
+    private final ExecutorService archiveExecutor;
+    private final int archiveReadAhead;
+    private final boolean sorted;
+    private final int sortRunSize;
+    private final Path sortTempPath;
+    private final ShutdownDrain shutdownDrain = new ShutdownDrain();
+    private final AtomicLong publishedAtStop = new AtomicLong();
+    private volatile String lastPublishedPosition;
+    private final RemaXmlSplitter xmlSplitter;
+    private final RemaRunState runState;
+    private final RemaFileTree fileTree;
+    private final AtomicLong runStarted = new AtomicLong();
+    private final StageMetrics stageMetrics = new StageMetrics("rema")
+            .stage("walk", StageMetrics.Kind.SOURCE)
+            .stage("backpressure", StageMetrics.Kind.BACKPRESSURE)
+            .stage("read", StageMetrics.Kind.IO)
+            .stage("encrypt", StageMetrics.Kind.CPU)
+            .stage("buffer", StageMetrics.Kind.SINK)
+            .stage("reorder", StageMetrics.Kind.WAIT)
+            .stage("publish", StageMetrics.Kind.SINK);
+    private final long startedNanos = System.nanoTime();
+    private long lastVisitedNanos; // walker thread
 
     public RemaBongWorker(SourceRemaConfiguration sourceConfiguration, TargetConfiguration targetConfiguration) {
         this.sourceConfiguration = sourceConfiguration;
@@ -51,11 +110,7 @@ public class RemaBongWorker implements AutoCloseable {
         threadPool = FixedThreadPool.newInstance();
         client = ProviderConfigurator.configure(targetConfiguration.asMap(), this.targetConfiguration.rawdataClientProvider(), RawdataClientInitializer.class);
         producer = client.producer(this.targetConfiguration.topic());
-        sourcePath = Paths.get(this.sourceConfiguration.rootPath())
-                .resolve(this.sourceConfiguration.year())
-                .resolve(this.sourceConfiguration.month())
-                .normalize()
-                .toAbsolutePath();
+        sourcePath = RemaFileTree.sourcePath(this.sourceConfiguration);
         final char[] encryptionKey = this.targetConfiguration.hasRawdataEncryptionKey() ?
                 this.targetConfiguration.rawdataEncryptionKey().toCharArray() : null;
         final byte[] encryptionSalt = this.targetConfiguration.hasRawdataEncryptionSalt() ?
@@ -70,6 +125,74 @@ public class RemaBongWorker implements AutoCloseable {
         }
         queueCapacity = this.sourceConfiguration.hasQueueCapacity() ? this.sourceConfiguration.queueCapacity() : 1000;
         futures = new LinkedBlockingDeque<>(queueCapacity);
+        byteBudget = this.sourceConfiguration.hasQueueCapacityBytes() ?
+                new InFlightByteBudget(InFlightByteBudget.parseBytes(this.sourceConfiguration.queueCapacityBytes())) : null;
+        if (this.sourceConfiguration.hasConcurrencyAdaptive() && this.sourceConfiguration.concurrencyAdaptive()) {
+            int availableProcessors = Runtime.getRuntime().availableProcessors();
+            int minConcurrency = this.sourceConfiguration.hasConcurrencyMin() ? this.sourceConfiguration.concurrencyMin() : 1;
+            int maxConcurrency = this.sourceConfiguration.hasConcurrencyMax() ? this.sourceConfiguration.concurrencyMax() : availableProcessors * 4;
+            concurrencyLimiter = new AdaptiveConcurrencyLimiter(availableProcessors, minConcurrency, maxConcurrency, queueCapacity / 2);
+            adaptiveExecutor = Executors.newFixedThreadPool(maxConcurrency);
+            LOG.info("Adaptive concurrency enabled: min={} max={}", minConcurrency, maxConcurrency);
+        } else {
+            concurrencyLimiter = null;
+            adaptiveExecutor = null;
+        }
+        CircuitBreaker circuitBreaker = new CircuitBreaker(this.sourceConfiguration.hasCircuitFailureThreshold() ?
+                this.sourceConfiguration.circuitFailureThreshold() : this.sourceConfiguration.retryMaxAttempts(),
+                TimeUnit.SECONDS.toMillis(this.sourceConfiguration.circuitOpenSeconds()));
+        retryPolicy = new RetryPolicy(this.sourceConfiguration.retryMaxAttempts(), this.sourceConfiguration.retryBackoffMillis(), circuitBreaker);
+        if (this.sourceConfiguration.hasReadHedgeMillis()) {
+            hedgedReader = new HedgedReader(this.sourceConfiguration.readHedgeMillis());
+            LOG.info("Hedged reads enabled: {}", hedgedReader);
+        } else {
+            hedgedReader = null;
+        }
+        if (this.sourceConfiguration.hasReorderMemoryBytes()) {
+            reorderMemoryBytes = InFlightByteBudget.parseBytes(this.sourceConfiguration.reorderMemoryBytes());
+            spillStore = new SpillStore(Path.of(this.sourceConfiguration.hasReorderSpillPath() ?
+                    this.sourceConfiguration.reorderSpillPath() : System.getProperty("java.io.tmpdir")));
+            LOG.info("Reorder memory: {} bytes, spill to: {}", reorderMemoryBytes, spillStore.directory());
+        } else {
+            reorderMemoryBytes = 0;
+            spillStore = null;
+        }
+        if (this.sourceConfiguration.hasXmlRecordPath()) {
+            xmlSplitter = new RemaXmlSplitter(this.sourceConfiguration.xmlRecordPath(),
+                    this.sourceConfiguration.hasXmlPositionAttribute() ? this.sourceConfiguration.xmlPositionAttribute() : null);
+            LOG.info("Split xml files on record path: {}", this.sourceConfiguration.xmlRecordPath());
+        } else {
+            xmlSplitter = null;
+        }
+        runState = RemaRunState.load(this.sourceConfiguration);
+        quarantine = this.sourceConfiguration.hasQuarantinePath() ?
+                new Quarantine(Path.of(this.sourceConfiguration.quarantinePath()).resolve(String.format("rema-%s-%s.quarantine",
+                        this.sourceConfiguration.year(), this.sourceConfiguration.month()))) : null;
+        boolean sinceLastRun = this.sourceConfiguration.hasSinceLastRun() && this.sourceConfiguration.sinceLastRun();
+        boolean archives = this.sourceConfiguration.hasArchives() && this.sourceConfiguration.archives();
+        fileTree = new RemaFileTree(sourcePath, RemaFileFilter.create(this.sourceConfiguration, sinceLastRun ? runState.lastRunStarted() : 0), archives);
+        if (archives) {
+            archiveReadAhead = this.sourceConfiguration.hasArchiveReadAhead() ? this.sourceConfiguration.archiveReadAhead() : 256;
+            archiveExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "rema-archive");
+                thread.setDaemon(true);
+                return thread;
+            });
+            LOG.info("Read archives with read-ahead: {} entries", archiveReadAhead);
+        } else {
+            archiveReadAhead = 0;
+            archiveExecutor = null;
+        }
+        sorted = this.sourceConfiguration.hasSorted() && this.sourceConfiguration.sorted();
+        sortRunSize = this.sourceConfiguration.hasSortRunSize() ? this.sourceConfiguration.sortRunSize() : 1_000_000;
+        sortTempPath = Path.of(this.sourceConfiguration.hasSortTempPath() ?
+                this.sourceConfiguration.sortTempPath() : System.getProperty("java.io.tmpdir"));
+        if (sorted) {
+            LOG.info("Produce files in timestamp order with sort runs of {} files in: {}", sortRunSize, sortTempPath);
+        }
+        if (sinceLastRun) {
+            LOG.info("Produce files modified since last run: {} (state: {})", runState.lastRunStarted(), runState.stateFile());
+        }
     }
 
     public boolean validate() {
@@ -80,12 +203,19 @@ public class RemaBongWorker implements AutoCloseable {
         AtomicLong countFiles = new AtomicLong();
         AtomicBoolean success = new AtomicBoolean(true);
         readFileTree((file, attrs) -> {
-            RawdataMessageBuffer writer = new RawdataMessageBuffer(null, file);
+            if (fileTree.archives() && RemaArchiveReader.isArchive(file.getFileName().toString())) {
+                countFiles.incrementAndGet();
+                return;
+            }
             try {
-                writer.toTimestamp();
+                RemaFileDescriptor.of(file, attrs);
             } catch (Exception e) {
+                if (quarantine != null) {
+                    LOG.warn("Invalid file will be quarantined [{}]: {}", countFiles.get(), file.toString());
+                    return;
+                }
                 success.set(false);
-                LOG.error("Failed to validate file [{}]: {}", countFiles.get(), writer.getFile().toString());
+                LOG.error("Failed to validate file [{}]: {}", countFiles.get(), file.toString());
                 return;
             }
             countFiles.incrementAndGet();
@@ -94,80 +224,525 @@ public class RemaBongWorker implements AutoCloseable {
         return success.get();
     }
 
-    CompletableFuture<RawdataMessageBuffer> offerMessage(RawdataMessageBuffer message) {
-        bufferedReordering.addExpected(message.toPosition());
-        return CompletableFuture.supplyAsync(() -> {
-                    message.produce();
-                    return message;
-                }, threadPool.getExecutor()
-        ).thenApply(msg -> {
-            bufferedReordering.addCompleted(msg.toPosition(), orderedPositions -> {
-                String[] positions = orderedPositions.toArray(new String[0]);
-                producer.publish(positions);
-                publishedMessageCount.getAndAdd(positions.length);
-            });
-            return msg;
-        }).exceptionally(throwable -> {
-            if (throwable instanceof RuntimeException) {
-                throw (RuntimeException) throwable;
+    Executor executor() {
+        return adaptiveExecutor != null ? adaptiveExecutor : threadPool.getExecutor();
+    }
+
+    void acquireConcurrency() {
+        if (concurrencyLimiter == null) {
+            return;
+        }
+        try {
+            concurrencyLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return false if the worker stopped or failed while waiting
+     */
+    boolean acquireBytes(long payloadBytes) {
+        if (byteBudget == null) {
+            return true;
+        }
+        try {
+            byteBudget.acquire(payloadBytes, shutdownDrain::isStopping);
+            return true;
+        } catch (CancellationException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    void releaseBytes(long payloadBytes) {
+        if (byteBudget == null) {
+            return;
+        }
+        byteBudget.release(payloadBytes);
+    }
+
+    static void logTimeToFirstMessage() {
+        ProcessHandle.current().info().startInstant().ifPresent(processStarted ->
+                LOG.info("Time to first message: {}ms since process start", Duration.between(processStarted, Instant.now()).toMillis()));
+    }
+
+    /**
+     * Produce, reorder and release run in a single stage on the worker thread. The message is its own entry in the
+     * reordering side table, so no position strings are hashed on the way to publish. Intake waits while the
+     * circuit is open. A produce is retried on the worker thread, and a later message is only published after it.
+     * A failure that is not quarantined fails the worker, because the messages behind it cannot be published in order.
+     */
+    CompletableFuture<Void> offerMessage(RawdataMessageBuffer message, long payloadBytes) {
+        long waitNanos = System.nanoTime();
+        retryPolicy.circuitBreaker().awaitClosed(shutdownDrain::isStopping);
+        if (!acquireBytes(payloadBytes)) {
+            // stopped while waiting, the message is not read
+            return CompletableFuture.completedFuture(null);
+        }
+        message.payloadBytes = payloadBytes;
+        message.metrics = stageMetrics;
+        message.reader = hedgedReader;
+        if (spillStore != null) {
+            message.deferBuffering();
+        }
+        acquireConcurrency();
+        long offeredNanos = stageMetrics.record("backpressure", waitNanos, payloadBytes, message.toPosition());
+        long sequence = reordering.addExpected(message);
+        return CompletableFuture.runAsync(() -> {
+            boolean reordered = false;
+            try {
+                try {
+                    // the producer buffers messages by position, so a retried produce replaces a partial attempt
+                    message.producedPositions = retryPolicy.execute("Produce", message.toPosition(), () -> {
+                        message.clearDeferred();
+                        return message.produce();
+                    });
+                } catch (RuntimeException e) {
+                    if (quarantine == null) {
+                        throw e;
+                    }
+                    message.clearDeferred();
+                    // completed without positions, so the messages behind it are not held back
+                    quarantine.add(message.toPosition(), message.getDescriptor().source(), e);
+                    message.producedPositions = new String[0];
+                }
+                if (spillStore != null) {
+                    holdOrSpill(message);
+                }
+                message.producedNanos = System.nanoTime();
+                reordered = true;
+                reordering.addCompleted(sequence, this::publish);
+            } catch (RuntimeException e) {
+                shutdownDrain.fail(e);
+                throw e;
+            } finally {
+                if (!reordered && !message.spilled) {
+                    releaseBytes(message.payloadBytes);
+                }
+                if (concurrencyLimiter != null) {
+                    concurrencyLimiter.release(System.nanoTime() - offeredNanos, reordering.backlog());
+                }
             }
-            throw new RuntimeException(throwable);
-        });
+        }, executor());
     }
 
-    void commitMessages() {
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                .thenApply(v -> {
-                    futures.clear();
-                    return v;
-                })
-                .join();
+    /**
+     * Hold the payloads of a completed message in memory up to reorder.memory.bytes, and spill them to disk past it.
+     * A spilled message returns its in-flight bytes, so intake continues while a straggler holds back publishing.
+     */
+    void holdOrSpill(RawdataMessageBuffer message) {
+        if (heldBytes.addAndGet(message.deferredBytes) <= reorderMemoryBytes) {
+            return;
+        }
+        heldBytes.addAndGet(-message.deferredBytes);
+        message.spill(spillStore);
+        releaseBytes(message.payloadBytes);
     }
 
-    public void produce() {
-        LOG.info("Source path: {}", sourcePath.toString());
-        readFileTree((file, attrs) -> {
-            if (readFileCount.incrementAndGet() % 10000 == 0) {
-                LOG.info("Source - Read file count: {}", readFileCount.get());
-                LOG.info("Source - Published message count: {}", publishedMessageCount.get());
+    /**
+     * A batch that fails to publish returns its in-flight bytes and spilled payloads, since the worker fails.
+     */
+    void publish(List<RawdataMessageBuffer> orderedMessages) {
+        long payloadBytes = 0;
+        long budgetBytes = 0;
+        long publishNanos = System.nanoTime();
+        for (RawdataMessageBuffer message : orderedMessages) {
+            payloadBytes += message.payloadBytes;
+            stageMetrics.record("reorder", message.producedNanos, message.payloadBytes, message.toPosition());
+            if (spillStore != null && !message.spilled) {
+                heldBytes.addAndGet(-message.deferredBytes);
             }
-            CompletableFuture<RawdataMessageBuffer> future = offerMessage(new RawdataMessageBuffer(producer, file, encryptionClient, secretKey));
-            if (!futures.offer(future)) {
-                commitMessages();
+            if (!message.spilled) {
+                budgetBytes += message.payloadBytes;
+            }
+        }
+        try {
+            bufferDeferred(orderedMessages, spillStore);
+            String[] positions = toProducedPositions(orderedMessages);
+            if (positions.length > 0) {
+                retryPolicy.execute("Publish", positions[0], () -> producer.publish(positions));
+                stageMetrics.record("publish", publishNanos, payloadBytes, positions[0]);
+                if (publishedMessageCount.getAndAdd(positions.length) == 0) {
+                    logTimeToFirstMessage();
+                }
+            }
+            lastPublishedPosition = orderedMessages.get(orderedMessages.size() - 1).toPosition();
+        } finally {
+            releaseBytes(budgetBytes);
+        }
+    }
 
-                // re-offer message
-                if (!futures.offer(future)) {
-                    throw new IllegalStateException("Unable to offer future! Out of capacity: " + queueCapacity);
+    /**
+     * Buffer the deferred payloads of an ordered batch to the producer. If buffering fails, the payloads that are
+     * still spilled are released, since they will not be read back.
+     *
+     * @param spillStore null when spilling is not configured
+     */
+    static void bufferDeferred(List<RawdataMessageBuffer> orderedMessages, SpillStore spillStore) {
+        boolean buffered = false;
+        try {
+            for (RawdataMessageBuffer message : orderedMessages) {
+                if (message.isBufferingDeferred()) {
+                    message.bufferDeferred(spillStore);
                 }
             }
+            buffered = true;
+        } finally {
+            if (!buffered) {
+                for (RawdataMessageBuffer message : orderedMessages) {
+                    message.discardDeferred(spillStore);
+                }
+            }
+        }
+    }
+
+    /**
+     * Expand files that were split into several messages to their message positions, in file order.
+     */
+    static String[] toProducedPositions(List<RawdataMessageBuffer> orderedMessages) {
+        int count = 0;
+        for (RawdataMessageBuffer message : orderedMessages) {
+            count += message.producedPositions.length;
+        }
+        String[] positions = new String[count];
+        int i = 0;
+        for (RawdataMessageBuffer message : orderedMessages) {
+            System.arraycopy(message.producedPositions, 0, positions, i, message.producedPositions.length);
+            i += message.producedPositions.length;
+        }
+        return positions;
+    }
+
+    /**
+     * Stop reading the source. In-flight messages are drained on close until the shutdown timeout.
+     */
+    public void stop() {
+        if (shutdownDrain.stop(sourceConfiguration.shutdownTimeoutSeconds(), TimeUnit.SECONDS)) {
+            publishedAtStop.set(publishedMessageCount.get());
+            LOG.info("Stop requested. Drain in-flight messages within {}s", sourceConfiguration.shutdownTimeoutSeconds());
+        }
+    }
+
+    public boolean isStopping() {
+        return shutdownDrain.isStopping();
+    }
+
+    /**
+     * @return false if the shutdown timeout was exceeded before all messages completed
+     */
+    boolean commitMessages() {
+        boolean drained = shutdownDrain.await(futures);
+        if (!drained) {
+            LOG.warn("Shutdown timeout exceeded. Unpublished messages are dropped!");
+        }
+        return drained;
+    }
+
+    void offerFile(Path file, BasicFileAttributes attrs) {
+        if (shutdownDrain.isStopping()) {
+            return;
+        }
+        if (lastVisitedNanos > 0) {
+            stageMetrics.record("walk", lastVisitedNanos);
+        }
+        if (fileTree.archives() && RemaArchiveReader.isArchive(file.getFileName().toString())) {
+            offerArchive(file, entryName -> fileTree.fileFilter().acceptFile(RemaArchiveReader.entryFilename(entryName), Long.MAX_VALUE));
+            lastVisitedNanos = System.nanoTime();
+            return;
+        }
+        RemaFileDescriptor descriptor;
+        try {
+            descriptor = RemaFileDescriptor.of(file, attrs);
+        } catch (RuntimeException e) {
+            if (quarantine == null) {
+                throw e;
+            }
+            quarantine.add(file.getFileName().toString(), file.toString(), e);
+            return;
+        }
+        offerDescriptor(descriptor, null);
+        lastVisitedNanos = System.nanoTime();
+    }
+
+    /**
+     * Entries are decompressed on the archive thread and handed to this thread through a bounded read-ahead queue,
+     * so decompression overlaps with produce on the worker pool.
+     *
+     * @param entrySelection entry paths to produce
+     */
+    void offerArchive(Path archive, Predicate<String> entrySelection) {
+        LOG.info("Source - Read archive: {}", archive);
+        BlockingQueue<ArchiveEntry> readAhead = new ArrayBlockingQueue<>(archiveReadAhead);
+        Future<Integer> decompression = archiveExecutor.submit(() -> {
+            try {
+                return RemaArchiveReader.read(archive, shutdownDrain::isStopping, (entryName, lastModifiedMillis, content) -> {
+                    if (entrySelection.test(entryName)) {
+                        putEntry(readAhead, new ArchiveEntry(entryName, content));
+                    }
+                });
+            } finally {
+                putEntry(readAhead, ArchiveEntry.END);
+            }
         });
+        try {
+            long takeNanos = System.nanoTime();
+            for (ArchiveEntry entry = readAhead.take(); entry != ArchiveEntry.END; entry = readAhead.take()) {
+                stageMetrics.record("walk", takeNanos);
+                offerArchiveEntry(archive, entry);
+                takeNanos = System.nanoTime();
+            }
+            decompression.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (quarantine == null) {
+                throw new RuntimeException(e.getCause());
+            }
+            // entries read before the failure are produced
+            quarantine.add(archive.getFileName().toString(), archive.toString(), e.getCause());
+        } finally {
+            decompression.cancel(true);
+        }
     }
 
-    void readFileTree(BiConsumer<Path, BasicFileAttributes> visitFile) {
+    static void putEntry(BlockingQueue<ArchiveEntry> readAhead, ArchiveEntry entry) {
+        try {
+            readAhead.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    void offerArchiveEntry(Path archive, ArchiveEntry entry) {
+        RemaFileDescriptor descriptor;
         try {
-            Files.walkFileTree(sourcePath, new SimpleFileVisitor<>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                    if (file.getFileName().toString().startsWith(".")) {
-                        return FileVisitResult.CONTINUE;
+            descriptor = RemaFileDescriptor.ofArchiveEntry(archive, entry.entryName, entry.content.length);
+        } catch (RuntimeException e) {
+            if (quarantine == null) {
+                throw e;
+            }
+            quarantine.add(RemaArchiveReader.entryFilename(entry.entryName), archive + RemaFileDescriptor.ARCHIVE_ENTRY_SEPARATOR + entry.entryName, e);
+            return;
+        }
+        offerDescriptor(descriptor, entry.content);
+    }
+
+    /**
+     * @param content archive entry content, or null to read the file on the worker pool
+     */
+    void offerDescriptor(RemaFileDescriptor descriptor, byte[] content) {
+        if (readFileCount.incrementAndGet() % 10000 == 0) {
+            LOG.info("Source - Read file count: {}", readFileCount.get());
+            LOG.info("Source - Published message count: {}", publishedMessageCount.get());
+            if (byteBudget != null) {
+                LOG.info("Source - {}", byteBudget);
+            }
+        }
+        // plaintext and ciphertext are both held until the message is published
+        long payloadBytes = secretKey != null ? descriptor.size() * 2 : descriptor.size();
+        RawdataMessageBuffer message = xmlSplitter == null ?
+                new RawdataMessageBuffer(producer, descriptor, encryptionClient, secretKey) :
+                new XmlSplitMessageBuffer(producer, descriptor, encryptionClient, secretKey, xmlSplitter);
+        message.archivedContent = content;
+        CompletableFuture<Void> future = offerMessage(message, payloadBytes);
+        if (!futures.offer(future)) {
+            long waitNanos = System.nanoTime();
+            commitMessages();
+            stageMetrics.record("backpressure", waitNanos);
+
+            // re-offer message
+            if (!futures.offer(future)) {
+                throw new IllegalStateException("Unable to offer future! Out of capacity: " + queueCapacity);
+            }
+        }
+    }
+
+    public void produce() {
+        LOG.info("Source path: {}", sourcePath.toString());
+        long started = System.currentTimeMillis();
+        if (sorted) {
+            produceSorted();
+        } else {
+            readFileTree(this::offerFile);
+        }
+        if (!shutdownDrain.isStopping()) {
+            runStarted.set(started);
+        }
+    }
+
+    /**
+     * Walk the file tree into an external sort and offer the files in timestamp order. Archive entries cannot be
+     * merged without decompressing every archive up front, so archives are produced after the sorted files.
+     */
+    void produceSorted() {
+        List<Path> archives = new ArrayList<>();
+        try (RemaTimestampSorter sorter = new RemaTimestampSorter(sortTempPath, sortRunSize)) {
+            long sortStarted = System.currentTimeMillis();
+            readFileTree((file, attrs) -> {
+                if (fileTree.archives() && RemaArchiveReader.isArchive(file.getFileName().toString())) {
+                    archives.add(file);
+                    return;
+                }
+                try {
+                    sorter.add(file, attrs.size());
+                } catch (IllegalStateException e) {
+                    if (quarantine == null) {
+                        throw e;
                     }
-                    visitFile.accept(file, attrs);
-                    return FileVisitResult.CONTINUE;
+                    quarantine.add(file.getFileName().toString(), file.toString(), e);
                 }
             });
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            LOG.info("Source - Sorted {} files in {} runs ({} ms)", sorter.count(), sorter.runCount(), System.currentTimeMillis() - sortStarted);
+            lastVisitedNanos = System.nanoTime();
+            sorter.forEachSorted(shutdownDrain::isStopping, descriptor -> {
+                stageMetrics.record("walk", lastVisitedNanos);
+                offerDescriptor(descriptor, null);
+                lastVisitedNanos = System.nanoTime();
+            });
+        }
+        for (Path archive : archives) {
+            if (shutdownDrain.isStopping()) {
+                break;
+            }
+            offerArchive(archive, entryName -> fileTree.fileFilter().acceptFile(RemaArchiveReader.entryFilename(entryName), Long.MAX_VALUE));
+        }
+    }
+
+    /**
+     * Produce the quarantined files again, in position order. Files that fail again are quarantined.
+     */
+    public void redrive() {
+        if (quarantine == null) {
+            throw new IllegalStateException("Quarantine is not configured: source.quarantine.path");
+        }
+        List<Quarantine.Entry> entries = quarantine.redriveEntries();
+        entries.sort(Comparator.comparing(entry -> entry.position));
+        LOG.info("Redrive {} quarantined files from: {}", entries.size(), quarantine.file());
+        Map<Path, Set<String>> archiveEntries = new LinkedHashMap<>();
+        for (Quarantine.Entry entry : entries) {
+            if (shutdownDrain.isStopping()) {
+                break;
+            }
+            int separatorIndex = entry.source.indexOf(RemaFileDescriptor.ARCHIVE_ENTRY_SEPARATOR);
+            if (separatorIndex != -1 && archiveExecutor != null) {
+                archiveEntries.computeIfAbsent(Path.of(entry.source.substring(0, separatorIndex)), archive -> new HashSet<>())
+                        .add(entry.source.substring(separatorIndex + RemaFileDescriptor.ARCHIVE_ENTRY_SEPARATOR.length()));
+                continue;
+            }
+            Path file = Path.of(entry.source);
+            try {
+                offerFile(file, Files.readAttributes(file, BasicFileAttributes.class));
+            } catch (IOException e) {
+                quarantine.add(entry.position, entry.source, e);
+            }
         }
+        archiveEntries.forEach((archive, entryNames) -> {
+            if (!shutdownDrain.isStopping()) {
+                offerArchive(archive, entryNames::contains);
+            }
+        });
+        commitMessages();
+        if (!shutdownDrain.isStopping()) {
+            quarantine.completeRedrive();
+        }
+    }
+
+    /**
+     * Continuously publish files arriving in the month folder until the thread is interrupted.
+     */
+    public void watch() {
+        LOG.info("Watch source path: {}", sourcePath.toString());
+        try (RemaWatcher watcher = new RemaWatcher(sourcePath, fileTree.fileFilter(), runState,
+                "poll".equalsIgnoreCase(sourceConfiguration.watchMode()),
+                sourceConfiguration.watchPollIntervalSeconds() * 1000L,
+                sourceConfiguration.watchSettleMillis())) {
+            while (!Thread.currentThread().isInterrupted() && !shutdownDrain.isStopping()) {
+                int count = watcher.awaitFiles(this::readFileTree, this::offerFile);
+                boolean drained = count == 0 || commitMessages();
+                if (shutdownDrain.isStopping() || !drained) {
+                    break; // the high-water mark must not pass skipped or dropped files
+                }
+                if (count > 0) {
+                    LOG.info("Watch - Published {} new files (total: {})", count, publishedMessageCount.get());
+                }
+                watcher.commit();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.info("Watch - Stopped");
+    }
+
+    void readFileTree(BiConsumer<Path, BasicFileAttributes> visitFile) {
+        readFileTree(fileTree.fileFilter(), visitFile);
+    }
+
+    void readFileTree(RemaFileFilter fileFilter, BiConsumer<Path, BasicFileAttributes> visitFile) {
+        lastVisitedNanos = System.nanoTime();
+        fileTree.walk(fileFilter, shutdownDrain::isStopping, visitFile);
+    }
+
+    public StageMetrics stageMetrics() {
+        return stageMetrics;
     }
 
     @Override
     public void close() {
         try {
             commitMessages();
+            if (shutdownDrain.isStopping()) {
+                threadPool.getExecutor().shutdownNow();
+                if (adaptiveExecutor != null) {
+                    adaptiveExecutor.shutdownNow();
+                }
+            }
             threadPool.shutdownAndAwaitTermination();
+            if (adaptiveExecutor != null) {
+                adaptiveExecutor.shutdown();
+                adaptiveExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            }
             client.close();
+            if (shutdownDrain.isStopping()) {
+                LOG.info("Shutdown - Drained: {}, dropped: {}, last published position: {}",
+                        publishedMessageCount.get() - publishedAtStop.get(), reordering.pending(), lastPublishedPosition);
+            }
+            if (runStarted.get() > 0) {
+                runState.put(RemaRunState.LAST_RUN_STARTED, runStarted.get());
+            }
+            if (lastPublishedPosition != null) {
+                runState.put(RemaRunState.LAST_PUBLISHED_POSITION, lastPublishedPosition);
+            }
+            if (runStarted.get() > 0 || lastPublishedPosition != null) {
+                runState.save();
+            }
             LOG.info("Source - Read file Total-Count: {}", readFileCount.get());
             LOG.info("Source - Published message Total-Count: {}", publishedMessageCount.get());
+            if (byteBudget != null) {
+                LOG.info("Source - {}", byteBudget);
+            }
+            LOG.info("Source - {}", retryPolicy);
+            if (spillStore != null) {
+                spillStore.close();
+                LOG.info("Source - {}", spillStore);
+            }
+            if (archiveExecutor != null) {
+                archiveExecutor.shutdownNow();
+            }
+            if (hedgedReader != null) {
+                hedgedReader.close();
+                LOG.info("Source - {}", hedgedReader);
+            }
+            if (quarantine != null) {
+                quarantine.close();
+                LOG.info("Source - {}", quarantine.summary());
+            }
+            LOG.info("Source - Stages:\n{}", stageMetrics.summary(System.nanoTime() - startedNanos));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -175,23 +750,40 @@ public class RemaBongWorker implements AutoCloseable {
 
     public static class RawdataMessageBuffer {
         private final RawdataProducer producer;
-        private final Path file;
+        private final RemaFileDescriptor descriptor;
         private final EncryptionClient encryptionClient;
         private final byte[] secretKey;
+        // set by the worker
+        long payloadBytes;
+        String[] producedPositions;
+        long producedNanos;
+        StageMetrics metrics = StageMetrics.NONE;
+        HedgedReader reader;
+        byte[] archivedContent;
+        // payloads are buffered to the producer on publish when deferred, so they can be spilled while waiting
+        List<String> deferredPositions;
+        List<byte[]> deferredEntries;
+        long deferredBytes;
+        SpillStore.Ref spillRef;
+        boolean spilled;
 
         public RawdataMessageBuffer(RawdataProducer producer, Path file) {
             this(producer, file, null, null);
         }
 
         public RawdataMessageBuffer(RawdataProducer producer, Path file, EncryptionClient encryptionClient, byte[] secretKey) {
+            this(producer, RemaFileDescriptor.of(file, 0), encryptionClient, secretKey);
+        }
+
+        public RawdataMessageBuffer(RawdataProducer producer, RemaFileDescriptor descriptor, EncryptionClient encryptionClient, byte[] secretKey) {
+            Objects.requireNonNull(descriptor);
             this.encryptionClient = encryptionClient;
             this.secretKey = secretKey;
-            Objects.requireNonNull(file);
             this.producer = producer;
-            this.file = file;
+            this.descriptor = descriptor;
         }
 
-        private byte[] tryEncryptContent(byte[] content) {
+        byte[] tryEncryptContent(byte[] content) {
             if (secretKey != null) {
                 byte[] iv = encryptionClient.generateIV();
                 return encryptionClient.encrypt(secretKey, iv, content);
@@ -199,37 +791,203 @@ public class RemaBongWorker implements AutoCloseable {
             return content;
         }
 
-        public void produce() {
+        void buffer(String position, byte[] content) {
+            long encryptNanos = System.nanoTime();
+            byte[] entry = tryEncryptContent(content);
+            long bufferNanos = metrics.record("encrypt", encryptNanos, content.length, position);
+            if (deferredPositions != null) {
+                deferredPositions.add(position);
+                deferredEntries.add(entry);
+                deferredBytes += entry.length;
+                return;
+            }
+            bufferToProducer(position, entry);
+            metrics.record("buffer", bufferNanos, content.length, position);
+        }
+
+        private void bufferToProducer(String position, byte[] entry) {
             RawdataMessage.Builder messageBuilder = producer.builder();
+            messageBuilder.position(position);
+            messageBuilder.ulid(ULIDGenerator.generate(descriptor.timestamp()));
+            messageBuilder.put("entry", entry);
+            producer.buffer(messageBuilder);
+        }
+
+        void deferBuffering() {
+            if (deferredPositions == null) {
+                deferredPositions = new ArrayList<>();
+                deferredEntries = new ArrayList<>();
+            }
+        }
+
+        boolean isBufferingDeferred() {
+            return deferredPositions != null;
+        }
+
+        void clearDeferred() {
+            if (deferredPositions != null) {
+                deferredPositions.clear();
+                deferredEntries.clear();
+                deferredBytes = 0;
+            }
+        }
+
+        /**
+         * Move the deferred payloads to the spill store.
+         */
+        void spill(SpillStore spillStore) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(deferredBytes + 64L * deferredPositions.size() + 4, Integer.MAX_VALUE));
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(deferredPositions.size());
+                for (int i = 0; i < deferredPositions.size(); i++) {
+                    out.writeUTF(deferredPositions.get(i));
+                    out.writeInt(deferredEntries.get(i).length);
+                    out.write(deferredEntries.get(i));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            spillRef = spillStore.write(bytes.toByteArray());
+            spilled = true;
+            deferredPositions.clear();
+            deferredEntries.clear();
+        }
+
+        /**
+         * Buffer the deferred payloads to the producer, reading them back from the spill store if spilled.
+         *
+         * @param spillStore null when spilling is not configured
+         */
+        void bufferDeferred(SpillStore spillStore) {
+            long bufferNanos = System.nanoTime();
+            if (spillRef != null) {
+                // the record is released by the read, also if the read fails
+                SpillStore.Ref ref = spillRef;
+                spillRef = null;
+                try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(spillStore.read(ref)))) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        deferredPositions.add(in.readUTF());
+                        byte[] entry = new byte[in.readInt()];
+                        in.readFully(entry);
+                        deferredEntries.add(entry);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            for (int i = 0; i < deferredPositions.size(); i++) {
+                bufferToProducer(deferredPositions.get(i), deferredEntries.get(i));
+            }
+            metrics.record("buffer", bufferNanos, deferredBytes, toPosition());
+            clearDeferred();
+        }
+
+        /**
+         * Drop the deferred payloads without buffering them, and release them from the spill store if spilled.
+         */
+        void discardDeferred(SpillStore spillStore) {
+            if (spillRef != null) {
+                SpillStore.Ref ref = spillRef;
+                spillRef = null;
+                spillStore.release(ref);
+            }
+            clearDeferred();
+        }
+
+        byte[] readContent() {
+            if (archivedContent != null) {
+                return archivedContent;
+            }
+            if (reader != null) {
+                return reader.read(getFile());
+            }
             try {
-                messageBuilder.position(toPosition());
-                messageBuilder.ulid(ULIDGenerator.generate(toTimestamp()));
-                messageBuilder.put("entry", tryEncryptContent(Files.readAllBytes(getFile())));
-                producer.buffer(messageBuilder);
+                return Files.readAllBytes(getFile());
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
 
+        /**
+         * @return positions of the buffered messages
+         */
+        public String[] produce() {
+            long readNanos = System.nanoTime();
+            byte[] content = readContent();
+            metrics.record("read", readNanos, content.length, toPosition());
+            buffer(toPosition(), content);
+            return new String[]{toPosition()};
+        }
+
+        public RemaFileDescriptor getDescriptor() {
+            return descriptor;
+        }
+
         public Path getFile() {
-            return file.normalize().toAbsolutePath();
+            return descriptor.file();
         }
 
         public String getFilename() {
-            return file.getFileName().toString();
+            return descriptor.filename();
         }
 
         public String toPosition() {
-            return getFilename();
+            return descriptor.position();
         }
 
         public Long toTimestamp() {
-            int hyphenPos = toPosition().indexOf("-");
-            if (hyphenPos == -1) {
-                throw new IllegalStateException("Wrong filename format: \"" + toPosition() + "\"");
+            return descriptor.timestamp();
+        }
+    }
+
+    static class ArchiveEntry {
+        static final ArchiveEntry END = new ArchiveEntry(null, null);
+
+        final String entryName;
+        final byte[] content;
+
+        ArchiveEntry(String entryName, byte[] content) {
+            this.entryName = entryName;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Buffers one message per xml record with position filename#recordKey. Buffering is always deferred to publish,
+     * so a file that fails midway leaves none of its records in the producer. A duplicate record key fails the file
+     * as input, rather than letting one record replace the other.
+     */
+    public static class XmlSplitMessageBuffer extends RawdataMessageBuffer {
+        private final RemaXmlSplitter xmlSplitter;
+
+        public XmlSplitMessageBuffer(RawdataProducer producer, RemaFileDescriptor descriptor, EncryptionClient encryptionClient, byte[] secretKey, RemaXmlSplitter xmlSplitter) {
+            super(producer, descriptor, encryptionClient, secretKey);
+            this.xmlSplitter = xmlSplitter;
+            deferBuffering();
+        }
+
+        @Override
+        public String[] produce() {
+            List<String> positions = new ArrayList<>();
+            long readNanos = System.nanoTime();
+            long[] bufferNanos = new long[1];
+            BiConsumer<String, byte[]> recordCallback = (recordKey, record) -> {
+                String position = toPosition() + "#" + recordKey;
+                long recordNanos = System.nanoTime();
+                buffer(position, record);
+                bufferNanos[0] += System.nanoTime() - recordNanos;
+                positions.add(position);
+            };
+            if (reader != null || archivedContent != null) {
+                // a hedged read or an archive entry holds the whole file, records are split from memory
+                xmlSplitter.split(new ByteArrayInputStream(readContent()), recordCallback);
+            } else {
+                xmlSplitter.split(getFile(), recordCallback);
             }
-            String timestampToken = toPosition().substring(0, hyphenPos).replace("_", "");
-            return Long.valueOf(timestampToken);
+            // read and split time, excluding encrypt and buffer of the records
+            metrics.record("read", readNanos + bufferNanos[0], getDescriptor().size(), toPosition());
+            return positions.toArray(new String[0]);
         }
     }
 }
@@ -0,0 +1,126 @@
+package no.ssb.dc.collection.bong.rema;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Immutable descriptor of a Rema source file or archive entry. Path, filename and timestamp are resolved once when the
+ * file is visited, so the message hot path does no path or string work.
+ */
+public final class RemaFileDescriptor {
+
+    public static final String ARCHIVE_ENTRY_SEPARATOR = "!/";
+
+    private final Path file;
+    private final String entryName;
+    private final String filename;
+    private final long timestamp;
+    private final long size;
+
+    private RemaFileDescriptor(Path file, String entryName, String filename, long timestamp, long size) {
+        this.file = file;
+        this.entryName = entryName;
+        this.filename = filename;
+        this.timestamp = timestamp;
+        this.size = size;
+    }
+
+    public static RemaFileDescriptor of(Path file, BasicFileAttributes attrs) {
+        return of(file, attrs.size());
+    }
+
+    /**
+     * @throws IllegalStateException if the filename does not start with a timestamp
+     */
+    public static RemaFileDescriptor of(Path file, long size) {
+        Objects.requireNonNull(file);
+        Path absoluteFile = file.toAbsolutePath().normalize();
+        String filename = file.getFileName().toString();
+        return new RemaFileDescriptor(absoluteFile, null, filename, parseTimestamp(filename), size);
+    }
+
+    /**
+     * An archive entry has the position and timestamp of a file with the entry filename.
+     *
+     * @throws IllegalStateException if the entry filename does not start with a timestamp
+     */
+    public static RemaFileDescriptor ofArchiveEntry(Path archive, String entryName, long size) {
+        Objects.requireNonNull(archive);
+        Objects.requireNonNull(entryName);
+        Path absoluteArchive = archive.toAbsolutePath().normalize();
+        String filename = RemaArchiveReader.entryFilename(entryName);
+        return new RemaFileDescriptor(absoluteArchive, entryName, filename, parseTimestamp(filename), size);
+    }
+
+    /**
+     * Parse the timestamp token before the first hyphen, e.g. 20180126_061507420-230101-237427. Underscores are skipped.
+     */
+    static long parseTimestamp(String filename) {
+        int hyphenPos = filename.indexOf('-');
+        if (hyphenPos == -1) {
+            throw new IllegalStateException("Wrong filename format: \"" + filename + "\"");
+        }
+        long timestamp = 0;
+        int digits = 0;
+        for (int i = 0; i < hyphenPos; i++) {
+            char c = filename.charAt(i);
+            if (c == '_') {
+                continue;
+            }
+            if (c < '0' || c > '9' || ++digits > 18) {
+                throw new IllegalStateException("Wrong filename format: \"" + filename + "\"");
+            }
+            timestamp = timestamp * 10 + (c - '0');
+        }
+        if (digits == 0) {
+            throw new IllegalStateException("Wrong filename format: \"" + filename + "\"");
+        }
+        return timestamp;
+    }
+
+    /**
+     * @return absolute file path, or the archive path of an archive entry
+     */
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * @return entry path in the archive, or null if not an archive entry
+     */
+    public String entryName() {
+        return entryName;
+    }
+
+    /**
+     * @return file path, or archive path and entry path separated by "!/"
+     */
+    public String source() {
+        return entryName == null ? file.toString() : file + ARCHIVE_ENTRY_SEPARATOR + entryName;
+    }
+
+    public String filename() {
+        return filename;
+    }
+
+    /**
+     * @return message position, which is the filename
+     */
+    public String position() {
+        return filename;
+    }
+
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return source();
+    }
+}
@@ -0,0 +1,143 @@
+package no.ssb.dc.collection.bong.rema;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Filters the Rema file tree (root/year/month/day/file) without opening any files.
+ * <p>
+ * Day folders are pruned by the from/to range and files are matched by the filename timestamp, store-id and
+ * modified time. Filenames follow the format: yyyyMMdd_HHmmssSSS-storeId-receiptId
+ */
+public class RemaFileFilter {
+
+    static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS");
+
+    private final YearMonth yearMonth;
+    private final long fromTimestamp; // inclusive
+    private final long toTimestamp; // exclusive
+    private final Set<String> storeIds;
+    private final long modifiedAfter;
+
+    RemaFileFilter(YearMonth yearMonth, LocalDateTime from, LocalDateTime to, Set<String> storeIds, long modifiedAfter) {
+        this(yearMonth,
+                from == null ? Long.MIN_VALUE : toTimestamp(from),
+                to == null ? Long.MAX_VALUE : toTimestamp(to),
+                storeIds == null ? Set.of() : Set.copyOf(storeIds),
+                modifiedAfter);
+    }
+
+    private RemaFileFilter(YearMonth yearMonth, long fromTimestamp, long toTimestamp, Set<String> storeIds, long modifiedAfter) {
+        this.yearMonth = yearMonth;
+        this.fromTimestamp = fromTimestamp;
+        this.toTimestamp = toTimestamp;
+        this.storeIds = storeIds;
+        this.modifiedAfter = modifiedAfter;
+    }
+
+    public static RemaFileFilter create(SourceRemaConfiguration configuration, long modifiedAfter) {
+        YearMonth yearMonth = YearMonth.of(Integer.parseInt(configuration.year()), Integer.parseInt(configuration.month()));
+        LocalDateTime from = configuration.hasFrom() ? parseDateTime(configuration.from()) : null;
+        LocalDateTime to = configuration.hasTo() ? parseDateTime(configuration.to()) : null;
+        Set<String> storeIds = configuration.hasStores() ? parseStoreIds(configuration.stores()) : Set.of();
+        return new RemaFileFilter(yearMonth, from, to, storeIds, modifiedAfter);
+    }
+
+    static LocalDateTime parseDateTime(String value) {
+        String trimmedValue = value.trim();
+        try {
+            return trimmedValue.contains("T") ? LocalDateTime.parse(trimmedValue) : LocalDate.parse(trimmedValue).atStartOfDay();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Illegal date or date-time (expected: yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss): " + value, e);
+        }
+    }
+
+    static Set<String> parseStoreIds(String value) {
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(storeId -> !storeId.isEmpty())
+                .collect(Collectors.toSet());
+    }
+
+    static long toTimestamp(LocalDateTime dateTime) {
+        return Long.parseLong(TIMESTAMP_FORMAT.format(dateTime));
+    }
+
+    public RemaFileFilter withModifiedAfter(long modifiedAfter) {
+        return new RemaFileFilter(yearMonth, fromTimestamp, toTimestamp, storeIds, modifiedAfter);
+    }
+
+    public long modifiedAfter() {
+        return modifiedAfter;
+    }
+
+    public boolean isTimeRangeFiltered() {
+        return fromTimestamp != Long.MIN_VALUE || toTimestamp != Long.MAX_VALUE;
+    }
+
+    /**
+     * @param dayFolderName the folder name directly under root/year/month
+     * @return false if no file in the day folder can be within the from/to range
+     */
+    public boolean acceptDayFolder(String dayFolderName) {
+        if (!isTimeRangeFiltered()) {
+            return true;
+        }
+        int day;
+        try {
+            day = Integer.parseInt(dayFolderName);
+        } catch (NumberFormatException e) {
+            return true; // not a day folder, let the file filter decide
+        }
+        if (!yearMonth.isValidDay(day)) {
+            return true;
+        }
+        LocalDate date = yearMonth.atDay(day);
+        long dayStart = toTimestamp(date.atStartOfDay());
+        long dayEnd = toTimestamp(date.plusDays(1).atStartOfDay());
+        return dayEnd > fromTimestamp && dayStart < toTimestamp;
+    }
+
+    /**
+     * @param lastModifiedMillis file modified time in epoch millis
+     * @return false if the file was not modified after the previous run
+     */
+    public boolean acceptModified(long lastModifiedMillis) {
+        return modifiedAfter <= 0 || lastModifiedMillis > modifiedAfter;
+    }
+
+    /**
+     * Filenames that cannot be parsed are accepted, so that validation reports them.
+     *
+     * @param filename          the bong filename
+     * @param lastModifiedMillis file modified time in epoch millis
+     * @return true if the file should be produced
+     */
+    public boolean acceptFile(String filename, long lastModifiedMillis) {
+        if (!acceptModified(lastModifiedMillis)) {
+            return false;
+        }
+        String[] tokens = filename.split("-");
+        if (tokens.length < 2) {
+            return true;
+        }
+        if (isTimeRangeFiltered()) {
+            long timestamp;
+            try {
+                timestamp = Long.parseLong(tokens[0].replace("_", ""));
+            } catch (NumberFormatException e) {
+                return true;
+            }
+            if (timestamp < fromTimestamp || timestamp >= toTimestamp) {
+                return false;
+            }
+        }
+        return storeIds.isEmpty() || storeIds.contains(tokens[1]);
+    }
+}
@@ -0,0 +1,105 @@
+package no.ssb.dc.collection.bong.rema;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The Rema source file tree: root/year/month/day/file
+ * <p>
+ * When archives are enabled, zip, tar and tar.gz files are visited by modified time only. Their entries are filtered
+ * when the archive is read.
+ */
+public class RemaFileTree {
+
+    private final Path sourcePath;
+    private final RemaFileFilter fileFilter;
+    private final boolean archives;
+
+    public RemaFileTree(Path sourcePath, RemaFileFilter fileFilter) {
+        this(sourcePath, fileFilter, false);
+    }
+
+    public RemaFileTree(Path sourcePath, RemaFileFilter fileFilter, boolean archives) {
+        this.sourcePath = sourcePath;
+        this.fileFilter = fileFilter;
+        this.archives = archives;
+    }
+
+    public static RemaFileTree create(SourceRemaConfiguration configuration) {
+        return new RemaFileTree(sourcePath(configuration), RemaFileFilter.create(configuration, 0));
+    }
+
+    public static Path sourcePath(SourceRemaConfiguration configuration) {
+        return Paths.get(configuration.rootPath())
+                .resolve(configuration.year())
+                .resolve(configuration.month())
+                .normalize()
+                .toAbsolutePath();
+    }
+
+    public Path sourcePath() {
+        return sourcePath;
+    }
+
+    public RemaFileFilter fileFilter() {
+        return fileFilter;
+    }
+
+    public boolean archives() {
+        return archives;
+    }
+
+    public void walk(BiConsumer<Path, BasicFileAttributes> visitFile) {
+        walk(fileFilter, visitFile);
+    }
+
+    public void walk(RemaFileFilter fileFilter, BiConsumer<Path, BasicFileAttributes> visitFile) {
+        walk(fileFilter, () -> false, visitFile);
+    }
+
+    /**
+     * @param stopped the walk terminates when this returns true
+     */
+    public void walk(RemaFileFilter fileFilter, BooleanSupplier stopped, BiConsumer<Path, BasicFileAttributes> visitFile) {
+        try {
+            Files.walkFileTree(sourcePath, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (sourcePath.equals(dir.getParent()) && !fileFilter.acceptDayFolder(dir.getFileName().toString())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (stopped.getAsBoolean()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    String filename = file.getFileName().toString();
+                    if (filename.startsWith(".")) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    long lastModifiedMillis = attrs.lastModifiedTime().toMillis();
+                    boolean accepted = archives && RemaArchiveReader.isArchive(filename) ?
+                            fileFilter.acceptModified(lastModifiedMillis) :
+                            fileFilter.acceptFile(filename, lastModifiedMillis);
+                    if (!accepted) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    visitFile.accept(file, attrs);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
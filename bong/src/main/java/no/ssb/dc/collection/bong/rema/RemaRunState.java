@@ -0,0 +1,84 @@
+package no.ssb.dc.collection.bong.rema;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Persisted state for a Rema source (year/month) stored as a properties file under the state path.
+ */
+public class RemaRunState {
+
+    static final String LAST_RUN_STARTED = "last.run.started";
+    static final String LAST_PUBLISHED_POSITION = "last.published.position";
+
+    private final Path stateFile;
+    private final Properties properties = new Properties();
+
+    RemaRunState(Path stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    public static RemaRunState load(SourceRemaConfiguration configuration) {
+        Path stateFile = Path.of(configuration.statePath())
+                .resolve(String.format("rema-%s-%s.state", configuration.year(), configuration.month()))
+                .toAbsolutePath()
+                .normalize();
+        return load(stateFile);
+    }
+
+    static RemaRunState load(Path stateFile) {
+        RemaRunState state = new RemaRunState(stateFile);
+        if (Files.isReadable(stateFile)) {
+            try (Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+                state.properties.load(reader);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return state;
+    }
+
+    public Path stateFile() {
+        return stateFile;
+    }
+
+    public synchronized long getLong(String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public synchronized String getString(String key) {
+        return properties.getProperty(key);
+    }
+
+    public synchronized RemaRunState put(String key, Object value) {
+        properties.setProperty(key, String.valueOf(value));
+        return this;
+    }
+
+    public long lastRunStarted() {
+        return getLong(LAST_RUN_STARTED, 0);
+    }
+
+    /**
+     * Write to a temp file and atomically replace the state file, so a crash never leaves a partial state file.
+     */
+    public synchronized void save() {
+        try {
+            Files.createDirectories(stateFile.getParent());
+            Path tempFile = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            }
+            Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package no.ssb.dc.collection.bong.rema;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Sorts Rema source files by filename timestamp with bounded memory. Filenames are appended to a names file and
+ * each file is kept as a compact record of timestamp, folder id, name offset and size. Records are sorted in runs
+ * of fixed size held in primitive arrays, spilled to run files, and read back with a k-way merge.
+ * <p>
+ * The sort is stable, so files with the same timestamp keep their walk order.
+ */
+public class RemaTimestampSorter implements AutoCloseable {
+
+    private final Path directory;
+    private final int runSize;
+    private final Map<Path, Integer> folderIds = new HashMap<>();
+    private final List<Path> folders = new ArrayList<>();
+    private final Path namesFile;
+    private final OutputStream names;
+    private long namesBytes;
+    private final List<Path> runs = new ArrayList<>();
+    private long[] timestamps = new long[0];
+    private int[] folderIdOf = new int[0];
+    private long[] nameOffsets = new long[0];
+    private int[] nameLengths = new int[0];
+    private long[] sizes = new long[0];
+    private int buffered;
+    private long count;
+
+    public RemaTimestampSorter(Path parentDirectory, int runSize) {
+        if (runSize < 1) {
+            throw new IllegalArgumentException("Run size must be positive: " + runSize);
+        }
+        try {
+            Files.createDirectories(parentDirectory);
+            directory = Files.createTempDirectory(parentDirectory, "sort-");
+            namesFile = directory.resolve("names.bin");
+            names = new BufferedOutputStream(Files.newOutputStream(namesFile), 64 * 1024);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.runSize = runSize;
+    }
+
+    /**
+     * @throws IllegalStateException if the filename does not start with a timestamp
+     */
+    public void add(Path file, long size) {
+        String filename = file.getFileName().toString();
+        long timestamp = RemaFileDescriptor.parseTimestamp(filename);
+        byte[] name = filename.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xFFFF) {
+            throw new IllegalStateException("Filename is too long: " + file);
+        }
+        int folderId = folderIds.computeIfAbsent(file.getParent(), folder -> {
+            folders.add(folder);
+            return folders.size() - 1;
+        });
+        try {
+            names.write(name);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (buffered == timestamps.length) {
+            grow();
+        }
+        timestamps[buffered] = timestamp;
+        folderIdOf[buffered] = folderId;
+        nameOffsets[buffered] = namesBytes;
+        nameLengths[buffered] = name.length;
+        sizes[buffered] = size;
+        buffered++;
+        namesBytes += name.length;
+        count++;
+        if (buffered == runSize) {
+            spill();
+        }
+    }
+
+    private void grow() {
+        int capacity = (int) Math.min(runSize, Math.max(1024L, timestamps.length * 2L));
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        folderIdOf = Arrays.copyOf(folderIdOf, capacity);
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        nameLengths = Arrays.copyOf(nameLengths, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public int runCount() {
+        return runs.size();
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * Stable bottom-up merge sort of record indexes by timestamp. Walk order is mostly sorted within a folder, so
+     * merges of ordered neighbours are skipped.
+     */
+    static int[] sortedOrder(long[] keys, int length) {
+        int[] order = new int[length];
+        int[] scratch = new int[length];
+        for (int i = 0; i < length; i++) {
+            order[i] = i;
+        }
+        for (int width = 1; width < length; width *= 2) {
+            for (int lo = 0; lo < length - width; lo += 2 * width) {
+                int mid = lo + width;
+                int hi = Math.min(lo + 2 * width, length);
+                if (keys[order[mid - 1]] <= keys[order[mid]]) {
+                    continue;
+                }
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    scratch[k++] = keys[order[j]] < keys[order[i]] ? order[j++] : order[i++];
+                }
+                while (i < mid) {
+                    scratch[k++] = order[i++];
+                }
+                while (j < hi) {
+                    scratch[k++] = order[j++];
+                }
+                System.arraycopy(scratch, lo, order, lo, hi - lo);
+            }
+        }
+        return order;
+    }
+
+    private void spill() {
+        int[] order = sortedOrder(timestamps, buffered);
+        Path run = directory.resolve(String.format("run-%06d.bin", runs.size() + 1));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 64 * 1024))) {
+            for (int index : order) {
+                out.writeLong(timestamps[index]);
+                out.writeInt(folderIdOf[index]);
+                out.writeLong(nameOffsets[index]);
+                out.writeShort(nameLengths[index]);
+                out.writeLong(sizes[index]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        runs.add(run);
+        buffered = 0;
+    }
+
+    /**
+     * Hand all files to the callback in timestamp order. No files may be added after this call.
+     *
+     * @param stopped the merge ends before the next file when this returns true
+     */
+    public void forEachSorted(BooleanSupplier stopped, Consumer<RemaFileDescriptor> callback) {
+        try {
+            names.close();
+            try (FileChannel namesChannel = FileChannel.open(namesFile, StandardOpenOption.READ)) {
+                if (runs.isEmpty()) {
+                    int[] order = sortedOrder(timestamps, buffered);
+                    for (int index : order) {
+                        if (stopped.getAsBoolean()) {
+                            return;
+                        }
+                        callback.accept(descriptor(namesChannel, folderIdOf[index], nameOffsets[index], nameLengths[index], sizes[index]));
+                    }
+                    return;
+                }
+                if (buffered > 0) {
+                    spill();
+                }
+                // release the run buffers before merging
+                timestamps = new long[0];
+                folderIdOf = new int[0];
+                nameOffsets = new long[0];
+                nameLengths = new int[0];
+                sizes = new long[0];
+                merge(namesChannel, stopped, callback);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void merge(FileChannel namesChannel, BooleanSupplier stopped, Consumer<RemaFileDescriptor> callback) throws IOException {
+        PriorityQueue<RunCursor> queue = new PriorityQueue<>();
+        List<RunCursor> cursors = new ArrayList<>();
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                RunCursor cursor = new RunCursor(i, new DataInputStream(new BufferedInputStream(Files.newInputStream(runs.get(i)), 64 * 1024)));
+                cursors.add(cursor);
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+            }
+            RunCursor cursor;
+            while (!stopped.getAsBoolean() && (cursor = queue.poll()) != null) {
+                callback.accept(descriptor(namesChannel, cursor.folderId, cursor.nameOffset, cursor.nameLength, cursor.size));
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+            }
+        } finally {
+            for (RunCursor runCursor : cursors) {
+                runCursor.in.close();
+            }
+        }
+    }
+
+    private RemaFileDescriptor descriptor(FileChannel namesChannel, int folderId, long nameOffset, int nameLength, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(nameLength);
+        while (buffer.hasRemaining()) {
+            if (namesChannel.read(buffer, nameOffset + buffer.position()) < 0) {
+                throw new EOFException("Names file is truncated: " + namesFile);
+            }
+        }
+        String filename = new String(buffer.array(), StandardCharsets.UTF_8);
+        return RemaFileDescriptor.of(folders.get(folderId).resolve(filename), size);
+    }
+
+    @Override
+    public void close() {
+        try {
+            names.close();
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            Files.deleteIfExists(namesFile);
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static class RunCursor implements Comparable<RunCursor> {
+        final int run;
+        final DataInputStream in;
+        long timestamp;
+        int folderId;
+        long nameOffset;
+        int nameLength;
+        long size;
+
+        RunCursor(int run, DataInputStream in) {
+            this.run = run;
+            this.in = in;
+        }
+
+        boolean next() throws IOException {
+            try {
+                timestamp = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            folderId = in.readInt();
+            nameOffset = in.readLong();
+            nameLength = in.readUnsignedShort();
+            size = in.readLong();
+            return true;
+        }
+
+        @Override
+        public int compareTo(RunCursor other) {
+            int compare = Long.compare(timestamp, other.timestamp);
+            // earlier runs hold files visited earlier
+            return compare != 0 ? compare : Integer.compare(run, other.run);
+        }
+    }
+}
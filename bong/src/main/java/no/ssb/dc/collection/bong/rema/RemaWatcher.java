@@ -0,0 +1,198 @@
+package no.ssb.dc.collection.bong.rema;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Detects new files in the month folder, either by NIO WatchService events or by periodic incremental scans.
+ * <p>
+ * Incremental scans pick up files modified after the persisted high-water mark. A file is only handed over when it
+ * has not been modified for the settle period, so partially written files are not published.
+ */
+class RemaWatcher implements AutoCloseable {
+
+    static final String HIGH_WATER_MARK = "watch.high.water.mark";
+    static final int MAX_RECENTLY_PUBLISHED = 100_000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(RemaWatcher.class);
+
+    private final Path sourcePath;
+    private final RemaFileFilter fileFilter;
+    private final RemaRunState runState;
+    private final long pollIntervalMillis;
+    private final long settleMillis;
+    private final WatchService watchService;
+    private final Set<Path> pending = new LinkedHashSet<>();
+    private final Map<String, Boolean> recentlyPublished = new LinkedHashMap<>(1024, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_RECENTLY_PUBLISHED;
+        }
+    };
+    private long highWaterMark;
+    private long cutoff;
+    private boolean rescan = true;
+
+    RemaWatcher(Path sourcePath, RemaFileFilter fileFilter, RemaRunState runState, boolean poll, long pollIntervalMillis, long settleMillis) {
+        this.sourcePath = sourcePath;
+        this.fileFilter = fileFilter.withModifiedAfter(0);
+        this.runState = runState;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.settleMillis = settleMillis;
+        this.highWaterMark = Math.max(runState.getLong(HIGH_WATER_MARK, 0), fileFilter.modifiedAfter());
+        try {
+            watchService = poll ? null : sourcePath.getFileSystem().newWatchService();
+            if (watchService != null) {
+                register(sourcePath);
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(sourcePath, Files::isDirectory)) {
+                    for (Path dayFolder : stream) {
+                        register(dayFolder);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        LOG.info("Watch mode: {}, high-water mark: {}, settle: {}ms", poll ? "poll" : "native", highWaterMark, settleMillis);
+    }
+
+    private void register(Path folder) throws IOException {
+        folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * Block until new files are detected or the poll interval elapses, and offer settled files.
+     *
+     * @param fileTreeReader walks the file tree with a filter
+     * @param offerFile      consumer that publishes a file
+     * @return number of offered files
+     */
+    int awaitFiles(BiConsumer<RemaFileFilter, BiConsumer<Path, BasicFileAttributes>> fileTreeReader, BiConsumer<Path, BasicFileAttributes> offerFile) throws InterruptedException {
+        if (!rescan) {
+            if (watchService == null) {
+                TimeUnit.MILLISECONDS.sleep(pollIntervalMillis);
+                rescan = true;
+            } else {
+                pollEvents();
+            }
+        }
+
+        cutoff = System.currentTimeMillis() - settleMillis;
+        AtomicInteger count = new AtomicInteger();
+
+        if (rescan) {
+            rescan = false;
+            fileTreeReader.accept(fileFilter.withModifiedAfter(highWaterMark), (file, attrs) -> {
+                if (attrs.lastModifiedTime().toMillis() <= cutoff) {
+                    offerOnce(file, attrs, offerFile, count);
+                }
+            });
+        }
+
+        Iterator<Path> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            Path file = iterator.next();
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                iterator.remove();
+                continue;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (attrs.lastModifiedTime().toMillis() > cutoff) {
+                continue; // not settled
+            }
+            iterator.remove();
+            if (attrs.isRegularFile() && fileFilter.acceptFile(file.getFileName().toString(), attrs.lastModifiedTime().toMillis())) {
+                offerOnce(file, attrs, offerFile, count);
+            }
+        }
+
+        return count.get();
+    }
+
+    private void offerOnce(Path file, BasicFileAttributes attrs, BiConsumer<Path, BasicFileAttributes> offerFile, AtomicInteger count) {
+        String filename = file.getFileName().toString();
+        if (filename.startsWith(".") || recentlyPublished.putIfAbsent(filename, Boolean.TRUE) != null) {
+            return;
+        }
+        offerFile.accept(file, attrs);
+        count.incrementAndGet();
+    }
+
+    private void pollEvents() throws InterruptedException {
+        WatchKey key;
+        try {
+            key = watchService.poll(pending.isEmpty() ? pollIntervalMillis : settleMillis, TimeUnit.MILLISECONDS);
+            while (key != null) {
+                Path folder = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescan = true;
+                        continue;
+                    }
+                    Path child = folder.resolve((Path) event.context());
+                    if (Files.isDirectory(child)) {
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && sourcePath.equals(folder)) {
+                            register(child);
+                            try (DirectoryStream<Path> stream = Files.newDirectoryStream(child)) {
+                                stream.forEach(pending::add);
+                            }
+                        }
+                    } else {
+                        pending.add(child);
+                    }
+                }
+                key.reset();
+                key = watchService.poll();
+            }
+        } catch (ClosedWatchServiceException e) {
+            throw new InterruptedException("WatchService closed");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Persist the high-water mark. Must only be called when all offered files have been published.
+     */
+    void commit() {
+        if (cutoff > highWaterMark) {
+            highWaterMark = cutoff;
+            runState.put(HIGH_WATER_MARK, highWaterMark).save();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
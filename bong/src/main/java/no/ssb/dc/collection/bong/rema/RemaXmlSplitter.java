@@ -0,0 +1,188 @@
+package no.ssb.dc.collection.bong.rema;
+
+import no.ssb.dc.collection.pipeline.SourceInputException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Splits an xml file into records with a StAX reader. Each element that matches the record path (e.g.
+ * /receipts/receipt) is copied to a standalone document, so only one record is held in memory at a time.
+ */
+public class RemaXmlSplitter {
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+    private static final XMLOutputFactory OUTPUT_FACTORY = createOutputFactory();
+
+    private final String[] recordPath;
+    private final String positionAttribute;
+
+    /**
+     * @param recordPath        slash separated element names from the document root
+     * @param positionAttribute record attribute that identifies the record, or null to use the record index
+     */
+    public RemaXmlSplitter(String recordPath, String positionAttribute) {
+        this.recordPath = Arrays.stream(recordPath.split("/")).filter(name -> !name.isEmpty()).toArray(String[]::new);
+        if (this.recordPath.length == 0) {
+            throw new IllegalArgumentException("Record path is empty!");
+        }
+        this.positionAttribute = positionAttribute;
+    }
+
+    static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    static XMLOutputFactory createOutputFactory() {
+        XMLOutputFactory factory = XMLOutputFactory.newInstance();
+        // declare namespaces inherited from ancestors of the record element
+        factory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+        return factory;
+    }
+
+    /**
+     * @param recordCallback receives the record key (attribute value or 1-based index) and the record document
+     * @return number of records
+     * @throws SourceInputException if two records in the file have the same key, since one would replace the other
+     */
+    public int split(Path file, BiConsumer<String, byte[]> recordCallback) {
+        try (InputStream in = Files.newInputStream(file)) {
+            return split(in, recordCallback);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public int split(InputStream in, BiConsumer<String, byte[]> recordCallback) {
+        List<String> elementPath = new ArrayList<>();
+        Set<String> recordKeys = new HashSet<>();
+        int recordCount = 0;
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        elementPath.add(reader.getLocalName());
+                        if (isRecordPath(elementPath)) {
+                            recordCount++;
+                            String attributeValue = positionAttribute == null ? null : reader.getAttributeValue(null, positionAttribute);
+                            String recordKey = attributeValue == null || attributeValue.isEmpty() ? String.valueOf(recordCount) : attributeValue;
+                            if (!recordKeys.add(recordKey)) {
+                                throw new SourceInputException(String.format("Duplicate record key '%s' at record %d", recordKey, recordCount));
+                            }
+                            recordCallback.accept(recordKey, copyElement(reader));
+                            elementPath.remove(elementPath.size() - 1);
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        elementPath.remove(elementPath.size() - 1);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            // a read failure surfaces as a stream exception caused by the I/O failure
+            if (e.getCause() instanceof IOException && !(e.getCause() instanceof CharacterCodingException)) {
+                throw new UncheckedIOException((IOException) e.getCause());
+            }
+            throw new SourceInputException(e);
+        }
+        return recordCount;
+    }
+
+    private boolean isRecordPath(List<String> elementPath) {
+        if (elementPath.size() != recordPath.length) {
+            return false;
+        }
+        for (int i = recordPath.length - 1; i >= 0; i--) {
+            if (!recordPath[i].equals(elementPath.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the current element and its subtree. The reader is positioned at the matching end element on return.
+     */
+    static byte[] copyElement(XMLStreamReader reader) throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+        writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+        int depth = 0;
+        int event = reader.getEventType();
+        do {
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT -> {
+                    depth++;
+                    writeStartElement(reader, writer);
+                }
+                case XMLStreamConstants.END_ELEMENT -> {
+                    depth--;
+                    writer.writeEndElement();
+                }
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE -> writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                case XMLStreamConstants.CDATA -> writer.writeCData(reader.getText());
+                case XMLStreamConstants.COMMENT -> writer.writeComment(reader.getText());
+                default -> {
+                }
+            }
+            if (depth == 0) {
+                break;
+            }
+            event = reader.next();
+        } while (true);
+        writer.writeEndDocument();
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static void writeStartElement(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        String prefix = reader.getPrefix();
+        String namespaceURI = reader.getNamespaceURI();
+        if (namespaceURI == null) {
+            writer.writeStartElement(reader.getLocalName());
+        } else {
+            writer.writeStartElement(prefix == null ? "" : prefix, reader.getLocalName(), namespaceURI);
+        }
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String namespacePrefix = reader.getNamespacePrefix(i);
+            if (namespacePrefix == null || namespacePrefix.isEmpty()) {
+                writer.writeDefaultNamespace(reader.getNamespaceURI(i));
+            } else {
+                writer.writeNamespace(namespacePrefix, reader.getNamespaceURI(i));
+            }
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String attributeNamespace = reader.getAttributeNamespace(i);
+            if (attributeNamespace == null || attributeNamespace.isEmpty()) {
+                writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            } else {
+                writer.writeAttribute(reader.getAttributePrefix(i), attributeNamespace, reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package no.ssb.dc.collection.bong.rema;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reorders completions by a primitive sequence assigned when an element is expected. Elements are held in a ring
+ * buffer that doubles when full, so expecting and completing an element is constant time and does no hashing.
+ * <p>
+ * Ordered batches are handed to the callback by one thread at a time, so a slow or retried callback cannot be
+ * overtaken by a later batch. A batch whose callback fails is put back first in line, and no later batch is handed
+ * to the callback after it.
+ */
+public class SequenceReordering<ELEMENT> {
+
+    private final Object lock = new Object();
+    private Object[] elements;
+    private boolean[] completed;
+    private long nextSequence;
+    private long nextOrdered;
+    private int backlog;
+    private final Deque<List<ELEMENT>> ready = new ArrayDeque<>();
+    private int readyCount;
+    private boolean draining;
+    private boolean failed;
+
+    public SequenceReordering() {
+        this(1024);
+    }
+
+    public SequenceReordering(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(initialCapacity, 2) - 1) << 1;
+        elements = new Object[capacity];
+        completed = new boolean[capacity];
+    }
+
+    /**
+     * @return sequence of the expected element
+     */
+    public long addExpected(ELEMENT element) {
+        synchronized (lock) {
+            if (nextSequence - nextOrdered == elements.length) {
+                grow();
+            }
+            long sequence = nextSequence++;
+            elements[index(sequence)] = element;
+            return sequence;
+        }
+    }
+
+    public void addCompleted(long sequence, Consumer<List<ELEMENT>> orderedElementsCallback) {
+        List<ELEMENT> orderedElements = null;
+        synchronized (lock) {
+            if (sequence < nextOrdered || sequence >= nextSequence || completed[index(sequence)]) {
+                throw new IllegalStateException("Sequence is not expected: " + sequence);
+            }
+            completed[index(sequence)] = true;
+            backlog++;
+            while (nextOrdered < nextSequence && completed[index(nextOrdered)]) {
+                int index = index(nextOrdered);
+                if (orderedElements == null) {
+                    orderedElements = new ArrayList<>();
+                }
+                @SuppressWarnings("unchecked")
+                ELEMENT element = (ELEMENT) elements[index];
+                orderedElements.add(element);
+                elements[index] = null;
+                completed[index] = false;
+                nextOrdered++;
+                backlog--;
+            }
+            if (orderedElements != null) {
+                ready.add(orderedElements);
+                readyCount += orderedElements.size();
+            }
+            if (draining || failed || ready.isEmpty()) {
+                return;
+            }
+            draining = true;
+        }
+        drain(orderedElementsCallback);
+    }
+
+    private void drain(Consumer<List<ELEMENT>> orderedElementsCallback) {
+        while (true) {
+            List<ELEMENT> orderedElements;
+            synchronized (lock) {
+                orderedElements = ready.poll();
+                if (orderedElements == null) {
+                    draining = false;
+                    return;
+                }
+                readyCount -= orderedElements.size();
+            }
+            boolean accepted = false;
+            try {
+                orderedElementsCallback.accept(orderedElements);
+                accepted = true;
+            } finally {
+                if (!accepted) {
+                    synchronized (lock) {
+                        ready.addFirst(orderedElements);
+                        readyCount += orderedElements.size();
+                        failed = true;
+                        draining = false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of completed elements waiting for preceding elements
+     */
+    public int backlog() {
+        synchronized (lock) {
+            return backlog;
+        }
+    }
+
+    /**
+     * @return true if a callback has failed, which stops the hand over of ordered batches
+     */
+    public boolean failed() {
+        synchronized (lock) {
+            return failed;
+        }
+    }
+
+    /**
+     * @return number of expected elements not yet handed to the ordered callback
+     */
+    public int pending() {
+        synchronized (lock) {
+            return (int) (nextSequence - nextOrdered) + readyCount;
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence & (elements.length - 1));
+    }
+
+    private void grow() {
+        Object[] grownElements = new Object[elements.length * 2];
+        boolean[] grownCompleted = new boolean[completed.length * 2];
+        int mask = grownElements.length - 1;
+        for (long sequence = nextOrdered; sequence < nextSequence; sequence++) {
+            grownElements[(int) (sequence & mask)] = elements[index(sequence)];
+            grownCompleted[(int) (sequence & mask)] = completed[index(sequence)];
+        }
+        elements = grownElements;
+        completed = grownCompleted;
+    }
+}
@@ -34,11 +34,186 @@ public interface SourceRemaConfiguration extends BaseConfiguration {
     @Property("queue.capacity")
     Integer queueCapacity();
 
+    // max payload bytes read but not yet published (k, m or g suffix)
+    @Property("queue.capacity.bytes")
+    Boolean hasQueueCapacityBytes();
+
+    @Property("queue.capacity.bytes")
+    String queueCapacityBytes();
+
+    // inclusive lower bound of filename timestamp: yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss
+    @Property("from")
+    Boolean hasFrom();
+
+    @Property("from")
+    String from();
+
+    // exclusive upper bound of filename timestamp: yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss
+    @Property("to")
+    Boolean hasTo();
+
+    @Property("to")
+    String to();
+
+    // comma separated list of store ids
+    @Property("stores")
+    Boolean hasStores();
+
+    @Property("stores")
+    String stores();
+
+    // only produce files modified after the previous successful run
+    @Property("since.last.run")
+    Boolean hasSinceLastRun();
+
+    @Property("since.last.run")
+    Boolean sinceLastRun();
+
+    @Property("state.path")
+    String statePath();
+
+    // watch: native (WatchService) or poll (periodic incremental scan, use on NFS)
+    @Property("watch.mode")
+    String watchMode();
+
+    @Property("watch.poll.interval.seconds")
+    Integer watchPollIntervalSeconds();
+
+    // files are only published when they have not been modified for this period
+    @Property("watch.settle.millis")
+    Integer watchSettleMillis();
+
+    @Property("concurrency.adaptive")
+    Boolean hasConcurrencyAdaptive();
+
+    @Property("concurrency.adaptive")
+    Boolean concurrencyAdaptive();
+
+    @Property("concurrency.min")
+    Boolean hasConcurrencyMin();
+
+    @Property("concurrency.min")
+    Integer concurrencyMin();
+
+    @Property("concurrency.max")
+    Boolean hasConcurrencyMax();
+
+    @Property("concurrency.max")
+    Integer concurrencyMax();
+
+    // produce files in filename timestamp order across day folders, with an external sort of the file tree
+    @Property("sorted")
+    Boolean hasSorted();
+
+    @Property("sorted")
+    Boolean sorted();
+
+    // files sorted in memory before a run is spilled to disk
+    @Property("sort.run.size")
+    Boolean hasSortRunSize();
+
+    @Property("sort.run.size")
+    Integer sortRunSize();
+
+    // sort run folder, defaults to java.io.tmpdir
+    @Property("sort.temp.path")
+    Boolean hasSortTempPath();
+
+    @Property("sort.temp.path")
+    String sortTempPath();
+
+    // stream zip, tar and tar.gz files in the source tree entry by entry, without extracting them
+    @Property("archives")
+    Boolean hasArchives();
+
+    @Property("archives")
+    Boolean archives();
+
+    // archive entries decompressed ahead of the worker pool
+    @Property("archive.read.ahead")
+    Boolean hasArchiveReadAhead();
+
+    @Property("archive.read.ahead")
+    Integer archiveReadAhead();
+
+    // payload bytes of completed messages held in memory while waiting for a preceding message (k, m or g suffix),
+    // more is spilled to disk until it can be published
+    @Property("reorder.memory.bytes")
+    Boolean hasReorderMemoryBytes();
+
+    @Property("reorder.memory.bytes")
+    String reorderMemoryBytes();
+
+    // spill folder, defaults to java.io.tmpdir
+    @Property("reorder.spill.path")
+    Boolean hasReorderSpillPath();
+
+    @Property("reorder.spill.path")
+    String reorderSpillPath();
+
+    // issue a second read of a file that is not read within this period, first read wins (0: after p95 read latency)
+    @Property("read.hedge.millis")
+    Boolean hasReadHedgeMillis();
+
+    @Property("read.hedge.millis")
+    Integer readHedgeMillis();
+
+    // split xml files into one message per record element, e.g. /receipts/receipt
+    @Property("xml.record.path")
+    Boolean hasXmlRecordPath();
+
+    @Property("xml.record.path")
+    String xmlRecordPath();
+
+    // record attribute used in the message position (filename#value), defaults to the record index
+    @Property("xml.position.attribute")
+    Boolean hasXmlPositionAttribute();
+
+    @Property("xml.position.attribute")
+    String xmlPositionAttribute();
+
+    // attempts per produce and publish; i/o and upload failures are retried with exponential backoff and full jitter
+    @Property("retry.max.attempts")
+    Integer retryMaxAttempts();
+
+    // backoff ceiling of the first retry, doubled for each further attempt
+    @Property("retry.backoff.millis")
+    Integer retryBackoffMillis();
+
+    // consecutive failures that open the circuit and pause intake (defaults to retry.max.attempts)
+    @Property("circuit.failure.threshold")
+    Boolean hasCircuitFailureThreshold();
+
+    @Property("circuit.failure.threshold")
+    Integer circuitFailureThreshold();
+
+    @Property("circuit.open.seconds")
+    Integer circuitOpenSeconds();
+
+    // record unreadable files or rows in a dead-letter file in this folder and continue, instead of aborting the run
+    @Property("quarantine.path")
+    Boolean hasQuarantinePath();
+
+    @Property("quarantine.path")
+    String quarantinePath();
+
+    // max time to drain in-flight messages after a stop request
+    @Property("shutdown.timeout.seconds")
+    Integer shutdownTimeoutSeconds();
+
     @Override
     default Map<String, String> defaultValues() {
         return Map.of(
                 "root.path", "/source",
-                "queue.capacity", "1000" // flush buffer on threshold
+                "queue.capacity", "1000", // flush buffer on threshold
+                "state.path", "/database",
+                "watch.mode", "native",
+                "watch.poll.interval.seconds", "30",
+                "watch.settle.millis", "2000",
+                "retry.max.attempts", "5",
+                "retry.backoff.millis", "200",
+                "circuit.open.seconds", "30",
+                "shutdown.timeout.seconds", "30"
         );
     }
 
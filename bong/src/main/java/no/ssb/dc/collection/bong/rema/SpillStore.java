@@ -0,0 +1,174 @@
+package no.ssb.dc.collection.bong.rema;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only spill files for payloads that wait for publishing. Records are appended to the current segment file
+ * and read back with positional reads. A segment file is deleted when it is full and all its records are read.
+ */
+public class SpillStore implements AutoCloseable {
+
+    static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment current;
+    private int segmentCount;
+    private long spilledRecords;
+    private long spilledBytes;
+    private long diskBytes;
+    private long peakDiskBytes;
+
+    public SpillStore(Path parentDirectory) {
+        this(parentDirectory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public SpillStore(Path parentDirectory, long segmentBytes) {
+        try {
+            Files.createDirectories(parentDirectory);
+            this.directory = Files.createTempDirectory(parentDirectory, "spill-");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.segmentBytes = segmentBytes;
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    public synchronized Ref write(byte[] data) {
+        try {
+            if (current == null || current.size >= segmentBytes) {
+                sealCurrent();
+                current = new Segment(directory.resolve(String.format("segment-%06d.spill", ++segmentCount)));
+                segments.add(current);
+            }
+            Ref ref = new Ref(current, current.size, data.length);
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                current.channel.write(buffer, current.size + buffer.position());
+            }
+            current.size += data.length;
+            current.liveRecords++;
+            spilledRecords++;
+            spilledBytes += data.length;
+            diskBytes += data.length;
+            peakDiskBytes = Math.max(peakDiskBytes, diskBytes);
+            return ref;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read and release a record. The record is released also if the read fails.
+     */
+    public byte[] read(Ref ref) {
+        ByteBuffer buffer = ByteBuffer.allocate(ref.length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (ref.segment.channel.read(buffer, ref.offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of spill file: " + ref.segment.file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            release(ref);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Release a record without reading it.
+     */
+    synchronized void release(Ref ref) {
+        ref.segment.liveRecords--;
+        diskBytes -= ref.length;
+        if (ref.segment != current && ref.segment.liveRecords == 0) {
+            delete(ref.segment);
+        }
+    }
+
+    private void sealCurrent() {
+        if (current != null && current.liveRecords == 0) {
+            delete(current);
+        }
+        current = null;
+    }
+
+    private void delete(Segment segment) {
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments.remove(segment);
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : new ArrayList<>(segments)) {
+            delete(segment);
+        }
+        current = null;
+        try {
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized long spilledRecords() {
+        return spilledRecords;
+    }
+
+    public synchronized long diskBytes() {
+        return diskBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SpillStore{" +
+                "directory=" + directory +
+                ", spilledRecords=" + spilledRecords +
+                ", spilledBytes=" + spilledBytes +
+                ", peakDiskBytes=" + peakDiskBytes +
+                '}';
+    }
+
+    public static class Ref {
+        final Segment segment;
+        final long offset;
+        final int length;
+
+        Ref(Segment segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    static class Segment {
+        final Path file;
+        final FileChannel channel;
+        long size;
+        int liveRecords;
+
+        Segment(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+    }
+}
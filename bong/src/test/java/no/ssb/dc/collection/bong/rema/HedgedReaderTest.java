@@ -0,0 +1,29 @@
+package no.ssb.dc.collection.bong.rema;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HedgedReaderTest {
+
+    @Test
+    void thatFilesAreReadAndFailuresPropagate(@TempDir Path tempDir) throws IOException {
+        Path file = Files.writeString(tempDir.resolve("201101_2018-10-01T10:00:00_1"), "<receipt/>");
+        try (HedgedReader reader = new HedgedReader(1)) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals("<receipt/>", new String(reader.read(file), StandardCharsets.UTF_8));
+            }
+            assertThrows(UncheckedIOException.class, () -> reader.read(tempDir.resolve("missing")));
+            assertEquals(10, reader.latencies().count());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package no.ssb.dc.collection.bong.rema;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemaArchiveReaderTest {
+
+    static final String LONG_DIRECTORY = "2018/10/01/" + "x".repeat(120);
+
+    static final Map<String, String> ENTRIES = Map.of(
+            "2018/10/01/20181001_100000000-201101-1", "<receipt id=\"1\"/>",
+            LONG_DIRECTORY + "/20181001_100000001-201101-2", "<receipt id=\"2\"/>"
+    );
+
+    static void writeTarBlock(OutputStream out, String name, char type, byte[] content) throws IOException {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+        writeOctal(header, 100, 8, 0644);
+        writeOctal(header, 124, 12, content.length);
+        writeOctal(header, 136, 12, 1538388000L);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        out.write(header);
+        out.write(content);
+        out.write(new byte[(512 - content.length % 512) % 512]);
+    }
+
+    static void writeOctal(byte[] header, int offset, int length, long value) {
+        byte[] octal = String.format("%0" + (length - 1) + "o", value).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(octal, 0, header, offset, octal.length);
+    }
+
+    static byte[] tar() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTarBlock(out, "2018/10/01/", '5', new byte[0]);
+        writeTarBlock(out, "2018/10/01/.hidden", '0', new byte[1]);
+        for (Map.Entry<String, String> entry : new LinkedHashMap<>(ENTRIES).entrySet()) {
+            if (entry.getKey().length() > 100) {
+                String record = " path=" + entry.getKey() + "\n";
+                int length = record.length() + 3;
+                writeTarBlock(out, "PaxHeader", 'x', (length + record).getBytes(StandardCharsets.UTF_8));
+            }
+            writeTarBlock(out, entry.getKey(), '0', entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        out.write(new byte[1024]);
+        return out.toByteArray();
+    }
+
+    static Map<String, String> read(Path archive) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        int count = RemaArchiveReader.read(archive, () -> false, (entryName, lastModifiedMillis, content) -> {
+            assertTrue(lastModifiedMillis > 0);
+            entries.put(entryName, new String(content, StandardCharsets.UTF_8));
+        });
+        assertEquals(count, entries.size());
+        return entries;
+    }
+
+    @Test
+    void thatTarZipAndGzipEntriesAreStreamed(@TempDir Path tempDir) throws IOException {
+        Path tar = Files.write(tempDir.resolve("rema-2018-10.tar"), tar());
+        assertEquals(ENTRIES, read(tar));
+
+        Path tgz = tempDir.resolve("rema-2018-10.tar.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tgz))) {
+            out.write(tar());
+        }
+        assertEquals(ENTRIES, read(tgz));
+
+        Path zip = tempDir.resolve("rema-2018-10.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("2018/10/01/"));
+            for (Map.Entry<String, String> entry : ENTRIES.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(ENTRIES, read(zip));
+    }
+
+    @Test
+    void thatEntryDescriptorKeepsFilenamePositionAndTimestamp() {
+        RemaFileDescriptor descriptor = RemaFileDescriptor.ofArchiveEntry(Path.of("/source/rema.tgz"), "2018/10/01/20181001_100000000-201101-1", 17);
+        assertEquals("20181001_100000000-201101-1", descriptor.position());
+        assertEquals(20181001100000000L, descriptor.timestamp());
+        assertEquals("/source/rema.tgz!/2018/10/01/20181001_100000000-201101-1", descriptor.source());
+        assertEquals(List.of(true, false), List.of(RemaArchiveReader.isArchive("a.TGZ"), RemaArchiveReader.isArchive("20181001_100000000-201101-1")));
+    }
+}
@@ -0,0 +1,35 @@
+package no.ssb.dc.collection.bong.rema;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemaFileDescriptorTest {
+
+    @Test
+    void thatDescriptorIsResolvedOnce() {
+        RemaFileDescriptor descriptor = RemaFileDescriptor.of(Paths.get("2018", "01", "26", "20180126_061507420-230101-237427"), 42);
+        assertTrue(descriptor.file().isAbsolute());
+        assertEquals(20180126061507420L, descriptor.timestamp());
+        assertEquals("20180126_061507420-230101-237427", descriptor.position());
+        assertEquals(42, descriptor.size());
+    }
+
+    @Test
+    void thatAbsolutePathsAreNormalized() {
+        String filename = "20180126_061507420-230101-237427";
+        assertEquals(Paths.get("/data/2018/01/26", filename), RemaFileDescriptor.of(Paths.get("/data/2018/01/./x/../26", filename), 42).file());
+        assertEquals(Paths.get("/data/2018/01/26.zip"), RemaFileDescriptor.ofArchiveEntry(Paths.get("/data/2018/../2018/01/26.zip"), filename, 42).file());
+    }
+
+    @Test
+    void thatWrongFilenameFormatIsRejected() {
+        assertThrows(IllegalStateException.class, () -> RemaFileDescriptor.parseTimestamp("no_timestamp"));
+        assertThrows(IllegalStateException.class, () -> RemaFileDescriptor.parseTimestamp("2018x-230101"));
+        assertThrows(IllegalStateException.class, () -> RemaFileDescriptor.parseTimestamp("-230101"));
+    }
+}
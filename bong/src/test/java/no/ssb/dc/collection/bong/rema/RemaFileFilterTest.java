@@ -0,0 +1,41 @@
+package no.ssb.dc.collection.bong.rema;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemaFileFilterTest {
+
+    @Test
+    void thatDayFoldersOutsideRangeArePruned() {
+        RemaFileFilter filter = new RemaFileFilter(YearMonth.of(2018, 1),
+                RemaFileFilter.parseDateTime("2018-01-10"), RemaFileFilter.parseDateTime("2018-01-12T12:00:00"), null, 0);
+        assertFalse(filter.acceptDayFolder("9"));
+        assertTrue(filter.acceptDayFolder("10"));
+        assertTrue(filter.acceptDayFolder("12"));
+        assertFalse(filter.acceptDayFolder("13"));
+        assertTrue(filter.acceptDayFolder("not-a-day"));
+    }
+
+    @Test
+    void thatFilenameTimestampAndStoreIsFiltered() {
+        RemaFileFilter filter = new RemaFileFilter(YearMonth.of(2018, 1),
+                LocalDateTime.of(2018, 1, 26, 12, 0), null, RemaFileFilter.parseStoreIds("201101, 201102"), 0);
+        assertTrue(filter.acceptFile("20180126_151002980-201101-359646", 0));
+        assertFalse(filter.acceptFile("20180126_061507420-201101-237427", 0));
+        assertFalse(filter.acceptFile("20180126_151002980-230101-359646", 0));
+        assertTrue(filter.acceptFile("unparsable", 0));
+    }
+
+    @Test
+    void thatFilesNotModifiedSinceLastRunAreSkipped() {
+        RemaFileFilter filter = new RemaFileFilter(YearMonth.of(2018, 1), null, null, Set.of(), 1000);
+        assertFalse(filter.acceptFile("20180126_151002980-201101-359646", 1000));
+        assertTrue(filter.acceptFile("20180126_151002980-201101-359646", 1001));
+    }
+}
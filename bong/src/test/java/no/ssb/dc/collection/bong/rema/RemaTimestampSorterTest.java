@@ -0,0 +1,73 @@
+package no.ssb.dc.collection.bong.rema;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class RemaTimestampSorterTest {
+
+    static final List<String> FILES = List.of(
+            "03/20181003_000000001-230101-1",
+            "01/20181001_120000000-230101-2",
+            "03/20181002_235959999-230101-3", // late delivery
+            "02/20181002_000000000-230101-4",
+            "01/20181001_120000000-201101-5",
+            "01/20181001_000000000-230101-6",
+            "02/20181002_000000000-201101-7"
+    );
+
+    static final List<String> SORTED = List.of(
+            "20181001_000000000-230101-6",
+            "20181001_120000000-230101-2",
+            "20181001_120000000-201101-5",
+            "20181002_000000000-230101-4",
+            "20181002_000000000-201101-7",
+            "20181002_235959999-230101-3",
+            "20181003_000000001-230101-1"
+    );
+
+    static List<String> sort(Path tempDir, int runSize) {
+        List<String> filenames = new ArrayList<>();
+        try (RemaTimestampSorter sorter = new RemaTimestampSorter(tempDir.resolve("sort"), runSize)) {
+            for (int i = 0; i < FILES.size(); i++) {
+                sorter.add(tempDir.resolve("2018/10").resolve(FILES.get(i)), i);
+            }
+            assertEquals(FILES.size(), sorter.count());
+            assertEquals(FILES.size() / runSize, sorter.runCount());
+            sorter.forEachSorted(() -> false, descriptor -> {
+                String file = FILES.stream().filter(name -> name.endsWith(descriptor.filename())).findFirst().orElseThrow();
+                assertEquals(tempDir.resolve("2018/10").resolve(file), descriptor.file());
+                assertEquals(FILES.indexOf(file), descriptor.size());
+                filenames.add(descriptor.filename());
+            });
+        }
+        return filenames;
+    }
+
+    @Test
+    void thatFilesAreSortedByTimestampInWalkOrder(@TempDir Path tempDir) {
+        assertEquals(SORTED, sort(tempDir, 1024));
+    }
+
+    @Test
+    void thatSpilledRunsAreMerged(@TempDir Path tempDir) throws Exception {
+        assertEquals(SORTED, sort(tempDir, 2));
+        try (var files = Files.list(tempDir.resolve("sort"))) {
+            assertFalse(files.findAny().isPresent(), "Sort runs are deleted");
+        }
+    }
+
+    @Test
+    void thatSortIsStable() {
+        long[] keys = {5, 1, 5, 0, 1, 5};
+        assertArrayEquals(new int[]{3, 1, 4, 0, 2, 5}, RemaTimestampSorter.sortedOrder(keys, keys.length));
+    }
+}
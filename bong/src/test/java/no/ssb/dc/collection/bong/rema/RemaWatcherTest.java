@@ -0,0 +1,67 @@
+package no.ssb.dc.collection.bong.rema;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemaWatcherTest {
+
+    static Path createFile(Path folder, String filename, long lastModifiedMillis) throws Exception {
+        Files.createDirectories(folder);
+        Path file = Files.writeString(folder.resolve(filename), filename);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModifiedMillis));
+        return file;
+    }
+
+    @Test
+    void thatNewFilesInMonthFolderArePickedUp(@TempDir Path tempDir) throws Exception {
+        Path sourcePath = tempDir.resolve("2018/01");
+        RemaFileFilter fileFilter = new RemaFileFilter(YearMonth.of(2018, 1), null, null, null, 0);
+        RemaFileTree fileTree = new RemaFileTree(sourcePath, fileFilter);
+        RemaRunState runState = RemaRunState.load(tempDir.resolve("rema.state"));
+        createFile(sourcePath.resolve("26"), "20180126_061507420-230101-1", System.currentTimeMillis() - 60_000);
+
+        List<String> offered = new ArrayList<>();
+        try (RemaWatcher watcher = new RemaWatcher(sourcePath, fileFilter, runState, true, 10, 0)) {
+            assertEquals(1, watcher.awaitFiles(fileTree::walk, (file, attrs) -> offered.add(file.getFileName().toString())));
+            watcher.commit();
+            long highWaterMark = RemaRunState.load(tempDir.resolve("rema.state")).getLong(RemaWatcher.HIGH_WATER_MARK, 0);
+            assertTrue(highWaterMark > 0, "High-water mark is persisted");
+
+            Thread.sleep(20);
+            createFile(sourcePath.resolve("27"), "20180127_080000000-230101-2", System.currentTimeMillis());
+            createFile(sourcePath.resolve("27"), ".20180127_080000001-230101-3", System.currentTimeMillis());
+            Thread.sleep(20);
+
+            assertEquals(1, watcher.awaitFiles(fileTree::walk, (file, attrs) -> offered.add(file.getFileName().toString())));
+            assertEquals(0, watcher.awaitFiles(fileTree::walk, (file, attrs) -> offered.add(file.getFileName().toString())));
+        }
+        assertEquals(List.of("20180126_061507420-230101-1", "20180127_080000000-230101-2"), offered);
+    }
+
+    @Test
+    void thatFilesAreOfferedWhenSettled(@TempDir Path tempDir) throws Exception {
+        Path sourcePath = tempDir.resolve("2018/01");
+        RemaFileFilter fileFilter = new RemaFileFilter(YearMonth.of(2018, 1), null, null, null, 0);
+        RemaFileTree fileTree = new RemaFileTree(sourcePath, fileFilter);
+        Path file = createFile(sourcePath.resolve("26"), "20180126_061507420-230101-1", System.currentTimeMillis());
+
+        List<Path> offered = new ArrayList<>();
+        try (RemaWatcher watcher = new RemaWatcher(sourcePath, fileFilter, RemaRunState.load(tempDir.resolve("rema.state")), true, 10, 60_000)) {
+            assertEquals(0, watcher.awaitFiles(fileTree::walk, (f, attrs) -> offered.add(f)));
+            assertTrue(offered.isEmpty(), "File being written is not offered");
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 120_000));
+            assertEquals(1, watcher.awaitFiles(fileTree::walk, (f, attrs) -> offered.add(f)));
+        }
+        assertEquals(List.of(file), offered);
+    }
+}
@@ -0,0 +1,137 @@
+package no.ssb.dc.collection.bong.rema;
+
+import no.ssb.dc.collection.pipeline.SourceInputException;
+import no.ssb.rawdata.api.RawdataMessage;
+import no.ssb.rawdata.api.RawdataProducer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemaXmlSplitterTest {
+
+    static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+            "<receipts xmlns:r=\"urn:rema\" store=\"201101\">" +
+            "<header><receipt id=\"not-a-record\"/></header>" +
+            "<receipt id=\"A1\"><r:line qty=\"2\">Milk &amp; bread</r:line></receipt>" +
+            "<receipt><line><![CDATA[<raw>]]></line></receipt>" +
+            "</receipts>";
+
+    static Map<String, String> split(RemaXmlSplitter splitter) {
+        Map<String, String> records = new LinkedHashMap<>();
+        int count = splitter.split(new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8)),
+                (recordKey, record) -> records.put(recordKey, new String(record, StandardCharsets.UTF_8)));
+        assertEquals(count, records.size());
+        return records;
+    }
+
+    @Test
+    void thatRecordsAreSplitWithAttributePosition() {
+        Map<String, String> records = split(new RemaXmlSplitter("/receipts/receipt", "id"));
+        assertEquals(List.of("A1", "2"), List.copyOf(records.keySet()));
+
+        String first = records.get("A1");
+        assertTrue(first.contains("<receipt id=\"A1\">"), first);
+        assertTrue(first.contains("xmlns:r=\"urn:rema\""), first);
+        assertTrue(first.contains("Milk &amp; bread"), first);
+        // cdata is coalesced into escaped text
+        assertTrue(records.get("2").contains("&lt;raw&gt;"), records.get("2"));
+    }
+
+    @Test
+    void thatRecordIndexIsUsedWithoutPositionAttribute() {
+        Map<String, String> records = split(new RemaXmlSplitter("receipts/receipt", null));
+        assertEquals(List.of("1", "2"), List.copyOf(records.keySet()));
+    }
+
+    @Test
+    void thatMalformedXmlIsAnInputFailure() {
+        String truncated = XML.substring(0, XML.indexOf("<receipt><line>") + 10);
+        List<String> recordKeys = new ArrayList<>();
+        assertThrows(SourceInputException.class, () -> new RemaXmlSplitter("/receipts/receipt", "id")
+                .split(new ByteArrayInputStream(truncated.getBytes(StandardCharsets.UTF_8)), (recordKey, record) -> recordKeys.add(recordKey)));
+        assertEquals(List.of("A1"), recordKeys);
+    }
+
+    @Test
+    void thatDuplicateRecordKeyIsAnInputFailure(@TempDir Path tempDir) throws IOException {
+        String repeated = XML.replace("<receipt><line>", "<receipt id=\"A1\"><line>");
+        List<String> recordKeys = new ArrayList<>();
+        SourceInputException e = assertThrows(SourceInputException.class, () -> new RemaXmlSplitter("/receipts/receipt", "id")
+                .split(new ByteArrayInputStream(repeated.getBytes(StandardCharsets.UTF_8)), (recordKey, record) -> recordKeys.add(recordKey)));
+        assertTrue(e.getMessage().contains("'A1'"), e.getMessage());
+        assertEquals(List.of("A1"), recordKeys);
+
+        // an attribute value may also collide with the index of a record without the attribute
+        String indexed = XML.replace("id=\"A1\"", "id=\"2\"");
+        assertThrows(SourceInputException.class, () -> new RemaXmlSplitter("/receipts/receipt", "id")
+                .split(new ByteArrayInputStream(indexed.getBytes(StandardCharsets.UTF_8)), (recordKey, record) -> {
+                }));
+
+        // the file fails as a whole, so no record of it is buffered
+        List<String> bufferedPositions = new ArrayList<>();
+        Path file = Files.writeString(tempDir.resolve("20181001_000000000-230101-1"), repeated);
+        RemaBongWorker.XmlSplitMessageBuffer message = new RemaBongWorker.XmlSplitMessageBuffer(recordingProducer(bufferedPositions),
+                RemaFileDescriptor.of(file, Files.size(file)), null, null, new RemaXmlSplitter("/receipts/receipt", "id"));
+        assertThrows(SourceInputException.class, message::produce);
+        assertEquals(List.of(), bufferedPositions);
+    }
+
+    /**
+     * A producer that records the positions of buffered messages.
+     */
+    static RawdataProducer recordingProducer(List<String> bufferedPositions) {
+        String[] position = new String[1];
+        RawdataMessage.Builder builder = (RawdataMessage.Builder) Proxy.newProxyInstance(RawdataMessage.Builder.class.getClassLoader(),
+                new Class<?>[]{RawdataMessage.Builder.class}, (proxy, method, args) -> {
+                    if ("position".equals(method.getName())) {
+                        position[0] = (String) args[0];
+                    }
+                    return method.getReturnType().isInstance(proxy) ? proxy : null;
+                });
+        return (RawdataProducer) Proxy.newProxyInstance(RawdataProducer.class.getClassLoader(),
+                new Class<?>[]{RawdataProducer.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "builder" -> builder;
+                    case "buffer" -> {
+                        bufferedPositions.add(position[0]);
+                        yield proxy;
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @Test
+    void thatRecordsOfFileThatFailsMidwayAreNotBuffered(@TempDir Path tempDir) throws IOException {
+        List<String> bufferedPositions = new ArrayList<>();
+        RawdataProducer producer = recordingProducer(bufferedPositions);
+        RemaXmlSplitter splitter = new RemaXmlSplitter("/receipts/receipt", "id");
+
+        Path truncatedFile = Files.writeString(tempDir.resolve("20181001_000000000-230101-1"), XML.substring(0, XML.indexOf("<receipt><line>") + 10));
+        RemaBongWorker.XmlSplitMessageBuffer truncatedMessage = new RemaBongWorker.XmlSplitMessageBuffer(producer,
+                RemaFileDescriptor.of(truncatedFile, Files.size(truncatedFile)), null, null, splitter);
+        assertThrows(SourceInputException.class, truncatedMessage::produce);
+        assertEquals(List.of(), bufferedPositions, "The record before the failure is not buffered");
+
+        Path file = Files.writeString(tempDir.resolve("20181001_000000000-230101-2"), XML);
+        RemaBongWorker.XmlSplitMessageBuffer message = new RemaBongWorker.XmlSplitMessageBuffer(producer,
+                RemaFileDescriptor.of(file, Files.size(file)), null, null, splitter);
+        String[] positions = message.produce();
+        assertEquals(List.of(), bufferedPositions, "Records are buffered on publish");
+        message.bufferDeferred(null);
+        assertEquals(List.of(positions), bufferedPositions);
+        assertEquals(List.of("20181001_000000000-230101-2#A1", "20181001_000000000-230101-2#2"), bufferedPositions);
+    }
+}
@@ -0,0 +1,82 @@
+package no.ssb.dc.collection.bong.rema;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SequenceReorderingTest {
+
+    @Test
+    void thatCompletionsAreEmittedInSequenceOrderWhileGrowing() {
+        SequenceReordering<String> reordering = new SequenceReordering<>(2);
+        List<Long> sequences = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            sequences.add(reordering.addExpected("f" + i));
+        }
+        assertEquals(10, reordering.pending());
+
+        List<String> ordered = new ArrayList<>();
+        for (int i = 9; i >= 1; i--) {
+            reordering.addCompleted(sequences.get(i), ordered::addAll);
+        }
+        assertEquals(List.of(), ordered);
+        assertEquals(9, reordering.backlog());
+
+        reordering.addCompleted(sequences.get(0), ordered::addAll);
+        assertEquals(IntStream.range(0, 10).mapToObj(i -> "f" + i).collect(Collectors.toList()), ordered);
+        assertEquals(0, reordering.pending());
+        assertEquals(0, reordering.backlog());
+    }
+
+    @Test
+    void thatBatchesCompletedDuringCallbackAreDeliveredByTheDrainingThread() {
+        SequenceReordering<String> reordering = new SequenceReordering<>();
+        long first = reordering.addExpected("f0");
+        long second = reordering.addExpected("f1");
+        List<List<String>> batches = new ArrayList<>();
+        reordering.addCompleted(first, orderedElements -> {
+            if (orderedElements.equals(List.of("f0"))) {
+                // a completion while the callback runs is queued and not delivered ahead of this batch
+                reordering.addCompleted(second, batches::add);
+                assertEquals(List.of(), batches);
+            }
+            batches.add(orderedElements);
+        });
+        assertEquals(List.of(List.of("f0"), List.of("f1")), batches);
+        assertEquals(0, reordering.pending());
+    }
+
+    @Test
+    void thatFailedBatchIsKeptAndNoLaterBatchIsDelivered() {
+        SequenceReordering<String> reordering = new SequenceReordering<>();
+        long first = reordering.addExpected("f0");
+        long second = reordering.addExpected("f1");
+        assertThrows(IllegalStateException.class, () -> reordering.addCompleted(first, orderedElements -> {
+            throw new IllegalStateException("Publish failed");
+        }));
+        assertTrue(reordering.failed());
+        assertEquals(2, reordering.pending());
+
+        List<String> ordered = new ArrayList<>();
+        reordering.addCompleted(second, ordered::addAll);
+        assertEquals(List.of(), ordered, "A later batch is not published past the failed batch");
+        assertEquals(2, reordering.pending());
+    }
+
+    @Test
+    void thatUnexpectedSequenceIsRejected() {
+        SequenceReordering<String> reordering = new SequenceReordering<>();
+        long sequence = reordering.addExpected("f0");
+        reordering.addCompleted(sequence, elements -> {
+        });
+        assertThrows(IllegalStateException.class, () -> reordering.addCompleted(sequence, elements -> {
+        }));
+    }
+}
@@ -0,0 +1,77 @@
+package no.ssb.dc.collection.bong.rema;
+
+import no.ssb.rawdata.api.RawdataProducer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillStoreTest {
+
+    static long segmentFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void thatRecordsAreReadBackAndSegmentsDeleted(@TempDir Path tempDir) throws IOException {
+        SpillStore spillStore = new SpillStore(tempDir, 32);
+        List<SpillStore.Ref> refs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            refs.add(spillStore.write(("record-" + i + "-0123456789").getBytes(StandardCharsets.UTF_8)));
+        }
+        assertEquals(10, spillStore.spilledRecords());
+        assertEquals(5, segmentFiles(spillStore.directory()));
+
+        // read out of order, a full segment is deleted when all its records are read
+        for (int i = 9; i >= 0; i--) {
+            assertEquals("record-" + i + "-0123456789", new String(spillStore.read(refs.get(i)), StandardCharsets.UTF_8));
+        }
+        assertEquals(0, spillStore.diskBytes());
+        assertEquals(1, segmentFiles(spillStore.directory()));
+
+        spillStore.close();
+        assertFalse(Files.exists(spillStore.directory()));
+    }
+
+    @Test
+    void thatSpilledPayloadsOfFailedBatchAreReleased(@TempDir Path tempDir) {
+        SpillStore spillStore = new SpillStore(tempDir, 32);
+        RawdataProducer producer = (RawdataProducer) Proxy.newProxyInstance(RawdataProducer.class.getClassLoader(),
+                new Class<?>[]{RawdataProducer.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "builder" -> RemaXmlSplitterTest.recordingProducer(new ArrayList<>()).builder();
+                    case "buffer" -> throw new IllegalStateException("Producer is closed");
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        List<RemaBongWorker.RawdataMessageBuffer> orderedMessages = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            RemaBongWorker.RawdataMessageBuffer message = new RemaBongWorker.RawdataMessageBuffer(producer,
+                    RemaFileDescriptor.of(Path.of("20181001_000000000-230101-" + i), 0), null, null);
+            message.deferBuffering();
+            message.buffer(message.toPosition(), ("receipt-" + i + "-0123456789").getBytes(StandardCharsets.UTF_8));
+            message.spill(spillStore);
+            orderedMessages.add(message);
+        }
+        assertTrue(spillStore.diskBytes() > 0);
+
+        // the first message is read back before buffering fails, the others are still spilled
+        assertThrows(IllegalStateException.class, () -> RemaBongWorker.bufferDeferred(orderedMessages, spillStore));
+        assertEquals(0, spillStore.diskBytes(), "Spilled payloads of the failed batch are released");
+        orderedMessages.forEach(message -> assertNull(message.spillRef));
+        spillStore.close();
+    }
+}
@@ -47,4 +47,26 @@ fi
 
 DEFAULT_OPTS="-XX:+UnlockExperimentalVMOptions -XX:+EnableJVMCI -XX:+UseContainerSupport --enable-preview"
 
-java $JPMS_SWITCHES $JAVA_OPTS $PROXY_OPTS $DEFAULT_OPTS $JMX_REMOTE_OPTS -p /opt/app/lib -m rawdata.collection.client/no.ssb.dc.collection.client.Application
+#
+# AppCDS: the image build runs a short benchmark with CDS_TRAINING=true to dump loaded classes to the archive,
+# and later runs map the archive to reduce class loading at startup.
+#
+APP_CDS_ARCHIVE="${APP_CDS_ARCHIVE:-/opt/app/app-cds.jsa}"
+if [ "$CDS_TRAINING" = true ]; then
+  CDS_OPTS="-XX:ArchiveClassesAtExit=$APP_CDS_ARCHIVE"
+elif [ -f "$APP_CDS_ARCHIVE" ]; then
+  CDS_OPTS="-XX:SharedArchiveFile=$APP_CDS_ARCHIVE -Xshare:auto"
+else
+  CDS_OPTS=""
+fi
+
+#
+# JFR: the profile settings include allocation samples and GC pause events
+#
+if [ "$JFR_RECORDING" = true ]; then
+  JFR_OPTS="-XX:StartFlightRecording=settings=profile,dumponexit=true,filename=${JFR_FILE:-/tmp/rawdata-collection.jfr}"
+else
+  JFR_OPTS=""
+fi
+
+java $JPMS_SWITCHES $JAVA_OPTS $PROXY_OPTS $DEFAULT_OPTS $CDS_OPTS $JFR_OPTS $JMX_REMOTE_OPTS -p /opt/app/lib -m rawdata.collection.client/no.ssb.dc.collection.client.Application
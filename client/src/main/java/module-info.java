@@ -2,6 +2,7 @@ module rawdata.collection.client {
 
     requires no.ssb.config;
     requires no.ssb.rawdata.migration.onprem;
+    requires rawdata.collection.pipeline;
     requires rawdata.collection.bong;
     requires rawdata.collection.kostra;
 
@@ -14,11 +15,18 @@ module rawdata.collection.client {
 
     requires no.ssb.rawdata.api;
     requires no.ssb.rawdata.encryption;
+    requires no.ssb.service.provider.api;
 
     requires org.slf4j;
+    requires jdk.jfr;
 
     opens no.ssb.dc.collection.client to no.ssb.rawdata.migration.onprem;
 
     exports no.ssb.dc.collection.client;
+    exports no.ssb.dc.collection.client.simulated;
+
+    provides no.ssb.rawdata.api.RawdataClientInitializer with
+            no.ssb.dc.collection.client.simulated.SimulatedRawdataClientInitializer,
+            no.ssb.dc.collection.client.simulated.DiscardingRawdataClientInitializer;
 
 }
@@ -2,6 +2,7 @@ package no.ssb.dc.collection.client;
 
 import no.ssb.dc.collection.bong.rema.RemaBongWorker;
 import no.ssb.dc.collection.bong.rema.SourceRemaConfiguration;
+import no.ssb.dc.collection.kostra.KostraFileParser;
 import no.ssb.dc.collection.kostra.KostraWorker;
 import no.ssb.dc.collection.kostra.SourceKostraConfiguration;
 import no.ssb.dc.migration.rawdata.onprem.config.BootstrapConfiguration;
@@ -28,7 +29,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /**
  * The DynamicConfiguration captures environment variables set to docker and executes a Command.
@@ -40,65 +44,72 @@ public class Application implements Runnable {
 
     private static final Logger LOG = LoggerFactory.getLogger(Application.class);
     static final String DEBUG_CONFIG_OVERRIDE = "rawdata-client-debug-config-override";
-    private static CsvSpecification specification;
-
-    private static Collection<Command> initializeCommands(BootstrapConfiguration configuration, Map<String, String> overrideConfig, Callback printCommands) {
-        TargetConfiguration targetConfiguration = configuration.isHelpAction() ?
+    static final long SHUTDOWN_CLOSE_GRACE_MILLIS = 5000;
+    static final String TRACE_TARGET = "trace";
+    private static Lazy<CsvSpecification> specification;
+
+    /*
+     * Commands are registered without side effects. The target configuration and specification are created on first
+     * use by the selected command, so short jobs and help do not pay for unused configuration and parsing.
+     */
+    private static Collection<Command> initializeCommands(BootstrapConfiguration configuration, Map<String, String> overrideConfig, Callback printCommands, AtomicReference<StopHandler> stopHandler) {
+        Lazy<TargetConfiguration> targetConfigurationRef = new Lazy<>(() -> configuration.isHelpAction() ?
                 null :
-                (configuration.useGCSConfiguration() ? GCSConfiguration.create(overrideConfig) : LocalFileSystemConfiguration.create(overrideConfig));
+                (configuration.useGCSConfiguration() ? GCSConfiguration.create(overrideConfig) : LocalFileSystemConfiguration.create(overrideConfig)));
+        Supplier<TargetConfiguration> targetConfiguration = () -> Optional.ofNullable(targetConfigurationRef.get()).orElseThrow(() -> new RuntimeException("TargetConfiguration was not found!"));
 
-        specification = getSpecification(configuration);
+        specification = new Lazy<>(() -> getSpecification(configuration));
 
         return List.of(
                 new Command("test-gcs-write", null, () -> {
                     LOG.info("Copy dummy rawdata to bucket (ping test).");
-                    new RawdataGCSTestWrite().produceRawdataToGCS(Optional.ofNullable(targetConfiguration).orElseThrow(() -> new RuntimeException("TargetConfiguration was not found!")));
+                    new RawdataGCSTestWrite().produceRawdataToGCS(targetConfiguration.get());
                 }),
                 new Command("produce", "dynamic-no-cache", () -> {
-                    try (var worker = new CsvDynamicWorker(SourceNoDbConfiguration.create(overrideConfig), targetConfiguration, specification)) {
+                    try (var worker = new CsvDynamicWorker(SourceNoDbConfiguration.create(overrideConfig), targetConfiguration.get(), specification.get())) {
                         worker.produce();
                     }
                 }),
                 new Command("generate", "dynamic-no-cache", () -> {
-                    try (var worker = new CsvDynamicWorker(SourceNoDbConfiguration.create(overrideConfig), targetConfiguration, specification)) {
+                    try (var worker = new CsvDynamicWorker(SourceNoDbConfiguration.create(overrideConfig), targetConfiguration.get(), specification.get())) {
                         worker.produce();
                     }
                 }),
                 new Command("prepare", "dynamic-lmdb", () -> {
-                    try (var worker = new CsvDynamicWorker(SourceLmdbConfiguration.create(overrideConfig), targetConfiguration, specification)) {
+                    try (var worker = new CsvDynamicWorker(SourceLmdbConfiguration.create(overrideConfig), targetConfiguration.get(), specification.get())) {
                         worker.prepare();
                     }
                 }),
                 new Command("produce", "dynamic-lmdb", () -> {
-                    try (var worker = new CsvDynamicWorker(SourceLmdbConfiguration.create(overrideConfig), targetConfiguration, specification)) {
+                    try (var worker = new CsvDynamicWorker(SourceLmdbConfiguration.create(overrideConfig), targetConfiguration.get(), specification.get())) {
                         worker.produce();
                     }
                 }),
                 new Command("generate", "dynamic-lmdb", () -> {
-                    try (var worker = new CsvDynamicWorker(SourceLmdbConfiguration.create(overrideConfig), targetConfiguration, specification)) {
-                        worker.prepare();
-                        worker.produce();
+                    try (var worker = new CsvDynamicWorker(SourceLmdbConfiguration.create(overrideConfig), targetConfiguration.get(), specification.get())) {
+                        generate(worker);
                     }
                 }),
                 new Command("prepare", "dynamic-postgres", () -> {
-                    try (var worker = new CsvDynamicWorker(SourcePostgresConfiguration.create(overrideConfig), targetConfiguration, specification)) {
+                    try (var worker = new CsvDynamicWorker(SourcePostgresConfiguration.create(overrideConfig), targetConfiguration.get(), specification.get())) {
                         worker.prepare();
                     }
                 }),
                 new Command("produce", "dynamic-postgres", () -> {
-                    try (var worker = new CsvDynamicWorker(SourcePostgresConfiguration.create(overrideConfig), targetConfiguration, specification)) {
+                    try (var worker = new CsvDynamicWorker(SourcePostgresConfiguration.create(overrideConfig), targetConfiguration.get(), specification.get())) {
                         worker.produce();
                     }
                 }),
                 new Command("generate", "dynamic-postgres", () -> {
-                    try (var worker = new CsvDynamicWorker(SourcePostgresConfiguration.create(overrideConfig), targetConfiguration, specification)) {
-                        worker.prepare();
-                        worker.produce();
+                    try (var worker = new CsvDynamicWorker(SourcePostgresConfiguration.create(overrideConfig), targetConfiguration.get(), specification.get())) {
+                        generate(worker);
                     }
                 }),
                 // TODO deprecate custom workers
                 new Command("produce", "kostra", () -> {
-                    try (KostraWorker worker = new KostraWorker(SourceKostraConfiguration.create(overrideConfig), Optional.ofNullable(targetConfiguration).orElseThrow(() -> new RuntimeException("TargetConfiguration was not found!")))) {
+                    SourceKostraConfiguration sourceConfiguration = SourceKostraConfiguration.create(overrideConfig);
+                    try (KostraWorker worker = new KostraWorker(sourceConfiguration, targetConfiguration.get())) {
+                        stopHandler.set(new StopHandler(worker::stop, sourceConfiguration.shutdownTimeoutSeconds()));
                         if (!worker.validate()) {
                             return;
                         }
@@ -106,17 +117,112 @@ public class Application implements Runnable {
                     }
                 }),
                 new Command("produce", "rema-fs", () -> {
-                    try (RemaBongWorker worker = new RemaBongWorker(SourceRemaConfiguration.create(overrideConfig), Optional.ofNullable(targetConfiguration).orElseThrow(() -> new RuntimeException("TargetConfiguration was not found!")))) {
+                    SourceRemaConfiguration sourceConfiguration = SourceRemaConfiguration.create(overrideConfig);
+                    try (RemaBongWorker worker = new RemaBongWorker(sourceConfiguration, targetConfiguration.get())) {
+                        stopHandler.set(new StopHandler(worker::stop, sourceConfiguration.shutdownTimeoutSeconds()));
                         if (!worker.validate()) {
                             return;
                         }
                         worker.produce();
                     }
                 }),
+                new Command("watch", "rema-fs", () -> {
+                    SourceRemaConfiguration sourceConfiguration = SourceRemaConfiguration.create(overrideConfig);
+                    try (RemaBongWorker worker = new RemaBongWorker(sourceConfiguration, targetConfiguration.get())) {
+                        stopHandler.set(new StopHandler(worker::stop, sourceConfiguration.shutdownTimeoutSeconds()));
+                        worker.watch();
+                    }
+                }),
+                new Command("redrive", "kostra", () -> {
+                    SourceKostraConfiguration sourceConfiguration = SourceKostraConfiguration.create(overrideConfig);
+                    try (KostraWorker worker = new KostraWorker(sourceConfiguration, targetConfiguration.get())) {
+                        stopHandler.set(new StopHandler(worker::stop, sourceConfiguration.shutdownTimeoutSeconds()));
+                        worker.redrive();
+                    }
+                }),
+                new Command("redrive", "rema-fs", () -> {
+                    SourceRemaConfiguration sourceConfiguration = SourceRemaConfiguration.create(overrideConfig);
+                    try (RemaBongWorker worker = new RemaBongWorker(sourceConfiguration, targetConfiguration.get())) {
+                        stopHandler.set(new StopHandler(worker::stop, sourceConfiguration.shutdownTimeoutSeconds()));
+                        worker.redrive();
+                    }
+                }),
+                new Command("benchmark", "kostra", () -> {
+                    SourceKostraConfiguration sourceConfiguration = SourceKostraConfiguration.create(overrideConfig);
+                    try (KostraWorker worker = new KostraWorker(sourceConfiguration, benchmarkTargetConfiguration(overrideConfig))) {
+                        stopHandler.set(new StopHandler(worker::stop, sourceConfiguration.shutdownTimeoutSeconds()));
+                        worker.produce();
+                    }
+                }),
+                new Command("benchmark", "rema-fs", () -> {
+                    SourceRemaConfiguration sourceConfiguration = SourceRemaConfiguration.create(overrideConfig);
+                    try (RemaBongWorker worker = new RemaBongWorker(sourceConfiguration, benchmarkTargetConfiguration(overrideConfig))) {
+                        stopHandler.set(new StopHandler(worker::stop, sourceConfiguration.shutdownTimeoutSeconds()));
+                        worker.produce();
+                    }
+                }),
+                new Command("verify", "kostra", () -> {
+                    VerifyConfiguration verifyConfiguration = VerifyConfiguration.create(overrideConfig);
+                    try (DecryptingTopicReader reader = DecryptingTopicReader.create(targetConfiguration.get(), verifyConfiguration.threads(), verifyConfiguration.prefetch(), verifyConfiguration.idleTimeoutSeconds())) {
+                        new RawdataVerifier(verifyConfiguration).verifyKostra(new KostraFileParser(SourceKostraConfiguration.create(overrideConfig)), reader);
+                    }
+                }),
+                new Command("verify", "rema-fs", () -> {
+                    VerifyConfiguration verifyConfiguration = VerifyConfiguration.create(overrideConfig);
+                    try (DecryptingTopicReader reader = DecryptingTopicReader.create(targetConfiguration.get(), verifyConfiguration.threads(), verifyConfiguration.prefetch(), verifyConfiguration.idleTimeoutSeconds())) {
+                        new RawdataVerifier(verifyConfiguration).verifyRema(SourceRemaConfiguration.create(overrideConfig), reader);
+                    }
+                }),
+                new Command("export", "kostra", () -> {
+                    ExportConfiguration exportConfiguration = ExportConfiguration.create(overrideConfig);
+                    try (DecryptingTopicReader reader = DecryptingTopicReader.create(targetConfiguration.get(), exportConfiguration.threads(), exportConfiguration.prefetch(), exportConfiguration.idleTimeoutSeconds())) {
+                        String filename = exportConfiguration.hasFile() ? exportConfiguration.file() : reader.topic() + ".ndjson";
+                        new TopicExporter(reader).exportNdjson(Paths.get(exportConfiguration.path()).resolve(filename));
+                    }
+                }),
+                new Command("export", "rema-fs", () -> {
+                    ExportConfiguration exportConfiguration = ExportConfiguration.create(overrideConfig);
+                    try (DecryptingTopicReader reader = DecryptingTopicReader.create(targetConfiguration.get(), exportConfiguration.threads(), exportConfiguration.prefetch(), exportConfiguration.idleTimeoutSeconds())) {
+                        new TopicExporter(reader).exportRema(Paths.get(exportConfiguration.path()));
+                    }
+                }),
+                new Command("summarize", TRACE_TARGET, () -> {
+                    TraceConfiguration traceConfiguration = TraceConfiguration.create(overrideConfig);
+                    if (!traceConfiguration.hasFile()) {
+                        throw new IllegalStateException("Recording file is not configured: trace.file");
+                    }
+                    LOG.info("Trace - Stages:\n{}", PipelineTrace.summarize(Paths.get(traceConfiguration.file()), traceConfiguration.slowest()));
+                }),
                 new Command("help", null, printCommands)
         );
     }
 
+    /**
+     * Import the csv files into the backend, then produce from it. The phases run one after the other: the worker
+     * does not expose the key ranges committed by the import, and produce iterates the whole backend, so it cannot
+     * start before the import is complete. Only the phase times are logged; prepare and produce are not overlapped.
+     */
+    static void generate(CsvDynamicWorker worker) {
+        long prepareStarted = System.currentTimeMillis();
+        worker.prepare();
+        long produceStarted = System.currentTimeMillis();
+        worker.produce();
+        LOG.info("Generate - Phase times (sequential) - prepare: {}ms, produce: {}ms", produceStarted - prepareStarted, System.currentTimeMillis() - produceStarted);
+    }
+
+    /**
+     * The benchmark target encrypts with a throwaway key and discards all messages, so a run measures read, parse,
+     * encrypt and reorder without a sink. Stage throughput is logged when the worker closes.
+     */
+    static TargetConfiguration benchmarkTargetConfiguration(Map<String, String> overrideConfig) {
+        Map<String, String> benchmarkConfig = new LinkedHashMap<>(overrideConfig);
+        benchmarkConfig.put("target.rawdata.client.provider", "discard");
+        benchmarkConfig.putIfAbsent("target.rawdata.topic", "benchmark");
+        benchmarkConfig.put("target.rawdata.encryptionKey", "benchmark");
+        benchmarkConfig.put("target.rawdata.encryptionSalt", "benchmark");
+        return LocalFileSystemConfiguration.create(benchmarkConfig);
+    }
+
     static CsvSpecification getSpecification(BootstrapConfiguration configuration) {
         SpecificationDeserializer deserializer = new SpecificationDeserializer();
         try {
@@ -137,12 +243,29 @@ public class Application implements Runnable {
     }
 
     private final BootstrapConfiguration configuration;
+    private final Map<String, String> overrideConfig;
     private final Collection<Command> commands;
     private final AtomicBoolean completed = new AtomicBoolean();
+    private final AtomicReference<StopHandler> stopHandler = new AtomicReference<>();
 
     private Application(BootstrapConfiguration configuration, Map<String, String> overrideConfig) {
         this.configuration = configuration;
-        this.commands = initializeCommands(configuration, overrideConfig, this::printCommands);
+        this.overrideConfig = overrideConfig;
+        this.commands = initializeCommands(configuration, overrideConfig, this::printCommands, stopHandler);
+    }
+
+    /**
+     * Ask the running worker to stop reading and drain in-flight messages.
+     *
+     * @return time to wait for the drain in milliseconds, or zero if the command does not support graceful stop
+     */
+    long stop() {
+        StopHandler handler = stopHandler.get();
+        if (handler == null) {
+            return 0;
+        }
+        handler.stop.run();
+        return TimeUnit.SECONDS.toMillis(handler.timeoutSeconds);
     }
 
     boolean isAction(String action) {
@@ -150,6 +273,7 @@ public class Application implements Runnable {
     }
 
     boolean isTarget(String target) {
+        CsvSpecification specification = Application.specification.get();
         return (specification != null && specification.backend != null && target.equals("dynamic-".concat(specification.backend.provider)))
                 || (configuration.hasTarget() && configuration.target().equals(target));
     }
@@ -168,6 +292,7 @@ public class Application implements Runnable {
 
         LOG.info("Rawdata Client Provider: {}", configuration.rawdataClientProvider());
 
+        CsvSpecification specification = Application.specification.get();
         String overrideTarget = specification != null && specification.backend != null ?
                 "dynamic-" + specification.backend.provider :
                 null;
@@ -180,7 +305,16 @@ public class Application implements Runnable {
             if ((isAction(command.action) && target == null) || (isAction(command.action) && isTarget(target))) {
                 valid = true;
                 LOG.info("Execute action: {} and target: {} with callback: {}", command.action, target, command.callback);
-                command.callback.execute();
+                TraceConfiguration traceConfiguration = TraceConfiguration.create(overrideConfig);
+                boolean trace = traceConfiguration.hasFile() && !TRACE_TARGET.equals(target);
+                PipelineTrace pipelineTrace = trace ? PipelineTrace.start(Paths.get(traceConfiguration.file())) : null;
+                try {
+                    command.callback.execute();
+                } finally {
+                    if (pipelineTrace != null) {
+                        pipelineTrace.close();
+                    }
+                }
                 completed.set(true);
                 break;
             }
@@ -199,11 +333,44 @@ public class Application implements Runnable {
         return new Application(BootstrapConfiguration.create(overrideConfig), overrideConfig);
     }
 
+    static class Lazy<T> implements Supplier<T> {
+        private final Supplier<T> supplier;
+        private volatile boolean initialized;
+        private T value;
+
+        Lazy(Supplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public T get() {
+            if (!initialized) {
+                synchronized (this) {
+                    if (!initialized) {
+                        value = supplier.get();
+                        initialized = true;
+                    }
+                }
+            }
+            return value;
+        }
+    }
+
     @FunctionalInterface
     interface Callback {
         void execute();
     }
 
+    static class StopHandler {
+        final Runnable stop;
+        final int timeoutSeconds;
+
+        StopHandler(Runnable stop, int timeoutSeconds) {
+            this.stop = stop;
+            this.timeoutSeconds = timeoutSeconds;
+        }
+    }
+
     static class Command {
         final String action;
         final String target;
@@ -240,6 +407,15 @@ public class Application implements Runnable {
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 if (!application.completed.get()) {
                     LOG.warn("ShutdownHook triggered..");
+                    long drainTimeout = application.stop();
+                    if (drainTimeout > 0) {
+                        try {
+                            // the worker enforces the deadline, allow some extra time to close the client
+                            thread.join(drainTimeout + SHUTDOWN_CLOSE_GRACE_MILLIS);
+                        } catch (InterruptedException e) {
+                            // suppress
+                        }
+                    }
                 }
                 thread.interrupt();
             }));
@@ -247,7 +423,8 @@ public class Application implements Runnable {
             thread.start();
 
             long time = System.currentTimeMillis() - now;
-            LOG.info("Client started in {}ms..", time);
+            LOG.info("Client started in {}ms (process uptime: {}ms)..", time, ProcessHandle.current().info().startInstant()
+                    .map(processStarted -> System.currentTimeMillis() - processStarted.toEpochMilli()).orElse(-1L));
 
             // wait for termination signal
             try {
@@ -0,0 +1,199 @@
+package no.ssb.dc.collection.client;
+
+import no.ssb.dc.migration.rawdata.onprem.config.TargetConfiguration;
+import no.ssb.rawdata.api.RawdataClient;
+import no.ssb.rawdata.api.RawdataClientInitializer;
+import no.ssb.rawdata.api.RawdataConsumer;
+import no.ssb.rawdata.api.RawdataMessage;
+import no.ssb.rawdata.payload.encryption.EncryptionClient;
+import no.ssb.service.provider.api.ProviderConfigurator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Reads a rawdata topic with a receiver thread, decrypts and maps messages on a worker pool and hands the results
+ * to the consumer in topic order. The number of messages between receive and consume is bounded by the prefetch depth.
+ * The topic is read to its end when no message is received within the idle timeout.
+ */
+public class DecryptingTopicReader implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DecryptingTopicReader.class);
+
+    private static final CompletableFuture<Object> END_OF_STREAM = CompletableFuture.completedFuture(null);
+
+    private final RawdataClient client;
+    private final String topic;
+    private final EncryptionClient encryptionClient;
+    private final byte[] secretKey;
+    private final int prefetch;
+    private final int idleTimeoutSeconds;
+    private final ExecutorService workerPool;
+
+    public DecryptingTopicReader(RawdataClient client, String topic, EncryptionClient encryptionClient, byte[] secretKey, int threads, int prefetch, int idleTimeoutSeconds) {
+        this.client = client;
+        this.topic = topic;
+        this.encryptionClient = encryptionClient;
+        this.secretKey = secretKey;
+        this.prefetch = prefetch;
+        this.idleTimeoutSeconds = Math.max(idleTimeoutSeconds, 1);
+        this.workerPool = Executors.newFixedThreadPool(threads);
+    }
+
+    public static DecryptingTopicReader create(TargetConfiguration targetConfiguration, int threads, int prefetch, int idleTimeoutSeconds) {
+        RawdataClient client = ProviderConfigurator.configure(targetConfiguration.asMap(), targetConfiguration.rawdataClientProvider(), RawdataClientInitializer.class);
+        final char[] encryptionKey = targetConfiguration.hasRawdataEncryptionKey() ?
+                targetConfiguration.rawdataEncryptionKey().toCharArray() : null;
+        final byte[] encryptionSalt = targetConfiguration.hasRawdataEncryptionSalt() ?
+                targetConfiguration.rawdataEncryptionSalt().getBytes() : null;
+        EncryptionClient encryptionClient = new EncryptionClient();
+        byte[] secretKey = null;
+        if (encryptionKey != null && encryptionKey.length > 0 && encryptionSalt != null && encryptionSalt.length > 0) {
+            secretKey = encryptionClient.generateSecretKey(encryptionKey, encryptionSalt).getEncoded();
+            Arrays.fill(encryptionKey, (char) 0);
+            Arrays.fill(encryptionSalt, (byte) 0);
+        }
+        return new DecryptingTopicReader(client, targetConfiguration.topic(), encryptionClient, secretKey, threads, prefetch, idleTimeoutSeconds);
+    }
+
+    public String topic() {
+        return topic;
+    }
+
+    byte[] tryDecryptContent(byte[] content) {
+        if (secretKey != null && content != null) {
+            return encryptionClient.decrypt(secretKey, content);
+        }
+        return content;
+    }
+
+    /**
+     * Read until no message is received within the idle timeout. If the mapper or consumer fails, the receiver is
+     * stopped and the rawdata consumer is closed before the failure is thrown.
+     *
+     * @param mapper   applied on the worker pool, decryption happens when content is read from the message
+     * @param consumer receives mapped messages in topic order on the calling thread
+     * @return number of consumed messages
+     */
+    @SuppressWarnings("unchecked")
+    public <T> long read(Function<DecryptedMessage, T> mapper, Consumer<T> consumer) {
+        BlockingQueue<CompletableFuture<Object>> queue = new ArrayBlockingQueue<>(prefetch);
+        AtomicReference<Throwable> receiveFailure = new AtomicReference<>();
+
+        Thread receiver = new Thread(() -> {
+            try (RawdataConsumer rawdataConsumer = client.consumer(topic)) {
+                RawdataMessage message;
+                while ((message = rawdataConsumer.receive(idleTimeoutSeconds, TimeUnit.SECONDS)) != null) {
+                    DecryptedMessage decryptedMessage = new DecryptedMessage(this, message);
+                    queue.put(CompletableFuture.supplyAsync(() -> mapper.apply(decryptedMessage), workerPool));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                receiveFailure.set(e);
+            } finally {
+                try {
+                    queue.put(END_OF_STREAM);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "topic-receiver-" + topic);
+        receiver.setDaemon(true);
+        receiver.start();
+
+        long count = 0;
+        boolean ended = false;
+        try {
+            CompletableFuture<Object> future;
+            while ((future = queue.take()) != END_OF_STREAM) {
+                consumer.accept((T) future.join());
+                if (++count % 100000 == 0) {
+                    LOG.info("Topic - Read message count: {}", count);
+                }
+            }
+            ended = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            if (!ended) {
+                stopReceiver(receiver, queue);
+            }
+        }
+
+        if (receiveFailure.get() != null) {
+            throw new RuntimeException("Failed to receive from topic: " + topic, receiveFailure.get());
+        }
+        LOG.info("Topic - Read message Total-Count: {}", count);
+        return count;
+    }
+
+    /**
+     * Interrupt the receiver and wait until it has closed the rawdata consumer. Queued messages are cancelled, which
+     * also frees the queue for a receiver that is blocked on put.
+     */
+    static void stopReceiver(Thread receiver, BlockingQueue<CompletableFuture<Object>> queue) {
+        boolean interrupted = Thread.interrupted();
+        receiver.interrupt();
+        List<CompletableFuture<Object>> queued = new ArrayList<>();
+        do {
+            queue.drainTo(queued);
+            queued.forEach(future -> future.cancel(false));
+            queued.clear();
+            try {
+                receiver.join(100);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        } while (receiver.isAlive());
+        queue.clear();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        workerPool.shutdownNow();
+        try {
+            client.close();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static class DecryptedMessage {
+        final DecryptingTopicReader reader;
+        final RawdataMessage message;
+
+        DecryptedMessage(DecryptingTopicReader reader, RawdataMessage message) {
+            this.reader = reader;
+            this.message = message;
+        }
+
+        public String position() {
+            return message.position();
+        }
+
+        public RawdataMessage message() {
+            return message;
+        }
+
+        public byte[] get(String key) {
+            return reader.tryDecryptContent(message.get(key));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package no.ssb.dc.collection.client;
+
+import no.ssb.dc.migration.rawdata.onprem.config.BaseConfiguration;
+import no.ssb.dc.migration.rawdata.onprem.config.ConfigurationFactory;
+import no.ssb.dc.migration.rawdata.onprem.config.EnvironmentPrefix;
+import no.ssb.dc.migration.rawdata.onprem.config.Name;
+import no.ssb.dc.migration.rawdata.onprem.config.Namespace;
+import no.ssb.dc.migration.rawdata.onprem.config.Property;
+
+import java.util.Map;
+
+@Name("export")
+@Namespace("export")
+@EnvironmentPrefix("BONG_")
+public interface ExportConfiguration extends BaseConfiguration {
+
+    // rema: root of year/month/day folders, kostra: folder of the ndjson file
+    @Property("path")
+    String path();
+
+    // kostra ndjson filename, defaults to topic name
+    @Property("file")
+    Boolean hasFile();
+
+    @Property("file")
+    String file();
+
+    // decryption threads
+    @Property("threads")
+    Integer threads();
+
+    // max number of received messages waiting to be written
+    @Property("prefetch")
+    Integer prefetch();
+
+    // the topic has ended when no message is received within this many seconds
+    @Property("idle.timeout.seconds")
+    Integer idleTimeoutSeconds();
+
+    @Override
+    default Map<String, String> defaultValues() {
+        return Map.of(
+                "path", "/export",
+                "threads", String.valueOf(Runtime.getRuntime().availableProcessors()),
+                "prefetch", "1000",
+                "idle.timeout.seconds", "10"
+        );
+    }
+
+    static ExportConfiguration create() {
+        return ConfigurationFactory.createOrGet(ExportConfiguration.class);
+    }
+
+    static ExportConfiguration create(Map<String, String> overrideValues) {
+        return ConfigurationFactory.createOrGet(ExportConfiguration.class, overrideValues);
+    }
+}
@@ -0,0 +1,153 @@
+package no.ssb.dc.collection.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts an unbounded number of text records with bounded memory. Records are sorted in runs of fixed size that are
+ * spilled to temp files, and read back with a k-way merge.
+ */
+public class ExternalSorter implements AutoCloseable {
+
+    private final Path tempPath;
+    private final int runSize;
+    private final List<String> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private final List<BufferedReader> readers = new ArrayList<>();
+    private long count;
+
+    public ExternalSorter(Path tempPath, int runSize) {
+        this.tempPath = tempPath;
+        this.runSize = runSize;
+    }
+
+    /**
+     * @param record a single line of text
+     */
+    public void add(String record) {
+        buffer.add(record);
+        count++;
+        if (buffer.size() >= runSize) {
+            spill();
+        }
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public int runCount() {
+        return runs.size();
+    }
+
+    private void spill() {
+        buffer.sort(null);
+        try {
+            Path run = Files.createTempFile(tempPath, "sort-run-", ".txt");
+            try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+                for (String record : buffer) {
+                    writer.write(record);
+                    writer.newLine();
+                }
+            }
+            runs.add(run);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns all records in natural order. No records may be added after this call.
+     */
+    public Iterator<String> sorted() {
+        if (runs.isEmpty()) {
+            buffer.sort(null);
+            return buffer.iterator();
+        }
+        if (!buffer.isEmpty()) {
+            spill();
+        }
+        PriorityQueue<RunCursor> queue = new PriorityQueue<>();
+        try {
+            for (Path run : runs) {
+                BufferedReader reader = Files.newBufferedReader(run, StandardCharsets.UTF_8);
+                readers.add(reader);
+                RunCursor cursor = new RunCursor(reader);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public String next() {
+                RunCursor cursor = queue.poll();
+                if (cursor == null) {
+                    throw new NoSuchElementException();
+                }
+                String record = cursor.current;
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+                return record;
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        try {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        readers.clear();
+        runs.clear();
+        buffer.clear();
+    }
+
+    static class RunCursor implements Comparable<RunCursor> {
+        final BufferedReader reader;
+        String current;
+
+        RunCursor(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        boolean advance() {
+            try {
+                current = reader.readLine();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return current != null;
+        }
+
+        @Override
+        public int compareTo(RunCursor o) {
+            return current.compareTo(o.current);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package no.ssb.dc.collection.client;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import no.ssb.dc.collection.pipeline.LatencyHistogram;
+import no.ssb.dc.collection.pipeline.PipelineStageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flight recording of the pipeline stage events of the Rema and KOSTRA workers, and a summary of stage latencies
+ * read back from a recording file. Only the stage events and garbage collections are enabled, so a recording adds
+ * one event per message and stage.
+ */
+public class PipelineTrace implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelineTrace.class);
+
+    static final String GARBAGE_COLLECTION_EVENT = "jdk.GarbageCollection";
+
+    private final Recording recording;
+    private final Path file;
+
+    PipelineTrace(Recording recording, Path file) {
+        this.recording = recording;
+        this.file = file;
+    }
+
+    public static PipelineTrace start(Path file) {
+        Recording recording = new Recording();
+        recording.setName("rawdata-pipeline");
+        recording.enable(PipelineStageEvent.NAME);
+        recording.enable(GARBAGE_COLLECTION_EVENT);
+        recording.setToDisk(true);
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            recording.setDestination(file);
+        } catch (IOException e) {
+            recording.close();
+            throw new UncheckedIOException(e);
+        }
+        recording.start();
+        LOG.info("Trace - Recording pipeline stages to: {}", file);
+        return new PipelineTrace(recording, file);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * Stop the recording and write it to the file.
+     */
+    @Override
+    public void close() {
+        recording.stop();
+        recording.close();
+        LOG.info("Trace - Recording written to: {}", file);
+    }
+
+    /**
+     * @param slowest number of slowest message positions listed per stage
+     */
+    public static String summarize(Path recordingFile, int slowest) {
+        Map<String, StageSummary> stages = new LinkedHashMap<>();
+        long garbageCollections = 0;
+        long garbageCollectionPauseNanos = 0;
+        try (RecordingFile in = new RecordingFile(recordingFile)) {
+            while (in.hasMoreEvents()) {
+                RecordedEvent event = in.readEvent();
+                String eventName = event.getEventType().getName();
+                if (GARBAGE_COLLECTION_EVENT.equals(eventName)) {
+                    garbageCollections++;
+                    Duration pauses = event.getDuration("sumOfPauses");
+                    garbageCollectionPauseNanos += pauses == null ? 0 : pauses.toNanos();
+                    continue;
+                }
+                if (!PipelineStageEvent.NAME.equals(eventName)) {
+                    continue;
+                }
+                String pipeline = event.getString("pipeline");
+                String stage = event.getString("stage");
+                stages.computeIfAbsent(pipeline + " " + stage, key -> new StageSummary(pipeline, stage, slowest))
+                        .add(event.getLong("latency"), event.getLong("bytes"), event.getString("position"));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ROOT, "%-10s%-14s%12s%12s%12s%12s%12s%12s%n", "pipeline", "stage", "count", "p50-us", "p95-us", "p99-us", "max-us", "MiB"));
+        for (StageSummary summary : stages.values()) {
+            builder.append(String.format(Locale.ROOT, "%-10s%-14s%12d%12d%12d%12d%12d%12.1f%n", summary.pipeline, summary.stage,
+                    summary.histogram.count(), micros(summary.histogram.percentileNanos(0.50)), micros(summary.histogram.percentileNanos(0.95)),
+                    micros(summary.histogram.percentileNanos(0.99)), micros(summary.histogram.maxNanos()), summary.bytes / (1024.0 * 1024)));
+        }
+        for (StageSummary summary : stages.values()) {
+            List<SlowMessage> slowMessages = summary.slowest();
+            if (slowMessages.isEmpty()) {
+                continue;
+            }
+            builder.append(String.format("slowest %s %s:", summary.pipeline, summary.stage));
+            slowMessages.forEach(message -> builder.append(String.format(" %s (%dus)", message.position, micros(message.latencyNanos))));
+            builder.append(String.format("%n"));
+        }
+        builder.append(String.format(Locale.ROOT, "gc: %d collections, %dms paused", garbageCollections, TimeUnit.NANOSECONDS.toMillis(garbageCollectionPauseNanos)));
+        return builder.toString();
+    }
+
+    static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    static class StageSummary {
+        final String pipeline;
+        final String stage;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int slowest;
+        final PriorityQueue<SlowMessage> slowMessages = new PriorityQueue<>(Comparator.comparingLong(message -> message.latencyNanos));
+        long bytes;
+
+        StageSummary(String pipeline, String stage, int slowest) {
+            this.pipeline = pipeline;
+            this.stage = stage;
+            this.slowest = slowest;
+        }
+
+        void add(long latencyNanos, long recordBytes, String position) {
+            histogram.record(latencyNanos);
+            bytes += recordBytes;
+            if (position == null || slowest <= 0) {
+                return;
+            }
+            if (slowMessages.size() < slowest) {
+                slowMessages.add(new SlowMessage(position, latencyNanos));
+            } else if (latencyNanos > slowMessages.peek().latencyNanos) {
+                slowMessages.poll();
+                slowMessages.add(new SlowMessage(position, latencyNanos));
+            }
+        }
+
+        List<SlowMessage> slowest() {
+            List<SlowMessage> messages = new ArrayList<>(slowMessages);
+            messages.sort(Comparator.comparingLong((SlowMessage message) -> message.latencyNanos).reversed());
+            return messages;
+        }
+    }
+
+    static class SlowMessage {
+        final String position;
+        final long latencyNanos;
+
+        SlowMessage(String position, long latencyNanos) {
+            this.position = position;
+            this.latencyNanos = latencyNanos;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package no.ssb.dc.collection.client;
+
+import no.ssb.dc.collection.bong.rema.RemaFileTree;
+import no.ssb.dc.collection.bong.rema.SourceRemaConfiguration;
+import no.ssb.dc.collection.kostra.KostraFileParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Verifies a produced topic against its source.
+ * <p>
+ * Rema: the source file tree and the topic are reduced to (position, content hash) records, sorted externally and
+ * merge-joined. KOSTRA: positions are a sequence from 1 to row count per source file and are tracked in a bitmap.
+ */
+public class RawdataVerifier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RawdataVerifier.class);
+
+    static final char SEPARATOR = '\t';
+
+    private final VerifyConfiguration configuration;
+
+    public RawdataVerifier(VerifyConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    static String sha256(byte[] content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(content == null ? new byte[0] : content);
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static String record(String position, String hash) {
+        return position + SEPARATOR + hash;
+    }
+
+    static String positionOf(String record) {
+        return record.substring(0, record.indexOf(SEPARATOR));
+    }
+
+    static String hashOf(String record) {
+        return record.substring(record.indexOf(SEPARATOR) + 1);
+    }
+
+    ExternalSorter newSorter() {
+        return new ExternalSorter(Path.of(configuration.tempPath()), configuration.sortRunSize());
+    }
+
+    /**
+     * Source files are hashed whole and keyed by filename, as produced without xml splitting and archives.
+     *
+     * @throws IllegalStateException if the configuration produces messages that do not map to source files
+     */
+    public Report verifyRema(SourceRemaConfiguration sourceConfiguration, DecryptingTopicReader reader) {
+        checkVerifiable(sourceConfiguration);
+        return verifyRema(RemaFileTree.create(sourceConfiguration), reader);
+    }
+
+    static void checkVerifiable(SourceRemaConfiguration sourceConfiguration) {
+        if (sourceConfiguration.hasXmlRecordPath()) {
+            throw new IllegalStateException("Verify of split xml records is not supported: source.xml.record.path is set");
+        }
+        if (sourceConfiguration.hasArchives() && sourceConfiguration.archives()) {
+            throw new IllegalStateException("Verify of archive entries is not supported: source.archives is true");
+        }
+    }
+
+    public Report verifyRema(RemaFileTree fileTree, DecryptingTopicReader reader) {
+        try (ExternalSorter sourceSorter = newSorter(); ExternalSorter topicSorter = newSorter()) {
+            LOG.info("Verify - Hash source files: {}", fileTree.sourcePath());
+            hashSourceFiles(fileTree, sourceSorter);
+            LOG.info("Verify - Source records: {} (sorted runs: {})", sourceSorter.count(), sourceSorter.runCount());
+
+            LOG.info("Verify - Hash topic messages: {}", reader.topic());
+            reader.read(message -> record(message.position(), sha256(message.get("entry"))), topicSorter::add);
+            LOG.info("Verify - Topic records: {} (sorted runs: {})", topicSorter.count(), topicSorter.runCount());
+
+            Report report = mergeJoin(sourceSorter.sorted(), topicSorter.sorted());
+            report.log();
+            return report;
+        }
+    }
+
+    void hashSourceFiles(RemaFileTree fileTree, ExternalSorter sorter) {
+        int threads = configuration.threads();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Semaphore permits = new Semaphore(threads * 4);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try {
+            fileTree.walk((file, attrs) -> {
+                if (failure.get() != null) {
+                    return;
+                }
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+                executor.execute(() -> {
+                    try {
+                        String record = record(file.getFileName().toString(), sha256(Files.readAllBytes(file)));
+                        synchronized (sorter) {
+                            sorter.add(record);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            });
+            executor.shutdown();
+            if (!executor.awaitTermination(1, TimeUnit.HOURS)) {
+                throw new IllegalStateException("Timeout while hashing source files");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failure.get() != null) {
+            throw new RuntimeException("Failed to hash source files", failure.get());
+        }
+    }
+
+    /**
+     * Both iterators must return records ordered by position. Source positions are expected to be unique.
+     */
+    static Report mergeJoin(Iterator<String> source, Iterator<String> topic) {
+        Report report = new Report();
+        String sourceRecord = source.hasNext() ? source.next() : null;
+        String topicRecord = topic.hasNext() ? topic.next() : null;
+        while (sourceRecord != null || topicRecord != null) {
+            int cmp = sourceRecord == null ? 1 : (topicRecord == null ? -1 : positionOf(sourceRecord).compareTo(positionOf(topicRecord)));
+            if (cmp < 0) {
+                report.missing(positionOf(sourceRecord));
+                report.expected.incrementAndGet();
+                sourceRecord = source.hasNext() ? source.next() : null;
+
+            } else if (cmp > 0) {
+                report.unexpected(positionOf(topicRecord));
+                report.actual.incrementAndGet();
+                topicRecord = topic.hasNext() ? topic.next() : null;
+
+            } else {
+                String position = positionOf(topicRecord);
+                if (!hashOf(sourceRecord).equals(hashOf(topicRecord))) {
+                    report.mismatch(position);
+                }
+                report.expected.incrementAndGet();
+                report.actual.incrementAndGet();
+                topicRecord = topic.hasNext() ? topic.next() : null;
+                while (topicRecord != null && positionOf(topicRecord).equals(position)) {
+                    report.duplicate(position);
+                    report.actual.incrementAndGet();
+                    topicRecord = topic.hasNext() ? topic.next() : null;
+                }
+                sourceRecord = source.hasNext() ? source.next() : null;
+            }
+        }
+        return report;
+    }
+
+    public Report verifyKostra(KostraFileParser fileParser, DecryptingTopicReader reader) {
+        Map<String, Long> expectedCounts = new LinkedHashMap<>();
+        for (Path source : fileParser.sources()) {
+            AtomicLong rowCount = new AtomicLong();
+            fileParser.parse(source, fileParser.charset(), () -> false, structure -> {
+            }, dataElement -> rowCount.incrementAndGet());
+            LOG.info("Verify - Source {} row count: {}", fileParser.sourceFile(source), rowCount.get());
+            expectedCounts.put(fileParser.positionPrefix(source), rowCount.get());
+        }
+
+        Report report = verifySequences(expectedCounts, reader, DecryptingTopicReader.DecryptedMessage::position);
+        report.log();
+        return report;
+    }
+
+    /**
+     * @param expectedCounts row count by position prefix
+     */
+    static Report verifySequences(Map<String, Long> expectedCounts, DecryptingTopicReader reader, Function<DecryptingTopicReader.DecryptedMessage, String> positionMapper) {
+        Report report = new Report();
+        Map<String, SequenceTracker> trackers = new LinkedHashMap<>();
+        expectedCounts.forEach((positionPrefix, expectedCount) -> {
+            if (expectedCount > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Row count exceeds bitmap capacity: " + expectedCount);
+            }
+            trackers.put(positionPrefix, new SequenceTracker(positionPrefix, expectedCount.intValue(), report));
+        });
+        reader.read(positionMapper, position -> {
+            SequenceTracker tracker = trackers.get(position.substring(0, position.lastIndexOf(KostraFileParser.POSITION_SEPARATOR) + 1));
+            if (tracker == null) {
+                report.actual.incrementAndGet();
+                report.unexpected(position);
+                return;
+            }
+            tracker.accept(position);
+        });
+        trackers.values().forEach(SequenceTracker::report);
+        return report;
+    }
+
+    /**
+     * Tracks positions prefix+1..prefix+expectedCount in a bitmap. Memory use is one bit per expected position.
+     */
+    static class SequenceTracker {
+        final String positionPrefix;
+        final int expectedCount;
+        final BitSet seen;
+        final Report report;
+
+        SequenceTracker(int expectedCount) {
+            this("", expectedCount, new Report());
+        }
+
+        SequenceTracker(String positionPrefix, int expectedCount, Report report) {
+            this.positionPrefix = positionPrefix;
+            this.expectedCount = expectedCount;
+            this.seen = new BitSet(expectedCount + 1);
+            this.report = report;
+            report.expected.addAndGet(expectedCount);
+        }
+
+        void accept(String position) {
+            report.actual.incrementAndGet();
+            long value;
+            try {
+                value = Long.parseLong(position.substring(positionPrefix.length()));
+            } catch (NumberFormatException e) {
+                report.unexpected(position);
+                return;
+            }
+            if (value < 1 || value > expectedCount) {
+                report.unexpected(position);
+                return;
+            }
+            if (seen.get((int) value)) {
+                report.duplicate(position);
+                return;
+            }
+            seen.set((int) value);
+        }
+
+        Report report() {
+            int index = seen.nextClearBit(1);
+            while (index <= expectedCount) {
+                int next = seen.nextSetBit(index);
+                int end = next == -1 ? expectedCount + 1 : next;
+                report.gap(positionPrefix, index, end - 1);
+                index = seen.nextClearBit(end);
+            }
+            return report;
+        }
+    }
+
+    public static class Report {
+        static final int MAX_SAMPLES = 100;
+
+        final AtomicLong expected = new AtomicLong();
+        final AtomicLong actual = new AtomicLong();
+        final AtomicLong missing = new AtomicLong();
+        final AtomicLong unexpected = new AtomicLong();
+        final AtomicLong duplicates = new AtomicLong();
+        final AtomicLong mismatches = new AtomicLong();
+        final List<String> samples = new ArrayList<>();
+
+        void sample(String kind, String position) {
+            if (samples.size() < MAX_SAMPLES) {
+                samples.add(kind + ": " + position);
+            }
+        }
+
+        void missing(String position) {
+            missing.incrementAndGet();
+            sample("missing", position);
+        }
+
+        void gap(String positionPrefix, long fromPosition, long toPosition) {
+            missing.addAndGet(toPosition - fromPosition + 1);
+            sample("gap", positionPrefix + (fromPosition == toPosition ? String.valueOf(fromPosition) : fromPosition + ".." + toPosition));
+        }
+
+        void unexpected(String position) {
+            unexpected.incrementAndGet();
+            sample("unexpected", position);
+        }
+
+        void duplicate(String position) {
+            duplicates.incrementAndGet();
+            sample("duplicate", position);
+        }
+
+        void mismatch(String position) {
+            mismatches.incrementAndGet();
+            sample("mismatch", position);
+        }
+
+        void log() {
+            if (isValid()) {
+                LOG.info("Verify - {}", this);
+            } else {
+                LOG.error("Verify - {}", this);
+            }
+        }
+
+        public boolean isValid() {
+            return expected.get() == actual.get() && missing.get() == 0 && unexpected.get() == 0 && duplicates.get() == 0 && mismatches.get() == 0;
+        }
+
+        public long missing() {
+            return missing.get();
+        }
+
+        public long unexpected() {
+            return unexpected.get();
+        }
+
+        public long duplicates() {
+            return duplicates.get();
+        }
+
+        public long mismatches() {
+            return mismatches.get();
+        }
+
+        public List<String> samples() {
+            return samples;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{" +
+                    "valid=" + isValid() +
+                    ", expected=" + expected +
+                    ", actual=" + actual +
+                    ", missing=" + missing +
+                    ", unexpected=" + unexpected +
+                    ", duplicates=" + duplicates +
+                    ", mismatches=" + mismatches +
+                    ", samples=" + samples +
+                    '}';
+        }
+    }
+}
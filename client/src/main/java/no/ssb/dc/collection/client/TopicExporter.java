@@ -0,0 +1,157 @@
+package no.ssb.dc.collection.client;
+
+import no.ssb.dc.collection.kostra.KostraRowCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports a rawdata topic back to files. Receive, decrypt and write are pipelined by the {@link DecryptingTopicReader}
+ * and messages are written in topic order.
+ */
+public class TopicExporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopicExporter.class);
+
+    private final DecryptingTopicReader reader;
+    private final AtomicLong messageCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+    private long startedNanos;
+
+    public TopicExporter(DecryptingTopicReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Write each message entry to root/yyyy/MM/dd/position, which is the layout of the Rema source file tree.
+     */
+    public void exportRema(Path targetRoot) {
+        LOG.info("Export topic {} to Rema file tree: {}", reader.topic(), targetRoot);
+        started();
+        reader.read(message -> new ExportEntry(message.position(), message.get("entry")), entry -> {
+            Path file = remaPath(targetRoot, entry.position);
+            try {
+                Files.createDirectories(file.getParent());
+                Files.write(file, entry.content);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            written(entry.content.length);
+        });
+        completed();
+    }
+
+    /**
+     * Write each message entry as one line of newline delimited json. KOSTRA rows in the binary format are decoded to
+     * json documents.
+     *
+     * @throws IllegalStateException if the topic has entries that are neither json nor KOSTRA rows
+     */
+    public void exportNdjson(Path targetFile) {
+        LOG.info("Export topic {} to ndjson: {}", reader.topic(), targetFile);
+        started();
+        try {
+            if (targetFile.getParent() != null) {
+                Files.createDirectories(targetFile.getParent());
+            }
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(targetFile), 1024 * 1024)) {
+                reader.read(message -> new ExportEntry(message.position(), toJsonEntry(message)), entry -> {
+                    try {
+                        out.write(entry.content);
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    written(entry.content.length + 1);
+                });
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        completed();
+    }
+
+    /**
+     * @return the entry as json, decoded with the json mapping of the manifest if it is a KOSTRA row
+     */
+    static byte[] toJsonEntry(DecryptingTopicReader.DecryptedMessage message) {
+        byte[] entry = message.get("entry");
+        if (entry == null || isJson(entry)) {
+            return entry;
+        }
+        byte[] manifest = message.get("manifest.json");
+        KostraRowCodec rowCodec = manifest == null ? null : KostraRowCodec.fromManifest(manifest);
+        if (rowCodec == null) {
+            throw new IllegalStateException("Entry is not json and cannot be exported to ndjson: " + message.position());
+        }
+        return rowCodec.toJson(entry);
+    }
+
+    static boolean isJson(byte[] entry) {
+        for (byte b : entry) {
+            if (b == '{' || b == '[') {
+                return true;
+            }
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Path remaPath(Path targetRoot, String position) {
+        String filename = Paths.get(position).getFileName().toString();
+        int hyphenPos = filename.indexOf("-");
+        String timestamp = hyphenPos == -1 ? "" : filename.substring(0, hyphenPos).replace("_", "");
+        if (timestamp.length() < 8 || !timestamp.chars().allMatch(Character::isDigit)) {
+            throw new IllegalStateException("Wrong filename format: \"" + position + "\"");
+        }
+        return targetRoot
+                .resolve(timestamp.substring(0, 4))
+                .resolve(timestamp.substring(4, 6))
+                .resolve(timestamp.substring(6, 8))
+                .resolve(filename);
+    }
+
+    private void started() {
+        startedNanos = System.nanoTime();
+    }
+
+    private void written(long bytes) {
+        byteCount.addAndGet(bytes);
+        if (messageCount.incrementAndGet() % 100000 == 0) {
+            LOG.info("Export - {}", metrics());
+        }
+    }
+
+    private void completed() {
+        LOG.info("Export - Completed: {}", metrics());
+    }
+
+    public long messageCount() {
+        return messageCount.get();
+    }
+
+    String metrics() {
+        double seconds = Math.max(System.nanoTime() - startedNanos, 1) / 1_000_000_000.0;
+        return String.format("messages=%d bytes=%d elapsed=%.1fs throughput=%.0f msg/s %.2f MiB/s",
+                messageCount.get(), byteCount.get(), seconds, messageCount.get() / seconds, byteCount.get() / seconds / (1024 * 1024));
+    }
+
+    static class ExportEntry {
+        final String position;
+        final byte[] content;
+
+        ExportEntry(String position, byte[] content) {
+            this.position = position;
+            this.content = content == null ? new byte[0] : content;
+        }
+    }
+}
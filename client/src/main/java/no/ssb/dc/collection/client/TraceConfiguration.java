@@ -0,0 +1,42 @@
+package no.ssb.dc.collection.client;
+
+import no.ssb.dc.migration.rawdata.onprem.config.BaseConfiguration;
+import no.ssb.dc.migration.rawdata.onprem.config.ConfigurationFactory;
+import no.ssb.dc.migration.rawdata.onprem.config.EnvironmentPrefix;
+import no.ssb.dc.migration.rawdata.onprem.config.Name;
+import no.ssb.dc.migration.rawdata.onprem.config.Namespace;
+import no.ssb.dc.migration.rawdata.onprem.config.Property;
+
+import java.util.Map;
+
+@Name("trace")
+@Namespace("trace")
+@EnvironmentPrefix("BONG_")
+public interface TraceConfiguration extends BaseConfiguration {
+
+    // flight recording of pipeline stage events, written when the command completes and read by "summarize trace"
+    @Property("file")
+    Boolean hasFile();
+
+    @Property("file")
+    String file();
+
+    // slowest message positions listed per stage in the summary
+    @Property("slowest")
+    Integer slowest();
+
+    @Override
+    default Map<String, String> defaultValues() {
+        return Map.of(
+                "slowest", "5"
+        );
+    }
+
+    static TraceConfiguration create() {
+        return ConfigurationFactory.createOrGet(TraceConfiguration.class);
+    }
+
+    static TraceConfiguration create(Map<String, String> overrideValues) {
+        return ConfigurationFactory.createOrGet(TraceConfiguration.class, overrideValues);
+    }
+}
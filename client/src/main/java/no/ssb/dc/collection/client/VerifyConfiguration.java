@@ -0,0 +1,55 @@
+package no.ssb.dc.collection.client;
+
+import no.ssb.dc.migration.rawdata.onprem.config.BaseConfiguration;
+import no.ssb.dc.migration.rawdata.onprem.config.ConfigurationFactory;
+import no.ssb.dc.migration.rawdata.onprem.config.EnvironmentPrefix;
+import no.ssb.dc.migration.rawdata.onprem.config.Name;
+import no.ssb.dc.migration.rawdata.onprem.config.Namespace;
+import no.ssb.dc.migration.rawdata.onprem.config.Property;
+
+import java.util.Map;
+
+@Name("verify")
+@Namespace("verify")
+@EnvironmentPrefix("BONG_")
+public interface VerifyConfiguration extends BaseConfiguration {
+
+    // sorted runs are spilled here during verification
+    @Property("temp.path")
+    String tempPath();
+
+    // number of records per sorted run
+    @Property("sort.run.size")
+    Integer sortRunSize();
+
+    // decryption threads
+    @Property("threads")
+    Integer threads();
+
+    // max number of received messages waiting for decryption
+    @Property("prefetch")
+    Integer prefetch();
+
+    // the topic has ended when no message is received within this many seconds
+    @Property("idle.timeout.seconds")
+    Integer idleTimeoutSeconds();
+
+    @Override
+    default Map<String, String> defaultValues() {
+        return Map.of(
+                "temp.path", "/tmp",
+                "sort.run.size", "1000000",
+                "threads", String.valueOf(Runtime.getRuntime().availableProcessors()),
+                "prefetch", "1000",
+                "idle.timeout.seconds", "10"
+        );
+    }
+
+    static VerifyConfiguration create() {
+        return ConfigurationFactory.createOrGet(VerifyConfiguration.class);
+    }
+
+    static VerifyConfiguration create(Map<String, String> overrideValues) {
+        return ConfigurationFactory.createOrGet(VerifyConfiguration.class, overrideValues);
+    }
+}
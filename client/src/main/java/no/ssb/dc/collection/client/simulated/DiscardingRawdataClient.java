@@ -0,0 +1,193 @@
+package no.ssb.dc.collection.client.simulated;
+
+import de.huxhorn.sulky.ulid.ULID;
+import no.ssb.rawdata.api.RawdataClient;
+import no.ssb.rawdata.api.RawdataConsumer;
+import no.ssb.rawdata.api.RawdataCursor;
+import no.ssb.rawdata.api.RawdataMessage;
+import no.ssb.rawdata.api.RawdataMetadataClient;
+import no.ssb.rawdata.api.RawdataProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A rawdata client that discards buffered messages and published positions. Used to measure the source side of the
+ * pipeline without a sink. Topics cannot be read.
+ */
+public class DiscardingRawdataClient implements RawdataClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiscardingRawdataClient.class);
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final LongAdder bufferedMessages = new LongAdder();
+    private final LongAdder bufferedBytes = new LongAdder();
+    private final LongAdder publishedPositions = new LongAdder();
+
+    @Override
+    public RawdataProducer producer(String topic) {
+        return new DiscardingProducer(topic);
+    }
+
+    @Override
+    public RawdataConsumer consumer(String topic, RawdataCursor cursor) {
+        throw new UnsupportedOperationException("Discarded topics cannot be consumed");
+    }
+
+    @Override
+    public RawdataCursor cursorOf(String topic, ULID.Value ulid, boolean inclusive) {
+        throw new UnsupportedOperationException("Discarded topics have no cursors");
+    }
+
+    @Override
+    public RawdataCursor cursorOf(String topic, String position, boolean inclusive, long approxTimestamp, Duration tolerance) {
+        throw new UnsupportedOperationException("Discarded topics have no cursors");
+    }
+
+    @Override
+    public RawdataMessage lastMessage(String topic) {
+        return null;
+    }
+
+    @Override
+    public RawdataMetadataClient metadata(String topic) {
+        throw new UnsupportedOperationException("Discarded topics have no metadata");
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            LOG.info("Target - Discarded messages: {}, bytes: {}, published positions: {}",
+                    bufferedMessages.sum(), bufferedBytes.sum(), publishedPositions.sum());
+        }
+    }
+
+    class DiscardingProducer implements RawdataProducer {
+        final String topic;
+        final AtomicBoolean producerClosed = new AtomicBoolean();
+
+        DiscardingProducer(String topic) {
+            this.topic = topic;
+        }
+
+        @Override
+        public String topic() {
+            return topic;
+        }
+
+        @Override
+        public RawdataMessage.Builder builder() {
+            return new DiscardedMessage.Builder();
+        }
+
+        @Override
+        public RawdataProducer buffer(RawdataMessage.Builder builder) {
+            DiscardedMessage.Builder discardedBuilder = (DiscardedMessage.Builder) builder;
+            bufferedMessages.increment();
+            bufferedBytes.add(discardedBuilder.bytes);
+            return this;
+        }
+
+        @Override
+        public void publish(List<String> positions) {
+            publishedPositions.add(positions.size());
+        }
+
+        @Override
+        public void publish(String... positions) {
+            publishedPositions.add(positions.length);
+        }
+
+        @Override
+        public CompletableFuture<Void> publishAsync(String... positions) {
+            publish(positions);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return producerClosed.get();
+        }
+
+        @Override
+        public void close() {
+            producerClosed.set(true);
+        }
+    }
+
+    static class DiscardedMessage implements RawdataMessage {
+        final ULID.Value ulid;
+        final String position;
+        final Map<String, byte[]> data;
+
+        DiscardedMessage(ULID.Value ulid, String position, Map<String, byte[]> data) {
+            this.ulid = ulid;
+            this.position = position;
+            this.data = data;
+        }
+
+        @Override
+        public ULID.Value ulid() {
+            return ulid;
+        }
+
+        @Override
+        public String position() {
+            return position;
+        }
+
+        @Override
+        public Set<String> keys() {
+            return data.keySet();
+        }
+
+        @Override
+        public byte[] get(String key) {
+            return data.get(key);
+        }
+
+        static class Builder implements RawdataMessage.Builder {
+            final Map<String, byte[]> data = new LinkedHashMap<>();
+            ULID.Value ulid;
+            String position;
+            long bytes;
+
+            @Override
+            public Builder ulid(ULID.Value ulid) {
+                this.ulid = ulid;
+                return this;
+            }
+
+            @Override
+            public Builder position(String position) {
+                this.position = position;
+                return this;
+            }
+
+            @Override
+            public Builder put(String key, byte[] payload) {
+                data.put(key, payload);
+                bytes += payload.length;
+                return this;
+            }
+
+            @Override
+            public RawdataMessage build() {
+                return new DiscardedMessage(ulid, position, data);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package no.ssb.dc.collection.client.simulated;
+
+import no.ssb.rawdata.api.RawdataClient;
+import no.ssb.rawdata.api.RawdataClientInitializer;
+import no.ssb.service.provider.api.ProviderName;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rawdata client provider "discard", which drops all messages. Also usable as simulated.delegate.provider.
+ */
+@ProviderName("discard")
+public class DiscardingRawdataClientInitializer implements RawdataClientInitializer {
+
+    @Override
+    public String providerId() {
+        return "discard";
+    }
+
+    @Override
+    public Set<String> configurationKeys() {
+        return Set.of();
+    }
+
+    @Override
+    public RawdataClient initialize(Map<String, String> configuration) {
+        return new DiscardingRawdataClient();
+    }
+}
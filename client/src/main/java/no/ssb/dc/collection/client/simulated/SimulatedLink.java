@@ -0,0 +1,135 @@
+package no.ssb.dc.collection.client.simulated;
+
+import no.ssb.dc.collection.pipeline.InFlightByteBudget;
+import no.ssb.dc.collection.pipeline.TransientException;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A simulated upload link. Each upload waits for a fixed latency plus random jitter, and for its share of a bandwidth
+ * cap that is shared by all uploads. An upload fails with a transient error at the configured failure rate.
+ */
+public class SimulatedLink {
+
+    static final String LATENCY_MS = "simulated.upload.latency.ms";
+    static final String JITTER_MS = "simulated.upload.jitter.ms";
+    static final String BANDWIDTH = "simulated.upload.bandwidth"; // bytes per second (k, m or g suffix)
+    static final String FAILURE_RATE = "simulated.upload.failure.rate";
+    static final String SEED = "simulated.seed";
+
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final long bytesPerSecond;
+    private final double failureRate;
+    private final Random random;
+    private final Object bandwidthLock = new Object();
+    private long bandwidthAvailableNanos;
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    public SimulatedLink(long latencyMillis, long jitterMillis, long bytesPerSecond, double failureRate, long seed) {
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("Failure rate must be between 0 and 1: " + failureRate);
+        }
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        this.jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMillis);
+        this.bytesPerSecond = bytesPerSecond;
+        this.failureRate = failureRate;
+        this.random = new Random(seed);
+    }
+
+    public static SimulatedLink create(Map<String, String> configuration) {
+        return new SimulatedLink(
+                Long.parseLong(configuration.getOrDefault(LATENCY_MS, "0")),
+                Long.parseLong(configuration.getOrDefault(JITTER_MS, "0")),
+                configuration.containsKey(BANDWIDTH) ? InFlightByteBudget.parseBytes(configuration.get(BANDWIDTH)) : 0,
+                Double.parseDouble(configuration.getOrDefault(FAILURE_RATE, "0")),
+                configuration.containsKey(SEED) ? Long.parseLong(configuration.get(SEED)) : System.nanoTime()
+        );
+    }
+
+    /**
+     * Block for the simulated transfer time of an upload.
+     *
+     * @throws SimulatedUploadException on a simulated transient failure
+     */
+    public void upload(long bytes) {
+        long startNanos = System.nanoTime();
+        double failureSample;
+        long jitter;
+        synchronized (random) {
+            failureSample = random.nextDouble();
+            jitter = jitterNanos > 0 ? (long) (random.nextDouble() * jitterNanos) : 0;
+        }
+        long deadlineNanos = Math.max(startNanos + latencyNanos + jitter, reserveBandwidth(startNanos, bytes));
+        sleepUntil(deadlineNanos);
+        waitNanos.addAndGet(System.nanoTime() - startNanos);
+        uploads.incrementAndGet();
+        if (failureSample < failureRate) {
+            failures.incrementAndGet();
+            throw new SimulatedUploadException("Simulated transient upload failure (" + bytes + " bytes)");
+        }
+        uploadedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @return time when the link has transferred these bytes after previously reserved bytes
+     */
+    long reserveBandwidth(long nowNanos, long bytes) {
+        if (bytesPerSecond <= 0) {
+            return nowNanos;
+        }
+        long transferNanos = (long) (bytes * 1_000_000_000.0 / bytesPerSecond);
+        synchronized (bandwidthLock) {
+            bandwidthAvailableNanos = Math.max(bandwidthAvailableNanos, nowNanos) + transferNanos;
+            return bandwidthAvailableNanos;
+        }
+    }
+
+    static void sleepUntil(long deadlineNanos) {
+        long remainingNanos;
+        while ((remainingNanos = deadlineNanos - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remainingNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public long uploads() {
+        return uploads.get();
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedLink{" +
+                "latencyMs=" + TimeUnit.NANOSECONDS.toMillis(latencyNanos) +
+                ", jitterMs=" + TimeUnit.NANOSECONDS.toMillis(jitterNanos) +
+                ", bytesPerSecond=" + bytesPerSecond +
+                ", failureRate=" + failureRate +
+                ", uploads=" + uploads.get() +
+                ", uploadedBytes=" + uploadedBytes.get() +
+                ", failures=" + failures.get() +
+                ", waitMs=" + TimeUnit.NANOSECONDS.toMillis(waitNanos.get()) +
+                '}';
+    }
+
+    public static class SimulatedUploadException extends TransientException {
+        private static final long serialVersionUID = 1L;
+
+        public SimulatedUploadException(String message) {
+            super(message);
+        }
+    }
+}
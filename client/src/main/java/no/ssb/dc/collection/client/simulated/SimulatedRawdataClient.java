@@ -0,0 +1,75 @@
+package no.ssb.dc.collection.client.simulated;
+
+import de.huxhorn.sulky.ulid.ULID;
+import no.ssb.rawdata.api.RawdataClient;
+import no.ssb.rawdata.api.RawdataConsumer;
+import no.ssb.rawdata.api.RawdataCursor;
+import no.ssb.rawdata.api.RawdataMessage;
+import no.ssb.rawdata.api.RawdataMetadataClient;
+import no.ssb.rawdata.api.RawdataProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+
+/**
+ * A rawdata client that delegates storage to another provider and simulates the upload behavior of a remote target.
+ * Consumers are not simulated.
+ */
+public class SimulatedRawdataClient implements RawdataClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SimulatedRawdataClient.class);
+
+    private final RawdataClient delegate;
+    private final SimulatedLink link;
+
+    public SimulatedRawdataClient(RawdataClient delegate, SimulatedLink link) {
+        this.delegate = delegate;
+        this.link = link;
+    }
+
+    public SimulatedLink link() {
+        return link;
+    }
+
+    @Override
+    public RawdataProducer producer(String topic) {
+        return new SimulatedRawdataProducer(delegate.producer(topic), link);
+    }
+
+    @Override
+    public RawdataConsumer consumer(String topic, RawdataCursor cursor) {
+        return delegate.consumer(topic, cursor);
+    }
+
+    @Override
+    public RawdataCursor cursorOf(String topic, ULID.Value ulid, boolean inclusive) {
+        return delegate.cursorOf(topic, ulid, inclusive);
+    }
+
+    @Override
+    public RawdataCursor cursorOf(String topic, String position, boolean inclusive, long approxTimestamp, Duration tolerance) {
+        return delegate.cursorOf(topic, position, inclusive, approxTimestamp, tolerance);
+    }
+
+    @Override
+    public RawdataMessage lastMessage(String topic) {
+        return delegate.lastMessage(topic);
+    }
+
+    @Override
+    public RawdataMetadataClient metadata(String topic) {
+        return delegate.metadata(topic);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public void close() throws Exception {
+        LOG.info("Target - {}", link);
+        delegate.close();
+    }
+}
@@ -0,0 +1,55 @@
+package no.ssb.dc.collection.client.simulated;
+
+import no.ssb.rawdata.api.RawdataClient;
+import no.ssb.rawdata.api.RawdataClientInitializer;
+import no.ssb.service.provider.api.ProviderConfigurator;
+import no.ssb.service.provider.api.ProviderName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rawdata client provider "simulated" for offline performance testing. Storage is delegated to the provider in
+ * simulated.delegate.provider (default: filesystem), which is configured with the same configuration.
+ * <p>
+ * e.g. target.rawdata.client.provider=simulated, target.simulated.upload.latency.ms=80,
+ * target.simulated.upload.bandwidth=20m, target.simulated.upload.failure.rate=0.01
+ */
+@ProviderName("simulated")
+public class SimulatedRawdataClientInitializer implements RawdataClientInitializer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SimulatedRawdataClientInitializer.class);
+
+    static final String DELEGATE_PROVIDER = "simulated.delegate.provider";
+
+    @Override
+    public String providerId() {
+        return "simulated";
+    }
+
+    @Override
+    public Set<String> configurationKeys() {
+        return Set.of(
+                DELEGATE_PROVIDER,
+                SimulatedLink.LATENCY_MS,
+                SimulatedLink.JITTER_MS,
+                SimulatedLink.BANDWIDTH,
+                SimulatedLink.FAILURE_RATE,
+                SimulatedLink.SEED
+        );
+    }
+
+    @Override
+    public RawdataClient initialize(Map<String, String> configuration) {
+        String delegateProvider = configuration.getOrDefault(DELEGATE_PROVIDER, "filesystem");
+        if (providerId().equals(delegateProvider)) {
+            throw new IllegalArgumentException("Simulated provider cannot delegate to itself!");
+        }
+        SimulatedLink link = SimulatedLink.create(configuration);
+        LOG.info("Simulated rawdata client: delegate={}, {}", delegateProvider, link);
+        RawdataClient delegate = ProviderConfigurator.configure(configuration, delegateProvider, RawdataClientInitializer.class);
+        return new SimulatedRawdataClient(delegate, link);
+    }
+}
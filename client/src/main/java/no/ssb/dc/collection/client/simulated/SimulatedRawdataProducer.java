@@ -0,0 +1,84 @@
+package no.ssb.dc.collection.client.simulated;
+
+import no.ssb.rawdata.api.RawdataMessage;
+import no.ssb.rawdata.api.RawdataProducer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Delegates to a real producer, and charges the simulated link for the buffered payload of published positions.
+ * A simulated failure is thrown before the delegate publishes, so the positions stay buffered and can be retried.
+ */
+public class SimulatedRawdataProducer implements RawdataProducer {
+
+    private final RawdataProducer delegate;
+    private final SimulatedLink link;
+    private final Map<String, Long> bufferedBytes = new ConcurrentHashMap<>();
+
+    public SimulatedRawdataProducer(RawdataProducer delegate, SimulatedLink link) {
+        this.delegate = delegate;
+        this.link = link;
+    }
+
+    @Override
+    public String topic() {
+        return delegate.topic();
+    }
+
+    @Override
+    public RawdataMessage.Builder builder() {
+        return delegate.builder();
+    }
+
+    /**
+     * The builder is built once here to measure the payload size.
+     */
+    @Override
+    public RawdataProducer buffer(RawdataMessage.Builder builder) {
+        RawdataMessage message = builder.build();
+        long bytes = 0;
+        for (String key : message.keys()) {
+            bytes += message.get(key).length;
+        }
+        bufferedBytes.put(message.position(), bytes);
+        delegate.buffer(builder);
+        return this;
+    }
+
+    @Override
+    public void publish(List<String> positions) {
+        publish(positions.toArray(new String[0]));
+    }
+
+    @Override
+    public void publish(String... positions) {
+        long bytes = 0;
+        for (String position : positions) {
+            Long positionBytes = bufferedBytes.get(position);
+            bytes += positionBytes == null ? 0 : positionBytes;
+        }
+        link.upload(bytes);
+        delegate.publish(positions);
+        for (String position : positions) {
+            bufferedBytes.remove(position);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> publishAsync(String... positions) {
+        return CompletableFuture.runAsync(() -> publish(positions));
+    }
+
+    @Override
+    public boolean isClosed() {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public void close() throws Exception {
+        delegate.close();
+    }
+}
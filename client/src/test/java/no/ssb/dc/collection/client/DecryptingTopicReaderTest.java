@@ -0,0 +1,83 @@
+package no.ssb.dc.collection.client;
+
+import no.ssb.rawdata.api.RawdataClient;
+import no.ssb.rawdata.api.RawdataConsumer;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DecryptingTopicReaderTest {
+
+    /**
+     * A client with a topic of the given number of messages, or an endless topic if the count is negative.
+     */
+    static RawdataClient client(int messageCount, AtomicLong receiveTimeoutSeconds, AtomicBoolean consumerClosed) {
+        AtomicInteger received = new AtomicInteger();
+        RawdataConsumer consumer = (RawdataConsumer) Proxy.newProxyInstance(RawdataConsumer.class.getClassLoader(), new Class<?>[]{RawdataConsumer.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "receive" -> {
+                        receiveTimeoutSeconds.set(((TimeUnit) args[1]).toSeconds((Integer) args[0]));
+                        int index = received.incrementAndGet();
+                        yield messageCount < 0 || index <= messageCount ? TopicExporterTest.message(String.valueOf(index), Map.of()) : null;
+                    }
+                    case "close" -> {
+                        consumerClosed.set(true);
+                        yield null;
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        return (RawdataClient) Proxy.newProxyInstance(RawdataClient.class.getClassLoader(), new Class<?>[]{RawdataClient.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "consumer" -> consumer;
+                    case "close" -> null;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    static boolean isReceiverAlive(String topic) {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> thread.getName().equals("topic-receiver-" + topic) && thread.isAlive());
+    }
+
+    @Test
+    void thatTopicIsReadUntilIdleTimeout() {
+        AtomicLong receiveTimeoutSeconds = new AtomicLong();
+        AtomicBoolean consumerClosed = new AtomicBoolean();
+        List<String> positions = new ArrayList<>();
+        try (DecryptingTopicReader reader = new DecryptingTopicReader(client(3, receiveTimeoutSeconds, consumerClosed), "idle-topic", null, null, 2, 2, 5)) {
+            assertEquals(3, reader.read(DecryptingTopicReader.DecryptedMessage::position, positions::add));
+        }
+        assertEquals(List.of("1", "2", "3"), positions);
+        assertEquals(5, receiveTimeoutSeconds.get());
+        assertTrue(consumerClosed.get());
+    }
+
+    @Test
+    void thatReceiverIsStoppedWhenMapperFails() {
+        AtomicBoolean consumerClosed = new AtomicBoolean();
+        try (DecryptingTopicReader reader = new DecryptingTopicReader(client(-1, new AtomicLong(), consumerClosed), "endless-topic", null, null, 2, 2, 5)) {
+            assertThrows(CompletionException.class, () -> reader.read(message -> {
+                if (message.position().equals("3")) {
+                    throw new IllegalStateException("Unable to map: " + message.position());
+                }
+                return message.position();
+            }, position -> {
+            }));
+            assertTrue(consumerClosed.get(), "The consumer is closed before the failure is thrown");
+            assertFalse(isReceiverAlive("endless-topic"));
+        }
+    }
+}
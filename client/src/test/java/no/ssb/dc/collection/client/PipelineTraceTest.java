@@ -0,0 +1,73 @@
+package no.ssb.dc.collection.client;
+
+import no.ssb.dc.collection.pipeline.StageMetrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PipelineTraceTest {
+
+    @Test
+    void thatStageEventsAreRecordedAndSummarized(@TempDir Path tempDir) {
+        StageMetrics stageMetrics = new StageMetrics("rema")
+                .stage("read", StageMetrics.Kind.IO)
+                .stage("publish", StageMetrics.Kind.SINK);
+        // not recorded
+        stageMetrics.record("read", System.nanoTime(), 10, "20181001_000000000-230101-0");
+
+        Path file = tempDir.resolve("trace/pipeline.jfr");
+        try (PipelineTrace trace = PipelineTrace.start(file)) {
+            for (int i = 1; i <= 100; i++) {
+                String position = "20181001_000000000-230101-" + i;
+                stageMetrics.record("read", System.nanoTime() - i * 1_000_000L, 1024, position);
+            }
+            stageMetrics.record("publish", System.nanoTime() - 5_000_000, 100 * 1024, "20181001_000000000-230101-1");
+        }
+        assertTrue(Files.exists(file));
+
+        String summary = PipelineTrace.summarize(file, 2);
+        assertTrue(summary.matches("(?s).*rema\\s+read\\s+100\\s.*"), summary);
+        assertTrue(summary.matches("(?s).*rema\\s+publish\\s+1\\s.*"), summary);
+        assertTrue(summary.contains("slowest rema read: 20181001_000000000-230101-100 (100"), summary);
+        assertTrue(summary.contains("gc: "), summary);
+
+        // reads took 1 to 100ms, and a percentile is within 12.5% above the recorded value
+        String[] read = stageRow(summary, "rema", "read");
+        assertBetween(50_000, 56_250, Long.parseLong(read[3]), summary);
+        assertBetween(95_000, 106_875, Long.parseLong(read[4]), summary);
+        assertBetween(99_000, 111_375, Long.parseLong(read[5]), summary);
+    }
+
+    static String[] stageRow(String summary, String pipeline, String stage) {
+        return summary.lines()
+                .map(line -> line.trim().split("\\s+"))
+                .filter(columns -> columns.length == 8 && columns[0].equals(pipeline) && columns[1].equals(stage))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError(summary));
+    }
+
+    static void assertBetween(long min, long max, long actual, String message) {
+        assertTrue(actual >= min && actual <= max, () -> actual + " is not in [" + min + ", " + max + "]: " + message);
+    }
+
+    @Test
+    void thatStagesAreSummarizedPerPipeline(@TempDir Path tempDir) {
+        StageMetrics remaMetrics = new StageMetrics("rema").stage("publish", StageMetrics.Kind.SINK);
+        StageMetrics kostraMetrics = new StageMetrics("kostra").stage("publish", StageMetrics.Kind.SINK);
+
+        Path file = tempDir.resolve("pipeline.jfr");
+        try (PipelineTrace trace = PipelineTrace.start(file)) {
+            remaMetrics.record("publish", System.nanoTime(), 1, "20181001_000000000-230101-1");
+            kostraMetrics.record("publish", System.nanoTime(), 1, "0000000000001");
+            kostraMetrics.record("publish", System.nanoTime(), 1, "0000000000002");
+        }
+
+        String summary = PipelineTrace.summarize(file, 0);
+        assertTrue(summary.matches("(?s).*rema\\s+publish\\s+1\\s.*"), summary);
+        assertTrue(summary.matches("(?s).*kostra\\s+publish\\s+2\\s.*"), summary);
+    }
+}
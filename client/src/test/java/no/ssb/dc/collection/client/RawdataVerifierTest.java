@@ -0,0 +1,87 @@
+package no.ssb.dc.collection.client;
+
+import no.ssb.dc.collection.bong.rema.SourceRemaConfiguration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RawdataVerifierTest {
+
+    @Test
+    void thatExternalSorterMergesSpilledRuns(@TempDir Path tempDir) {
+        try (ExternalSorter sorter = new ExternalSorter(tempDir, 3)) {
+            for (int i = 10; i > 0; i--) {
+                sorter.add(String.format("%02d", i));
+            }
+            List<String> sorted = new ArrayList<>();
+            sorter.sorted().forEachRemaining(sorted::add);
+            assertEquals(4, sorter.runCount());
+            assertEquals(List.of("01", "02", "03", "04", "05", "06", "07", "08", "09", "10"), sorted);
+        }
+    }
+
+    @Test
+    void thatMergeJoinReportsMissingUnexpectedDuplicatesAndMismatches() {
+        Iterator<String> source = List.of(
+                RawdataVerifier.record("a", "1"),
+                RawdataVerifier.record("b", "2"),
+                RawdataVerifier.record("c", "3"),
+                RawdataVerifier.record("d", "4")
+        ).iterator();
+        Iterator<String> topic = List.of(
+                RawdataVerifier.record("a", "1"),
+                RawdataVerifier.record("c", "3"),
+                RawdataVerifier.record("c", "3"),
+                RawdataVerifier.record("d", "x"),
+                RawdataVerifier.record("e", "5")
+        ).iterator();
+        RawdataVerifier.Report report = RawdataVerifier.mergeJoin(source, topic);
+        assertFalse(report.isValid());
+        assertEquals(1, report.missing());
+        assertEquals(1, report.unexpected());
+        assertEquals(1, report.duplicates());
+        assertEquals(1, report.mismatches());
+    }
+
+    @Test
+    void thatSequenceTrackerReportsGaps() {
+        RawdataVerifier.SequenceTracker tracker = new RawdataVerifier.SequenceTracker(10);
+        for (String position : List.of("1", "2", "5", "5", "6", "9", "11", "x")) {
+            tracker.accept(position);
+        }
+        RawdataVerifier.Report report = tracker.report();
+        assertEquals(5, report.missing());
+        assertEquals(2, report.unexpected());
+        assertEquals(1, report.duplicates());
+        assertTrue(report.samples().containsAll(List.of("gap: 3..4", "gap: 7..8", "gap: 10")));
+    }
+
+    static SourceRemaConfiguration sourceConfiguration(Map<String, Object> values) {
+        return (SourceRemaConfiguration) Proxy.newProxyInstance(SourceRemaConfiguration.class.getClassLoader(), new Class[]{SourceRemaConfiguration.class}, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("has")) {
+                return values.containsKey(Character.toLowerCase(name.charAt(3)) + name.substring(4));
+            }
+            return values.get(name);
+        });
+    }
+
+    @Test
+    void thatSplitXmlAndArchiveSourcesAreRejected() {
+        RawdataVerifier.checkVerifiable(sourceConfiguration(Map.of()));
+        RawdataVerifier.checkVerifiable(sourceConfiguration(Map.of("archives", false)));
+        assertThrows(IllegalStateException.class, () -> RawdataVerifier.checkVerifiable(sourceConfiguration(Map.of("xmlRecordPath", "/receipts/receipt"))));
+        assertThrows(IllegalStateException.class, () -> RawdataVerifier.checkVerifiable(sourceConfiguration(Map.of("archives", true))));
+    }
+}
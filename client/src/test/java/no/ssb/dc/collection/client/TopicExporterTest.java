@@ -0,0 +1,121 @@
+package no.ssb.dc.collection.client;
+
+import no.ssb.rawdata.api.RawdataMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TopicExporterTest {
+
+    static final String KOSTRA_ROW_MANIFEST = "{\"contentType\":\"application/x-kostra-row\",\"jsonMapping\":{\"region\":\"String\",\"value\":\"Int\"}}";
+
+    // row ["0301", "42"]: magic, version, value count, text tag, length, text, integer tag, zigzag varint of 42
+    static final byte[] KOSTRA_ROW = {(byte) 0xCB, 1, 2, 1, 4, '0', '3', '0', '1', 2, 84};
+
+    /**
+     * A topic reader that maps the messages of a list on the calling thread.
+     */
+    static class ListTopicReader extends DecryptingTopicReader {
+        final List<RawdataMessage> messages;
+
+        ListTopicReader(List<RawdataMessage> messages) {
+            super(null, "test-topic", null, null, 1, 1, 1);
+            this.messages = messages;
+        }
+
+        @Override
+        public <T> long read(Function<DecryptedMessage, T> mapper, Consumer<T> consumer) {
+            for (RawdataMessage message : messages) {
+                consumer.accept(mapper.apply(new DecryptedMessage(this, message)));
+            }
+            return messages.size();
+        }
+    }
+
+    static RawdataMessage message(String position, Map<String, byte[]> content) {
+        return (RawdataMessage) Proxy.newProxyInstance(RawdataMessage.class.getClassLoader(), new Class<?>[]{RawdataMessage.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "position" -> position;
+                    case "keys" -> content.keySet();
+                    case "get" -> content.get((String) args[0]);
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void thatRemaPathIsResolvedFromFilenameTimestamp() {
+        Path root = Path.of("/export");
+        assertEquals(Path.of("/export/2018/01/26/20180126_061507420-230101-237427"), TopicExporter.remaPath(root, "20180126_061507420-230101-237427"));
+        assertEquals(Path.of("/export/2018/01/26/20180126_061507420-230101-237427"), TopicExporter.remaPath(root, "2018/01/26/20180126_061507420-230101-237427"));
+        assertThrows(IllegalStateException.class, () -> TopicExporter.remaPath(root, "no-timestamp"));
+        assertThrows(IllegalStateException.class, () -> TopicExporter.remaPath(root, "2018012x_061507420-230101-1"));
+    }
+
+    @Test
+    void thatRemaMessagesAreWrittenToFileTree(@TempDir Path tempDir) throws IOException {
+        TopicExporter exporter = new TopicExporter(new ListTopicReader(List.of(
+                message("20180126_061507420-230101-1", Map.of("entry", bytes("<receipt>1</receipt>"))),
+                message("20180127_080000000-230101-2", Map.of("entry", bytes("<receipt>2</receipt>")))
+        )));
+        exporter.exportRema(tempDir);
+
+        assertEquals(2, exporter.messageCount());
+        assertArrayEquals(bytes("<receipt>1</receipt>"), Files.readAllBytes(tempDir.resolve("2018/01/26/20180126_061507420-230101-1")));
+        assertArrayEquals(bytes("<receipt>2</receipt>"), Files.readAllBytes(tempDir.resolve("2018/01/27/20180127_080000000-230101-2")));
+    }
+
+    @Test
+    void thatJsonEntriesRoundTripThroughNdjson(@TempDir Path tempDir) throws IOException {
+        List<String> entries = List.of("{\"id\":1}", "  [1,2,3]", "{\"name\":\"\u00e5\"}");
+        TopicExporter exporter = new TopicExporter(new ListTopicReader(List.of(
+                message("1", Map.of("entry", bytes(entries.get(0)))),
+                message("2", Map.of("entry", bytes(entries.get(1)))),
+                message("3", Map.of("entry", bytes(entries.get(2))))
+        )));
+        Path file = tempDir.resolve("export/topic.ndjson");
+        exporter.exportNdjson(file);
+
+        assertEquals(3, exporter.messageCount());
+        assertEquals(entries, Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void thatKostraRowsAreDecodedToJsonDocuments(@TempDir Path tempDir) throws IOException {
+        TopicExporter exporter = new TopicExporter(new ListTopicReader(List.of(
+                message("1", Map.of("manifest.json", bytes(KOSTRA_ROW_MANIFEST), "entry", KOSTRA_ROW)),
+                message("2", Map.of("manifest.json", bytes("{\"contentType\":\"application/json\"}"), "entry", bytes("{\"data\":[[\"0301\",\"43\"]]}")))
+        )));
+        Path file = tempDir.resolve("topic.ndjson");
+        exporter.exportNdjson(file);
+
+        assertEquals(List.of(
+                "{\"structure\":[{\"name\":\"region\",\"type\":\"String\"},{\"name\":\"value\",\"type\":\"Int\"}],\"data\":[[\"0301\",\"42\"]]}",
+                "{\"data\":[[\"0301\",\"43\"]]}"
+        ), Files.readAllLines(file));
+    }
+
+    @Test
+    void thatBinaryEntriesOfOtherContentTypesAreRejected(@TempDir Path tempDir) {
+        TopicExporter exporter = new TopicExporter(new ListTopicReader(List.of(
+                message("1", Map.of("manifest.json", bytes("{\"contentType\":\"application/octet-stream\"}"), "entry", new byte[]{0, 1, 2}))
+        )));
+        assertThrows(IllegalStateException.class, () -> exporter.exportNdjson(tempDir.resolve("topic.ndjson")));
+    }
+}
@@ -0,0 +1,47 @@
+package no.ssb.dc.collection.client.simulated;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimulatedLinkTest {
+
+    @Test
+    void thatLatencyAndBandwidthAreApplied() {
+        SimulatedLink link = SimulatedLink.create(Map.of(
+                SimulatedLink.LATENCY_MS, "20",
+                SimulatedLink.BANDWIDTH, "1m",
+                SimulatedLink.SEED, "1"
+        ));
+        long startNanos = System.nanoTime();
+        link.upload(1024);
+        assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(20));
+
+        // 512 KiB at 1 MiB/s
+        startNanos = System.nanoTime();
+        link.upload(512 * 1024);
+        assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(450));
+        assertEquals(2, link.uploads());
+    }
+
+    @Test
+    void thatBandwidthIsSharedBetweenUploads() {
+        SimulatedLink link = new SimulatedLink(0, 0, 1000, 0, 1);
+        long nowNanos = System.nanoTime();
+        assertEquals(nowNanos + TimeUnit.MILLISECONDS.toNanos(100), link.reserveBandwidth(nowNanos, 100));
+        assertEquals(nowNanos + TimeUnit.MILLISECONDS.toNanos(300), link.reserveBandwidth(nowNanos, 200));
+    }
+
+    @Test
+    void thatFailuresAreTransient() {
+        SimulatedLink link = new SimulatedLink(0, 0, 0, 1, 1);
+        assertThrows(SimulatedLink.SimulatedUploadException.class, () -> link.upload(1));
+        assertEquals(1, link.failures());
+        assertThrows(IllegalArgumentException.class, () -> new SimulatedLink(0, 0, 0, 1.5, 1));
+    }
+}
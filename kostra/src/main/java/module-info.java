@@ -2,6 +2,7 @@ module rawdata.collection.kostra {
 
     requires jdk.unsupported;
     requires java.base;
+    requires java.management;
 
     requires no.ssb.service.provider.api;
     requires no.ssb.config;
@@ -12,6 +13,7 @@ module rawdata.collection.kostra {
     requires lmdbjava;
     requires org.objectweb.asm;
 
+    requires rawdata.collection.pipeline;
     requires no.ssb.rawdata.migration.onprem;
     requires no.ssb.rawdata.encryption; // used in test
 
@@ -1,17 +1,28 @@
 package no.ssb.dc.collection.kostra;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
 
+/**
+ * Ordered batches are handed to the callback by one thread at a time, so a slow or retried callback cannot be
+ * overtaken by a later batch. A batch whose callback fails is put back first in line, and no later batch is handed
+ * to the callback after it.
+ */
 public class BufferedReordering<ELEMENT> {
 
     private final Object lock = new Object();
     private final List<ELEMENT> expected = new ArrayList<>();
     private final Set<ELEMENT> completed = new LinkedHashSet<>();
+    private final Deque<List<ELEMENT>> ready = new ArrayDeque<>();
+    private int readyCount;
+    private boolean draining;
+    private boolean failed;
 
     public BufferedReordering() {
     }
@@ -24,6 +35,53 @@ public class BufferedReordering<ELEMENT> {
         return completed;
     }
 
+    /**
+     * @return number of completed elements waiting for preceding elements
+     */
+    public int backlog() {
+        synchronized (lock) {
+            return completed.size();
+        }
+    }
+
+    /**
+     * @return true if a callback has failed, which stops the hand over of ordered batches
+     */
+    public boolean failed() {
+        synchronized (lock) {
+            return failed;
+        }
+    }
+
+    /**
+     * @return number of expected elements not yet handed to the ordered callback
+     */
+    public int pending() {
+        synchronized (lock) {
+            return expected.size() + readyCount;
+        }
+    }
+
+    /**
+     * Remove every element that has not been handed to the ordered callback, e.g. when the worker has stopped.
+     *
+     * @return the removed elements, ready batches first
+     */
+    public List<ELEMENT> clear() {
+        synchronized (lock) {
+            List<ELEMENT> elements = new ArrayList<>(readyCount + expected.size());
+            for (List<ELEMENT> orderedElements : ready) {
+                elements.addAll(orderedElements);
+            }
+            elements.addAll(expected);
+            ready.clear();
+            readyCount = 0;
+            expected.clear();
+            completed.clear();
+            return elements;
+        }
+    }
+
     public void addExpected(ELEMENT element) {
         synchronized (lock) {
             expected.add(element);
@@ -37,9 +95,9 @@ public class BufferedReordering<ELEMENT> {
     }
 
     public void addCompleted(ELEMENT elements, Consumer<List<ELEMENT>> orderedElementsCallback) {
-        List<ELEMENT> orderedElements = new ArrayList<>();
         synchronized (lock) {
             completed.add(elements);
+            List<ELEMENT> orderedElements = new ArrayList<>();
             Iterator<ELEMENT> iterator = expected.iterator();
             while (iterator.hasNext()) {
                 ELEMENT element = iterator.next();
@@ -49,9 +107,43 @@ public class BufferedReordering<ELEMENT> {
                 iterator.remove();
                 orderedElements.add(element);
             }
+            if (!orderedElements.isEmpty()) {
+                ready.add(orderedElements);
+                readyCount += orderedElements.size();
+            }
+            if (draining || failed || ready.isEmpty()) {
+                return;
+            }
+            draining = true;
         }
-        if (!orderedElements.isEmpty()) {
-            orderedElementsCallback.accept(orderedElements);
+        drain(orderedElementsCallback);
+    }
+
+    private void drain(Consumer<List<ELEMENT>> orderedElementsCallback) {
+        while (true) {
+            List<ELEMENT> orderedElements;
+            synchronized (lock) {
+                orderedElements = ready.poll();
+                if (orderedElements == null) {
+                    draining = false;
+                    return;
+                }
+                readyCount -= orderedElements.size();
+            }
+            boolean accepted = false;
+            try {
+                orderedElementsCallback.accept(orderedElements);
+                accepted = true;
+            } finally {
+                if (!accepted) {
+                    synchronized (lock) {
+                        ready.addFirst(orderedElements);
+                        readyCount += orderedElements.size();
+                        failed = true;
+                        draining = false;
+                    }
+                }
+            }
         }
     }
 }
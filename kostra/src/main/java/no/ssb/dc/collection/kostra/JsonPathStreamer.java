@@ -0,0 +1,194 @@
+package no.ssb.dc.collection.kostra;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import no.ssb.dc.collection.pipeline.SourceInputException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Streams a json document and emits the nodes that match path expressions. Only matched nodes are materialized, so
+ * memory use is bounded by the largest matched node and not by the document size.
+ * <p>
+ * Path expressions are slash separated field names, where an array element is matched by a "[]" suffix or by an
+ * index segment ("*" for any element): "/structure", "/data[]", "/data/*", "/report/rows/0".
+ */
+public class JsonPathStreamer {
+
+    private final ObjectMapper mapper;
+    private final JsonFactory jsonFactory;
+    private final List<PathHandler> handlers = new ArrayList<>();
+
+    public JsonPathStreamer(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.jsonFactory = mapper.getFactory();
+    }
+
+    public JsonPathStreamer on(String pathExpression, Consumer<JsonNode> nodeCallback) {
+        handlers.add(new PathHandler(PathExpression.compile(pathExpression), nodeCallback));
+        return this;
+    }
+
+    /**
+     * @return number of emitted nodes
+     */
+    public long stream(Reader reader) {
+        return stream(reader, () -> false);
+    }
+
+    /**
+     * @param stopped streaming ends before the next token when this returns true
+     * @return number of emitted nodes
+     */
+    public long stream(Reader reader, BooleanSupplier stopped) {
+        long count = 0;
+        try (JsonParser parser = jsonFactory.createParser(reader)) {
+            JsonToken token;
+            while (!stopped.getAsBoolean() && (token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME || token.isStructEnd()) {
+                    continue;
+                }
+                JsonStreamContext valueContext = token.isStructStart() ? parser.getParsingContext().getParent() : parser.getParsingContext();
+                PathHandler handler = match(valueContext);
+                if (handler != null) {
+                    JsonNode node = mapper.readTree(parser);
+                    handler.nodeCallback.accept(node);
+                    count++;
+                } else if (token.isStructStart() && !isPrefix(valueContext)) {
+                    parser.skipChildren();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new SourceInputException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return count;
+    }
+
+    private PathHandler match(JsonStreamContext valueContext) {
+        for (PathHandler handler : handlers) {
+            if (handler.expression.matches(valueContext)) {
+                return handler;
+            }
+        }
+        return null;
+    }
+
+    private boolean isPrefix(JsonStreamContext valueContext) {
+        for (PathHandler handler : handlers) {
+            if (handler.expression.isPrefixedBy(valueContext)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static class PathHandler {
+        final PathExpression expression;
+        final Consumer<JsonNode> nodeCallback;
+
+        PathHandler(PathExpression expression, Consumer<JsonNode> nodeCallback) {
+            this.expression = expression;
+            this.nodeCallback = nodeCallback;
+        }
+    }
+
+    /**
+     * A compiled path expression. Matching walks the parser context chain and does not allocate.
+     */
+    static class PathExpression {
+        static final String ANY_INDEX = "*";
+
+        final String expression;
+        final String[] segments;
+
+        PathExpression(String expression, String[] segments) {
+            this.expression = expression;
+            this.segments = segments;
+        }
+
+        static PathExpression compile(String expression) {
+            Objects.requireNonNull(expression);
+            if (!expression.startsWith("/")) {
+                throw new IllegalArgumentException("Path expression must start with '/': " + expression);
+            }
+            List<String> segments = new ArrayList<>();
+            for (String token : expression.substring(1).split("/")) {
+                if (token.isEmpty()) {
+                    continue;
+                }
+                String name = token;
+                int arrayLevels = 0;
+                while (name.endsWith("[]")) {
+                    name = name.substring(0, name.length() - 2);
+                    arrayLevels++;
+                }
+                if (!name.isEmpty()) {
+                    segments.add(name.replace("~1", "/").replace("~0", "~"));
+                }
+                for (int i = 0; i < arrayLevels; i++) {
+                    segments.add(ANY_INDEX);
+                }
+            }
+            return new PathExpression(expression, segments.toArray(new String[0]));
+        }
+
+        static int depth(JsonStreamContext context) {
+            int depth = 0;
+            while (context != null && !context.inRoot()) {
+                depth++;
+                context = context.getParent();
+            }
+            return depth;
+        }
+
+        static boolean matchesSegment(String segment, JsonStreamContext context) {
+            if (context.inArray()) {
+                return ANY_INDEX.equals(segment) || segment.equals(String.valueOf(context.getCurrentIndex()));
+            }
+            return segment.equals(context.getCurrentName());
+        }
+
+        /**
+         * @param valueContext the context that holds the current value (the parent context of a started container)
+         */
+        boolean matches(JsonStreamContext valueContext) {
+            return depth(valueContext) == segments.length && matchesFrom(valueContext, segments.length - 1);
+        }
+
+        /**
+         * @return true if a deeper node below the current value may match this expression
+         */
+        boolean isPrefixedBy(JsonStreamContext valueContext) {
+            int depth = depth(valueContext);
+            return depth < segments.length && matchesFrom(valueContext, depth - 1);
+        }
+
+        private boolean matchesFrom(JsonStreamContext context, int segmentIndex) {
+            for (int i = segmentIndex; i >= 0; i--) {
+                if (!matchesSegment(segments[i], context)) {
+                    return false;
+                }
+                context = context.getParent();
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return expression;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package no.ssb.dc.collection.kostra;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import no.ssb.dapla.migration.rawdata.onprem.worker.JsonParser;
+import no.ssb.dc.collection.pipeline.SourceInputException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Streaming parser for KOSTRA json source files and their yaml specification.
+ * <p>
+ * The source file property is a comma separated list of file names or glob patterns relative to the source path,
+ * e.g. "kostradata-2019.json,2020/*.json".
+ */
+public class KostraFileParser {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KostraFileParser.class);
+
+    static final String DEFAULT_HEADER_PATH = "/structure";
+    static final String DEFAULT_RECORD_PATH = "/data[]";
+    public static final char POSITION_SEPARATOR = ':';
+
+    private final JsonParser jsonParser;
+    private final Path sourcePath;
+    private final List<Path> sources;
+    private final JsonNode specification;
+
+    public KostraFileParser(SourceKostraConfiguration sourceConfiguration) {
+        this.jsonParser = JsonParser.createJsonParser();
+        this.sourcePath = Paths.get(sourceConfiguration.sourcePath());
+        this.sources = resolveSourceFiles(sourcePath, sourceConfiguration.sourceFile(), sourceConfiguration.specificationFile());
+        this.specification = loadSpecification(sourceConfiguration);
+    }
+
+    /**
+     * @return source files in list order, where each glob pattern expands to its matches in path order
+     */
+    static List<Path> resolveSourceFiles(Path sourcePath, String sourceFile, String specificationFile) {
+        if (sourceFile == null || sourceFile.isBlank()) {
+            throw new IllegalArgumentException("Source file is not set!");
+        }
+        Path specificationPath = specificationFile == null ? null : sourcePath.resolve(specificationFile).normalize();
+        Set<Path> sources = new LinkedHashSet<>();
+        for (String entry : sourceFile.split(",")) {
+            String pattern = entry.trim();
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            if (!isGlob(pattern)) {
+                sources.add(sourcePath.resolve(pattern).normalize());
+                continue;
+            }
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            int maxDepth = pattern.contains("**") ? Integer.MAX_VALUE : pattern.split("/").length;
+            List<Path> matches = new ArrayList<>();
+            try (var stream = Files.find(sourcePath, maxDepth, (path, attrs) -> attrs.isRegularFile() && matcher.matches(sourcePath.relativize(path)))) {
+                stream.map(Path::normalize).filter(path -> !path.equals(specificationPath)).sorted().forEach(matches::add);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (matches.isEmpty()) {
+                LOG.warn("No source files match: {}", pattern);
+            }
+            sources.addAll(matches);
+        }
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("No source files found for: " + sourceFile);
+        }
+        return List.copyOf(sources);
+    }
+
+    static boolean isGlob(String pattern) {
+        for (char c : pattern.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static JsonNode loadSpecification(SourceKostraConfiguration sourceConfiguration) {
+        Path specPath = Paths.get(sourceConfiguration.sourcePath()).resolve(Paths.get(sourceConfiguration.specificationFile()));
+        try {
+            byte[] yamlBytes = Files.readAllBytes(specPath);
+            return JsonParser.createYamlParser().mapper().readValue(yamlBytes, JsonNode.class);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public List<Path> sources() {
+        return sources;
+    }
+
+    /**
+     * @return source file name relative to the source path
+     */
+    public String sourceFile(Path source) {
+        return sourcePath.normalize().relativize(source).toString().replace('\\', '/');
+    }
+
+    /**
+     * A single source file keeps plain row positions. With several files, positions are prefixed by the relative
+     * file name, so they are unique across files and deterministic between runs.
+     */
+    public String positionPrefix(Path source) {
+        return sources.size() == 1 ? "" : sourceFile(source) + POSITION_SEPARATOR;
+    }
+
+    public static String position(String positionPrefix, long row) {
+        return positionPrefix.isEmpty() ? String.valueOf(row) : positionPrefix + row;
+    }
+
+    public JsonNode specification() {
+        return specification;
+    }
+
+    public String charset() {
+        JsonNode charsetNode = specification.withArray("fileDescriptor").findValue("charset");
+        return charsetNode != null ? charsetNode.asText() : null;
+    }
+
+    /**
+     * Path of the header node, which is emitted once and must precede the records. Default: /structure
+     */
+    public String headerPath() {
+        JsonNode node = specification.withArray("fileDescriptor").findValue("headerPath");
+        return node != null ? node.asText() : DEFAULT_HEADER_PATH;
+    }
+
+    /**
+     * Path of the record nodes. Default: /data[]
+     */
+    public String recordPath() {
+        JsonNode node = specification.withArray("fileDescriptor").findValue("recordPath");
+        return node != null ? node.asText() : DEFAULT_RECORD_PATH;
+    }
+
+    public void parse(Consumer<JsonNode> structureCallback, Consumer<JsonNode> dataElementCallback) {
+        parse(charset(), structureCallback, dataElementCallback);
+    }
+
+    public void parse(String charset, Consumer<JsonNode> structureCallback, Consumer<JsonNode> dataElementCallback) {
+        parse(charset, () -> false, structureCallback, dataElementCallback);
+    }
+
+    /**
+     * Parse all source files in sequence.
+     *
+     * @param stopped parsing ends before the next data element when this returns true
+     */
+    public void parse(String charset, BooleanSupplier stopped, Consumer<JsonNode> structureCallback, Consumer<JsonNode> dataElementCallback) {
+        for (Path source : sources) {
+            if (stopped.getAsBoolean()) {
+                return;
+            }
+            parse(source, charset, stopped, structureCallback, dataElementCallback);
+        }
+    }
+
+    /**
+     * Parse one source file.
+     *
+     * @param stopped parsing ends before the next data element when this returns true
+     */
+    public void parse(Path source, String charset, BooleanSupplier stopped, Consumer<JsonNode> structureCallback, Consumer<JsonNode> dataElementCallback) {
+        AtomicBoolean headerFound = new AtomicBoolean();
+        JsonPathStreamer streamer = new JsonPathStreamer(jsonParser.mapper())
+                .on(headerPath(), headerNode -> {
+                    headerFound.set(true);
+                    structureCallback.accept(headerNode);
+                })
+                .on(recordPath(), recordNode -> {
+                    if (!headerFound.get()) {
+                        throw new SourceInputException("Header node " + headerPath() + " must precede records " + recordPath());
+                    }
+                    dataElementCallback.accept(recordNode);
+                });
+        LOG.info("Parse file {} with {} encoding (header: {}, records: {})", source.normalize().toAbsolutePath().toString(), Charset.forName(charset), headerPath(), recordPath());
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(source), charset))) {
+            streamer.stream(reader, stopped);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
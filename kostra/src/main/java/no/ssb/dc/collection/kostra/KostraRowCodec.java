@@ -0,0 +1,363 @@
+package no.ssb.dc.collection.kostra;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a KOSTRA data row, compiled from the declared structure types. The structure is not
+ * repeated in the row: a reader compiles the same codec from the structure, or from the name and type pairs of the
+ * manifest json mapping.
+ * <p>
+ * A row is a magic byte, a version byte, the value count and a tag and payload per value. Values of integer, decimal
+ * and boolean columns are stored as a zigzag varint, a scale and unscaled varint, or a byte when the text value
+ * round-trips exactly. Other values are stored as UTF-8 text or json, so decoding restores the original row.
+ */
+public class KostraRowCodec {
+
+    public static final String CONTENT_TYPE = "application/x-kostra-row";
+
+    static final byte MAGIC = (byte) 0xCB;
+    static final byte VERSION = 1;
+
+    static final int TAG_NULL = 0;
+    static final int TAG_TEXT = 1;
+    static final int TAG_INTEGER = 2;
+    static final int TAG_DECIMAL = 3;
+    static final int TAG_BOOLEAN = 4;
+    static final int TAG_JSON = 5;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    enum ColumnType {
+        STRING,
+        INTEGER,
+        DECIMAL,
+        BOOLEAN;
+
+        static ColumnType of(String type) {
+            return switch (type == null ? "" : type.toLowerCase(Locale.ROOT)) {
+                case "int", "integer", "long", "short", "byte" -> INTEGER;
+                case "float", "double", "decimal", "number", "numeric" -> DECIMAL;
+                case "bool", "boolean" -> BOOLEAN;
+                default -> STRING;
+            };
+        }
+    }
+
+    private final String[] names;
+    private final String[] types;
+    private final ColumnType[] columnTypes;
+
+    /**
+     * @param structureArrayNode array of {"name": ..., "type": ...} elements
+     */
+    public KostraRowCodec(JsonNode structureArrayNode) {
+        this(names(structureArrayNode), types(structureArrayNode));
+    }
+
+    public KostraRowCodec(String[] names, String[] types) {
+        if (names.length != types.length) {
+            throw new IllegalArgumentException("Names and types differ in length: " + names.length + " != " + types.length);
+        }
+        this.names = names.clone();
+        this.types = types.clone();
+        this.columnTypes = new ColumnType[types.length];
+        for (int i = 0; i < types.length; i++) {
+            columnTypes[i] = ColumnType.of(types[i]);
+        }
+    }
+
+    static String[] names(JsonNode structureArrayNode) {
+        String[] names = new String[structureArrayNode.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = structureArrayNode.get(i).path("name").asText();
+        }
+        return names;
+    }
+
+    static String[] types(JsonNode structureArrayNode) {
+        String[] types = new String[structureArrayNode.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = structureArrayNode.get(i).path("type").asText();
+        }
+        return types;
+    }
+
+    /**
+     * Compile the codec of a message from its manifest json.
+     *
+     * @return codec, or null if the manifest content type is not the KOSTRA row format
+     * @throws IllegalArgumentException if the manifest of an encoded row has no json mapping
+     */
+    public static KostraRowCodec fromManifest(byte[] manifestJson) {
+        JsonNode manifest;
+        try {
+            manifest = MAPPER.readTree(manifestJson);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        JsonNode contentType = manifest.findValue("contentType");
+        if (contentType == null || !CONTENT_TYPE.equals(contentType.asText())) {
+            return null;
+        }
+        JsonNode jsonMapping = manifest.findValue("jsonMapping");
+        if (jsonMapping == null || jsonMapping.size() == 0) {
+            throw new IllegalArgumentException("Manifest of " + CONTENT_TYPE + " has no json mapping");
+        }
+        if (jsonMapping.isArray()) {
+            return new KostraRowCodec(jsonMapping);
+        }
+        // name to type
+        List<String> names = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        for (Iterator<Map.Entry<String, JsonNode>> it = jsonMapping.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = it.next();
+            names.add(field.getKey());
+            types.add(field.getValue().asText());
+        }
+        return new KostraRowCodec(names.toArray(new String[0]), types.toArray(new String[0]));
+    }
+
+    /**
+     * @return true if the entry was written by this codec, json entries start with '{' or '['
+     */
+    public static boolean isEncoded(byte[] entry) {
+        return entry.length >= 2 && entry[0] == MAGIC;
+    }
+
+    /**
+     * @param dataElementArrayNode a row of the data array. Values beyond the structure are encoded as strings.
+     */
+    public byte[] encode(JsonNode dataElementArrayNode) {
+        if (!dataElementArrayNode.isArray()) {
+            throw new IllegalArgumentException("Data element is not an array: " + dataElementArrayNode.getNodeType());
+        }
+        RowOutput out = new RowOutput(16 + dataElementArrayNode.size() * 8);
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.writeVarint(dataElementArrayNode.size());
+        for (int i = 0; i < dataElementArrayNode.size(); i++) {
+            JsonNode value = dataElementArrayNode.get(i);
+            ColumnType columnType = i < columnTypes.length ? columnTypes[i] : ColumnType.STRING;
+            if (value == null || value.isNull()) {
+                out.write(TAG_NULL);
+            } else if (!value.isTextual()) {
+                out.write(TAG_JSON);
+                out.writeLengthPrefixed(value.toString().getBytes(StandardCharsets.UTF_8));
+            } else if (!encodeTyped(out, columnType, value.textValue())) {
+                out.write(TAG_TEXT);
+                out.writeLengthPrefixed(value.textValue().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean encodeTyped(RowOutput out, ColumnType columnType, String text) {
+        switch (columnType) {
+            case INTEGER -> {
+                if (!isNumeric(text, false)) {
+                    return false;
+                }
+                long value;
+                try {
+                    value = Long.parseLong(text);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                // e.g. leading zeros are kept as text
+                if (!Long.toString(value).equals(text)) {
+                    return false;
+                }
+                out.write(TAG_INTEGER);
+                out.writeZigzag(value);
+                return true;
+            }
+            case DECIMAL -> {
+                if (!isNumeric(text, true)) {
+                    return false;
+                }
+                BigDecimal value;
+                try {
+                    value = new BigDecimal(text);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                if (value.scale() < 0 || value.scale() > 255 || value.unscaledValue().bitLength() > 63 || !value.toPlainString().equals(text)) {
+                    return false;
+                }
+                out.write(TAG_DECIMAL);
+                out.write(value.scale());
+                out.writeZigzag(value.unscaledValue().longValue());
+                return true;
+            }
+            case BOOLEAN -> {
+                if (!"true".equals(text) && !"false".equals(text)) {
+                    return false;
+                }
+                out.write(TAG_BOOLEAN);
+                out.write("true".equals(text) ? 1 : 0);
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private static boolean isNumeric(String text, boolean decimal) {
+        if (text.isEmpty() || text.length() > 40) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c == '-' && i == 0) || (c == '.' && decimal))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the row as a json array of the original values
+     */
+    public ArrayNode decode(byte[] entry) {
+        if (!isEncoded(entry)) {
+            throw new IllegalArgumentException("Entry is not an encoded KOSTRA row");
+        }
+        if (entry[1] != VERSION) {
+            throw new IllegalArgumentException("Unsupported KOSTRA row version: " + entry[1]);
+        }
+        RowInput in = new RowInput(entry, 2);
+        int count = (int) in.readVarint();
+        ArrayNode row = NODES.arrayNode(count);
+        for (int i = 0; i < count; i++) {
+            int tag = in.read();
+            switch (tag) {
+                case TAG_NULL -> row.addNull();
+                case TAG_TEXT -> row.add(in.readString());
+                case TAG_INTEGER -> row.add(Long.toString(in.readZigzag()));
+                case TAG_DECIMAL -> {
+                    int scale = in.read();
+                    row.add(new BigDecimal(BigInteger.valueOf(in.readZigzag()), scale).toPlainString());
+                }
+                case TAG_BOOLEAN -> row.add(in.read() == 1 ? "true" : "false");
+                case TAG_JSON -> {
+                    try {
+                        row.add(MAPPER.readTree(in.readString()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown value tag: " + tag);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Decode to the json document of the json output format: {"structure": [...], "data": [row]}
+     */
+    public ObjectNode toJsonDocument(byte[] entry) {
+        ObjectNode document = NODES.objectNode();
+        ArrayNode structureArrayNode = document.putArray("structure");
+        for (int i = 0; i < names.length; i++) {
+            structureArrayNode.addObject().put("name", names[i]).put("type", types[i]);
+        }
+        document.putArray("data").add(decode(entry));
+        return document;
+    }
+
+    /**
+     * @return the json document as UTF-8 bytes
+     */
+    public byte[] toJson(byte[] entry) {
+        try {
+            return MAPPER.writeValueAsBytes(toJsonDocument(entry));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static class RowOutput extends ByteArrayOutputStream {
+        RowOutput(int size) {
+            super(size);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeZigzag(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeLengthPrefixed(byte[] bytes) {
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    static class RowInput {
+        final byte[] bytes;
+        int position;
+
+        RowInput(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        int read() {
+            if (position >= bytes.length) {
+                throw new IllegalArgumentException("Truncated KOSTRA row at byte: " + position);
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint at byte: " + position);
+        }
+
+        long readZigzag() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() {
+            int length = (int) readVarint();
+            if (length < 0 || length > bytes.length - position) {
+                throw new IllegalArgumentException("Truncated KOSTRA row at byte: " + position);
+            }
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
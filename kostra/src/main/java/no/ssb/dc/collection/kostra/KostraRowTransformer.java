@@ -0,0 +1,126 @@
+package no.ssb.dc.collection.kostra;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import net.thisptr.jackson.jq.BuiltinFunctionLoader;
+import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Scope;
+import net.thisptr.jackson.jq.Versions;
+import net.thisptr.jackson.jq.exception.JsonQueryException;
+import no.ssb.dc.collection.pipeline.SourceInputException;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Row selection and reshaping declared in the specification:
+ * <pre>
+ * transform:
+ *   select: '.data[0][0] != ""'
+ *   map: '{structure: .structure, data: .data}'
+ * </pre>
+ * Both jq expressions are optional, compiled once and applied to the {"structure": [..], "data": [row]} document
+ * of each row. The transformer is thread safe.
+ */
+public class KostraRowTransformer {
+
+    private final Scope rootScope;
+    private final JsonQuery selectQuery;
+    private final JsonQuery mapQuery;
+    private final LongAdder rowCount = new LongAdder();
+    private final LongAdder selectedCount = new LongAdder();
+    private final LongAdder elapsedNanos = new LongAdder();
+
+    KostraRowTransformer(String selectExpression, String mapExpression) {
+        rootScope = Scope.newEmptyScope();
+        BuiltinFunctionLoader.getInstance().loadFunctions(Versions.JQ_1_6, rootScope);
+        try {
+            selectQuery = selectExpression == null ? null : JsonQuery.compile(selectExpression, Versions.JQ_1_6);
+            mapQuery = mapExpression == null ? null : JsonQuery.compile(mapExpression, Versions.JQ_1_6);
+        } catch (JsonQueryException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return transformer or null if the specification does not declare a transform
+     */
+    public static KostraRowTransformer compile(JsonNode specification) {
+        JsonNode transformNode = specification.get("transform");
+        if (transformNode == null || transformNode.isNull()) {
+            return null;
+        }
+        JsonNode selectNode = transformNode.findValue("select");
+        JsonNode mapNode = transformNode.findValue("map");
+        if (selectNode == null && mapNode == null) {
+            return null;
+        }
+        return new KostraRowTransformer(selectNode == null ? null : selectNode.asText(), mapNode == null ? null : mapNode.asText());
+    }
+
+    /**
+     * @return the reshaped document, or null if the row is not selected
+     */
+    public JsonNode apply(JsonNode document) {
+        long startNanos = System.nanoTime();
+        try {
+            Scope scope = Scope.newChildScope(rootScope);
+            if (selectQuery != null && !isSelected(scope, document)) {
+                return null;
+            }
+            selectedCount.increment();
+            if (mapQuery == null) {
+                return document;
+            }
+            AtomicReference<JsonNode> resultRef = new AtomicReference<>();
+            mapQuery.apply(scope, document, output -> resultRef.compareAndSet(null, output));
+            if (resultRef.get() == null) {
+                throw new SourceInputException("Transform map expression returned no output: " + mapQuery);
+            }
+            return resultRef.get();
+
+        } catch (JsonQueryException e) {
+            throw new SourceInputException(e);
+        } finally {
+            rowCount.increment();
+            elapsedNanos.add(System.nanoTime() - startNanos);
+        }
+    }
+
+    private boolean isSelected(Scope scope, JsonNode document) throws JsonQueryException {
+        AtomicBoolean selected = new AtomicBoolean();
+        selectQuery.apply(scope, document, output -> {
+            if (!output.isNull() && !(output.isBoolean() && !output.booleanValue())) {
+                selected.set(true);
+            }
+        });
+        return selected.get();
+    }
+
+    public long rowCount() {
+        return rowCount.sum();
+    }
+
+    public long selectedCount() {
+        return selectedCount.sum();
+    }
+
+    /**
+     * @return average transform cost per row in nanoseconds
+     */
+    public long averageNanosPerRow() {
+        long rows = rowCount.sum();
+        return rows == 0 ? 0 : elapsedNanos.sum() / rows;
+    }
+
+    @Override
+    public String toString() {
+        return "KostraRowTransformer{" +
+                "select=" + selectQuery +
+                ", map=" + mapQuery +
+                ", rows=" + rowCount() +
+                ", selected=" + selectedCount() +
+                ", avgNanosPerRow=" + averageNanosPerRow() +
+                '}';
+    }
+}
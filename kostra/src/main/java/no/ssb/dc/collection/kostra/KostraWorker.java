@@ -1,7 +1,5 @@
 package no.ssb.dc.collection.kostra;
 
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -10,6 +8,13 @@ import no.ssb.dapla.migration.rawdata.onprem.target.BufferedRawdataProducer;
 import no.ssb.dapla.migration.rawdata.onprem.utils.FixedThreadPool;
 import no.ssb.dapla.migration.rawdata.onprem.worker.JsonParser;
 import no.ssb.dapla.migration.rawdata.onprem.worker.MetadataContent;
+import no.ssb.dc.collection.pipeline.AdaptiveConcurrencyLimiter;
+import no.ssb.dc.collection.pipeline.CircuitBreaker;
+import no.ssb.dc.collection.pipeline.InFlightByteBudget;
+import no.ssb.dc.collection.pipeline.Quarantine;
+import no.ssb.dc.collection.pipeline.RetryPolicy;
+import no.ssb.dc.collection.pipeline.ShutdownDrain;
+import no.ssb.dc.collection.pipeline.StageMetrics;
 import no.ssb.rawdata.api.RawdataClient;
 import no.ssb.rawdata.api.RawdataClientInitializer;
 import no.ssb.rawdata.api.RawdataMessage;
@@ -19,39 +24,76 @@ import no.ssb.service.provider.api.ProviderConfigurator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 public class KostraWorker implements AutoCloseable {
 
     private static final Logger LOG = LoggerFactory.getLogger(KostraWorker.class);
     private static final AtomicLong publishedMessageCount = new AtomicLong();
+    private static final long PROGRESS_INTERVAL = 100_000;
+    // quarantined parse failure: the row at the position and all rows after it in the file
+    static final String REMAINING_ROWS_SUFFIX = "+";
     private final JsonParser jsonParser;
     private final SourceKostraConfiguration sourceConfiguration;
     private final FixedThreadPool threadPool;
-    private final BufferedReordering<String> bufferedReordering = new BufferedReordering<>();
-    private final Queue<CompletableFuture<RawdataMessageBuffer>> futures;
     private final RawdataClient client;
     private final RawdataProducer producer;
     private final int queueCapacity;
+    private final KostraFileParser fileParser;
     private final JsonNode specification;
+    private final ManifestFields manifestFields;
+    private final KostraRowTransformer rowTransformer;
+    private final boolean binaryOutput;
     private final EncryptionClient encryptionClient;
     private final byte[] secretKey;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final ExecutorService adaptiveExecutor;
+    private final InFlightByteBudget byteBudget;
+    private final RetryPolicy retryPolicy;
+    private final Quarantine quarantine;
+    private final ShutdownDrain shutdownDrain = new ShutdownDrain();
+    private final AtomicLong publishedAtStop = new AtomicLong();
+    private final List<FileIngest> fileIngests = new CopyOnWriteArrayList<>();
+    private final ObjectPool<RowEnvelope> envelopePool;
+    private final long[] garbageCollectionAtStart = garbageCollection();
+    private final StageMetrics stageMetrics = new StageMetrics("kostra")
+            .stage("parse", StageMetrics.Kind.SOURCE)
+            .stage("backpressure", StageMetrics.Kind.BACKPRESSURE)
+            .stage("transform", StageMetrics.Kind.CPU)
+            .stage("encrypt", StageMetrics.Kind.CPU)
+            .stage("buffer", StageMetrics.Kind.SINK)
+            .stage("reorder", StageMetrics.Kind.WAIT)
+            .stage("publish", StageMetrics.Kind.SINK);
+    private final long startedNanos = System.nanoTime();
 
     public KostraWorker(SourceKostraConfiguration sourceConfiguration, TargetConfiguration targetConfiguration) {
         this.jsonParser = JsonParser.createJsonParser();
@@ -59,7 +101,23 @@ public class KostraWorker implements AutoCloseable {
         threadPool = FixedThreadPool.newInstance();
         client = ProviderConfigurator.configure(targetConfiguration.asMap(), targetConfiguration.rawdataClientProvider(), RawdataClientInitializer.class);
         producer = client.producer(targetConfiguration.topic());
-        specification = loadSpecification(sourceConfiguration);
+        quarantine = sourceConfiguration.hasQuarantinePath() ?
+                new Quarantine(Path.of(sourceConfiguration.quarantinePath()).resolve("kostra-" + targetConfiguration.topic() + ".quarantine")) : null;
+        fileParser = new KostraFileParser(sourceConfiguration);
+        specification = fileParser.specification();
+        manifestFields = new ManifestFields(producer.topic(), specification);
+        rowTransformer = KostraRowTransformer.compile(specification);
+        if (rowTransformer != null) {
+            LOG.info("Row transform: {}", rowTransformer);
+        }
+        binaryOutput = switch (sourceConfiguration.outputFormat().toLowerCase()) {
+            case "json" -> false;
+            case "binary" -> true;
+            default -> throw new IllegalArgumentException("Unknown output format: " + sourceConfiguration.outputFormat() + " (json or binary)");
+        };
+        if (binaryOutput) {
+            LOG.info("Output format: {}", KostraRowCodec.CONTENT_TYPE);
+        }
         final char[] encryptionKey = targetConfiguration.hasRawdataEncryptionKey() ?
                 targetConfiguration.rawdataEncryptionKey().toCharArray() : null;
         final byte[] encryptionSalt = targetConfiguration.hasRawdataEncryptionSalt() ?
@@ -73,16 +131,24 @@ public class KostraWorker implements AutoCloseable {
             this.secretKey = null;
         }
         queueCapacity = this.sourceConfiguration.hasQueueCapacity() ? this.sourceConfiguration.queueCapacity() : 1000;
-        futures = new LinkedBlockingDeque<>(queueCapacity);
-    }
-
-    private JsonNode loadSpecification(SourceKostraConfiguration sourceConfiguration) {
-        Path specPath = Paths.get(sourceConfiguration.sourcePath()).resolve(Paths.get(sourceConfiguration.specificationFile()));
-        try {
-            byte[] yamlBytes = Files.readAllBytes(specPath);
-            return JsonParser.createYamlParser().mapper().readValue(yamlBytes, JsonNode.class);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        // in-flight rows are bounded by the futures queue, so the pool rarely needs to create more envelopes
+        envelopePool = new ObjectPool<>(queueCapacity, RowEnvelope::new);
+        byteBudget = this.sourceConfiguration.hasQueueCapacityBytes() ?
+                new InFlightByteBudget(InFlightByteBudget.parseBytes(this.sourceConfiguration.queueCapacityBytes())) : null;
+        CircuitBreaker circuitBreaker = new CircuitBreaker(this.sourceConfiguration.hasCircuitFailureThreshold() ?
+                this.sourceConfiguration.circuitFailureThreshold() : this.sourceConfiguration.retryMaxAttempts(),
+                TimeUnit.SECONDS.toMillis(this.sourceConfiguration.circuitOpenSeconds()));
+        retryPolicy = new RetryPolicy(this.sourceConfiguration.retryMaxAttempts(), this.sourceConfiguration.retryBackoffMillis(), circuitBreaker);
+        if (this.sourceConfiguration.hasConcurrencyAdaptive() && this.sourceConfiguration.concurrencyAdaptive()) {
+            int availableProcessors = Runtime.getRuntime().availableProcessors();
+            int minConcurrency = this.sourceConfiguration.hasConcurrencyMin() ? this.sourceConfiguration.concurrencyMin() : 1;
+            int maxConcurrency = this.sourceConfiguration.hasConcurrencyMax() ? this.sourceConfiguration.concurrencyMax() : availableProcessors * 4;
+            concurrencyLimiter = new AdaptiveConcurrencyLimiter(availableProcessors, minConcurrency, maxConcurrency, queueCapacity / 2);
+            adaptiveExecutor = Executors.newFixedThreadPool(maxConcurrency);
+            LOG.info("Adaptive concurrency enabled: min={} max={}", minConcurrency, maxConcurrency);
+        } else {
+            concurrencyLimiter = null;
+            adaptiveExecutor = null;
         }
     }
 
@@ -91,142 +157,399 @@ public class KostraWorker implements AutoCloseable {
         return true;
     }
 
-    CompletableFuture<RawdataMessageBuffer> offerMessage(RawdataMessageBuffer message) {
-        bufferedReordering.addExpected(message.toPosition());
-        return CompletableFuture.supplyAsync(() -> {
-                    message.produce();
-                    return message;
-                }, threadPool.getExecutor()
-        ).thenApply(msg -> {
-            bufferedReordering.addCompleted(msg.toPosition(), orderedPositions -> {
-                String[] positions = orderedPositions.toArray(new String[0]);
-                producer.publish(positions);
-                publishedMessageCount.getAndAdd(positions.length);
-            });
-            return msg;
-        }).exceptionally(throwable -> {
-            if (throwable instanceof RuntimeException) {
-                throw (RuntimeException) throwable;
-            }
-            throw new RuntimeException(throwable);
-        });
+    public StageMetrics stageMetrics() {
+        return stageMetrics;
     }
 
-    void commitMessages() {
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                .thenApply(v -> {
-                    futures.clear();
-                    return v;
-                })
-                .join();
+    Executor executor() {
+        return adaptiveExecutor != null ? adaptiveExecutor : threadPool.getExecutor();
     }
 
-    void parse(String charset, Consumer<ArrayNode> structureCallback, Consumer<ArrayNode> dataElementCallback) {
+    void acquireConcurrency() {
+        if (concurrencyLimiter == null) {
+            return;
+        }
         try {
-            Path source = Paths.get(sourceConfiguration.sourcePath()).resolve(sourceConfiguration.sourceFile());
-            JsonFactory jsonfactory = new JsonFactory();
-            LOG.info("Parse file {} with {} encoding", source.normalize().toAbsolutePath().toString(), Charset.forName(charset));
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source.toFile()), charset))) {
-                try (com.fasterxml.jackson.core.JsonParser parser = jsonfactory.createParser(reader)) {
-                    // fail if json is not an object
-                    if (parser.nextToken() != JsonToken.START_OBJECT) {
-                        throw new IllegalStateException("Array node NOT found!");
-                    }
+            concurrencyLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return false if the worker stopped or failed while waiting
+     */
+    boolean acquireBytes(RowEnvelope envelope, long payloadBytes) {
+        if (byteBudget == null) {
+            return true;
+        }
+        try {
+            byteBudget.acquire(payloadBytes, shutdownDrain::isStopping);
+            envelope.payloadBytes = payloadBytes;
+            return true;
+        } catch (CancellationException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    void releaseBytes(long payloadBytes) {
+        if (byteBudget == null) {
+            return;
+        }
+        byteBudget.release(payloadBytes);
+    }
+
+    static void logTimeToFirstMessage() {
+        ProcessHandle.current().info().startInstant().ifPresent(processStarted ->
+                LOG.info("Time to first message: {}ms since process start", Duration.between(processStarted, Instant.now()).toMillis()));
+    }
 
-                    // read array tokens
-                    JsonToken jsonToken;
-                    while ((jsonToken = parser.nextToken()) != JsonToken.START_ARRAY && jsonToken != null) {
-                        if ("structure".equals(parser.currentName()) && (jsonToken = parser.nextToken()) == JsonToken.START_ARRAY) {
-                            ArrayNode jsonNode = jsonParser.mapper().readValue(parser, ArrayNode.class);
-                            structureCallback.accept(jsonNode);
-
-                        } else if ("data".equals(parser.currentName()) && jsonToken == JsonToken.FIELD_NAME) {
-                            if ((jsonToken = parser.nextToken()) == JsonToken.START_ARRAY) {
-                                while ((jsonToken = parser.nextToken()) == JsonToken.START_ARRAY) {
-                                    ArrayNode jsonNode = jsonParser.mapper().readValue(parser, ArrayNode.class);
-                                    dataElementCallback.accept(jsonNode);
-                                }
-                            }
-                        }
+    /**
+     * Produce, reorder and release run in a single stage on the worker thread. Intake waits while the circuit is
+     * open. A produce is retried on the worker thread, and a later row is only published after it. The envelope
+     * carries the row through reordering and returns to the pool when the row is published. A failure that is not
+     * quarantined fails the worker, because the rows behind it cannot be published in order.
+     */
+    CompletableFuture<Void> offerMessage(FileIngest fileIngest, RowEnvelope envelope, long payloadBytes) {
+        String position = envelope.position;
+        long waitNanos = System.nanoTime();
+        retryPolicy.circuitBreaker().awaitClosed(shutdownDrain::isStopping);
+        if (!acquireBytes(envelope, payloadBytes)) {
+            // stopped while waiting, the row is not produced
+            envelope.recycle();
+            envelope.release();
+            return CompletableFuture.completedFuture(null);
+        }
+        acquireConcurrency();
+        long offeredNanos = stageMetrics.record("backpressure", waitNanos, payloadBytes, position);
+        BufferedReordering<RowEnvelope> bufferedReordering = fileIngest.bufferedReordering;
+        bufferedReordering.addExpected(envelope);
+        return CompletableFuture.runAsync(() -> {
+            boolean reordered = false;
+            try {
+                boolean produced;
+                try {
+                    produced = retryPolicy.execute("Produce", position, envelope::produce);
+                } catch (RuntimeException e) {
+                    if (quarantine == null) {
+                        throw e;
                     }
+                    // skipped on publish, so the rows behind it are not held back
+                    quarantine.add(position, fileIngest.sourceFile, e);
+                    produced = false;
+                }
+                envelope.skipped = !produced;
+                envelope.recycle();
+                envelope.completedNanos = System.nanoTime();
+                reordered = true;
+                bufferedReordering.addCompleted(envelope, orderedEnvelopes -> publish(fileIngest, orderedEnvelopes));
+            } catch (RuntimeException e) {
+                shutdownDrain.fail(e);
+                throw e;
+            } finally {
+                if (!reordered) {
+                    // the envelope stays expected by the reordering until it is dropped on close
+                    releaseBytes(envelope.payloadBytes);
+                    envelope.payloadBytes = 0;
+                }
+                if (concurrencyLimiter != null) {
+                    concurrencyLimiter.release(System.nanoTime() - offeredNanos, bufferedReordering.backlog());
                 }
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        }, executor());
+    }
+
+    void publish(FileIngest fileIngest, List<RowEnvelope> orderedEnvelopes) {
+        String[] orderedPositions = new String[orderedEnvelopes.size()];
+        int count = 0;
+        long payloadBytes = 0;
+        for (RowEnvelope envelope : orderedEnvelopes) {
+            stageMetrics.record("reorder", envelope.completedNanos, 0, envelope.position);
+            if (!envelope.skipped) {
+                orderedPositions[count++] = envelope.position;
+            }
+            payloadBytes += envelope.payloadBytes;
+        }
+        String lastPosition = orderedEnvelopes.get(orderedEnvelopes.size() - 1).position;
+        String[] positions = count == orderedPositions.length ? orderedPositions : Arrays.copyOf(orderedPositions, count);
+        if (positions.length > 0) {
+            long publishNanos = System.nanoTime();
+            retryPolicy.execute("Publish", positions[0], () -> producer.publish(positions));
+            stageMetrics.record("publish", publishNanos, 0, positions[0]);
+            fileIngest.publishedCount.addAndGet(positions.length);
+            if (publishedMessageCount.getAndAdd(positions.length) == 0) {
+                logTimeToFirstMessage();
+            }
+        }
+        fileIngest.lastPublishedPosition = lastPosition;
+        releaseBytes(payloadBytes);
+        for (RowEnvelope envelope : orderedEnvelopes) {
+            envelope.release();
+        }
+    }
+
+    /**
+     * Return the bytes and envelopes of rows that were not published, e.g. the batch of a failed publish.
+     */
+    void releaseDropped(FileIngest fileIngest) {
+        for (RowEnvelope envelope : fileIngest.bufferedReordering.clear()) {
+            releaseBytes(envelope.payloadBytes);
+            envelope.recycle();
+            envelope.release();
         }
     }
 
+    /**
+     * Stop reading the source. In-flight messages are drained on close until the shutdown timeout.
+     */
+    public void stop() {
+        if (shutdownDrain.stop(sourceConfiguration.shutdownTimeoutSeconds(), TimeUnit.SECONDS)) {
+            publishedAtStop.set(publishedMessageCount.get());
+            LOG.info("Stop requested. Drain in-flight messages within {}s", sourceConfiguration.shutdownTimeoutSeconds());
+        }
+    }
+
+    public boolean isStopping() {
+        return shutdownDrain.isStopping();
+    }
+
+    /**
+     * @return false if the shutdown timeout was exceeded before all messages completed
+     */
+    boolean commitMessages() {
+        boolean drained = true;
+        for (FileIngest fileIngest : fileIngests) {
+            drained &= fileIngest.commitMessages();
+        }
+        return drained;
+    }
+
+    void parse(String charset, Consumer<JsonNode> structureCallback, Consumer<JsonNode> dataElementCallback) {
+        fileParser.parse(charset, shutdownDrain::isStopping, structureCallback, dataElementCallback);
+    }
+
     public void produce() {
-        JsonNode metadata = specification.withArray("metadata");
+        produce(null);
+    }
+
+    /**
+     * Produce the quarantined rows again. Only the source files with quarantined rows are parsed, and rows that fail
+     * again are quarantined.
+     */
+    public void redrive() {
+        if (quarantine == null) {
+            throw new IllegalStateException("Quarantine is not configured: source.quarantine.path");
+        }
+        List<Quarantine.Entry> entries = quarantine.redriveEntries();
+        Map<String, RowSelection> rowSelections = new LinkedHashMap<>();
+        for (Quarantine.Entry entry : entries) {
+            rowSelections.computeIfAbsent(entry.source, sourceFile -> new RowSelection()).add(entry.position);
+        }
+        LOG.info("Redrive {} quarantined entries in {} source files from: {}", entries.size(), rowSelections.size(), quarantine.file());
+        produce(rowSelections);
+        if (!shutdownDrain.isStopping()) {
+            quarantine.completeRedrive();
+        }
+    }
+
+    /**
+     * Parse the source files on at most parser.threads threads. Message futures, in-flight bytes and worker
+     * concurrency are shared budgets across files.
+     *
+     * @param rowSelections rows to produce by source file, or null to produce all rows of all files
+     */
+    void produce(Map<String, RowSelection> rowSelections) {
         JsonNode fileDescriptor = specification.withArray("fileDescriptor");
         String sourceCharset = getString(fileDescriptor, "charset");
 
-        AtomicLong positionRef = new AtomicLong(0);
-        AtomicReference<ArrayNode> structureArrayNodeRef = new AtomicReference<>();
-
-        parse(sourceCharset, structureArrayNodeRef::set, dataElementArrayNode -> {
-            String position = String.valueOf(positionRef.incrementAndGet());
-
-            // produce rawdata message
-            ObjectNode targetElementDocument = jsonParser.createObjectNode();
-            targetElementDocument.set("structure", structureArrayNodeRef.get());
-            ArrayNode targetDataArrayNode = jsonParser.createArrayNode();
-            targetDataArrayNode.add(dataElementArrayNode);
-            targetElementDocument.set("data", targetDataArrayNode);
-            byte[] bytes = jsonParser.toJSON(targetElementDocument).getBytes();
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("{}:\n{}", positionRef.get(), jsonParser.toPrettyJSON(targetElementDocument));
+        List<Path> sources = fileParser.sources();
+        if (rowSelections != null) {
+            sources = sources.stream().filter(source -> rowSelections.containsKey(fileParser.sourceFile(source))).collect(Collectors.toList());
+        }
+        int parserThreads = Math.max(1, Math.min(sources.size(), sourceConfiguration.parserThreads()));
+        int fileQueueCapacity = Math.max(1, queueCapacity / parserThreads);
+        LOG.info("Source files: {}, parser threads: {}", sources.size(), parserThreads);
+        for (Path source : sources) {
+            FileIngest fileIngest = new FileIngest(source, fileQueueCapacity);
+            fileIngest.rowSelection = rowSelections == null ? null : rowSelections.get(fileIngest.sourceFile);
+            fileIngests.add(fileIngest);
+        }
+
+        if (parserThreads == 1) {
+            for (FileIngest fileIngest : fileIngests) {
+                if (shutdownDrain.isStopping()) {
+                    break;
+                }
+                produce(fileIngest, sourceCharset);
             }
+            return;
+        }
 
-            // produce manifest json
-            MetadataContent.Builder metadataContentBuilder = new MetadataContent.Builder()
-                    .topic(producer.topic())
-                    .position(position)
-                    .resourceType("entry")
-                    .contentKey("entry")
-                    .source(getString(metadata, "source"))
-                    .dataset(getString(metadata, "dataset"))
-                    .tag(getString(metadata, "tag"))
-                    .description(getString(metadata, "description"))
-                    .charset(StandardCharsets.UTF_8.displayName())
-                    .contentType(getString(fileDescriptor, "contentType"))
-                    .contentLength(bytes.length)
-                    .markCreatedDate();
-
-            // store json mapping
-            metadataContentBuilder
-                    .sourcePath(sourceConfiguration.sourcePath())
-                    .sourceFile(sourceConfiguration.sourceFile())
-                    .sourceCharset(sourceCharset)
-                    .recordType(BufferedRawdataProducer.RecordType.SINGLE.name().toLowerCase());
-
-            for (int j = 0; j < structureArrayNodeRef.get().size(); j++) {
-                JsonNode structureElementNode = structureArrayNodeRef.get().get(j);
-                String name = structureElementNode.get("name").asText();
-                String type = structureElementNode.get("type").asText();
-                metadataContentBuilder.jsonMapping(name, asDataTypeFormat(type));
+        ExecutorService parserExecutor = Executors.newFixedThreadPool(parserThreads);
+        try {
+            List<Future<?>> parserFutures = new ArrayList<>();
+            for (FileIngest fileIngest : fileIngests) {
+                parserFutures.add(parserExecutor.submit(() -> {
+                    if (!shutdownDrain.isStopping()) {
+                        produce(fileIngest, sourceCharset);
+                    }
+                }));
+            }
+            for (Future<?> parserFuture : parserFutures) {
+                parserFuture.get();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            parserExecutor.shutdownNow();
+        }
+    }
+
+    void produce(FileIngest fileIngest, String sourceCharset) {
+        fileIngest.started();
+        try {
+            parseRows(fileIngest, sourceCharset);
+        } catch (RuntimeException e) {
+            // a failure in the row callback is a sink failure and is not quarantined
+            if (quarantine == null || fileIngest.inRowCallback) {
+                throw e;
+            }
+            quarantine.add(KostraFileParser.position(fileIngest.positionPrefix, fileIngest.rowCount.get() + 1) + REMAINING_ROWS_SUFFIX,
+                    fileIngest.sourceFile, e);
+        }
+        fileIngest.commitMessages();
+        fileIngest.completed();
+    }
+
+    void parseRows(FileIngest fileIngest, String sourceCharset) {
+        fileParser.parse(fileIngest.source, sourceCharset, shutdownDrain::isStopping, fileIngest.structureArrayNodeRef::set, dataElementArrayNode -> {
+            stageMetrics.record("parse", fileIngest.lastParsedNanos);
+            long row = fileIngest.rowCount.incrementAndGet();
+            if (fileIngest.rowSelection != null && !fileIngest.rowSelection.test(row)) {
+                fileIngest.lastParsedNanos = System.nanoTime();
+                return;
+            }
+            fileIngest.inRowCallback = true;
+            String position = KostraFileParser.position(fileIngest.positionPrefix, row);
+            JsonNode structureArrayNode = fileIngest.structureArrayNodeRef.get();
 
-            MetadataContent metadataContent = metadataContentBuilder.build();
+            // transform and serialization are done on the worker pool
+            RowEnvelope envelope = envelopePool.acquire();
+            envelope.reset(fileIngest, sourceCharset, position, structureArrayNode, dataElementArrayNode);
 
             // async buffer message
-            CompletableFuture<RawdataMessageBuffer> future = offerMessage(new RawdataMessageBuffer(jsonParser, producer, position, bytes, metadataContent, encryptionClient, secretKey));
-            if (!futures.offer(future)) {
-                commitMessages();
+            // plaintext and ciphertext are both held until the message is published
+            long estimatedBytes = estimateBytes(structureArrayNode) + estimateBytes(dataElementArrayNode);
+            long payloadBytes = secretKey != null ? estimatedBytes * 2L : estimatedBytes;
+            CompletableFuture<Void> future = offerMessage(fileIngest, envelope, payloadBytes);
+            if (!fileIngest.futures.offer(future)) {
+                long waitNanos = System.nanoTime();
+                fileIngest.commitMessages();
+                stageMetrics.record("backpressure", waitNanos);
 
                 // re-offer message
-                if (!futures.offer(future)) {
-                    throw new IllegalStateException("Unable to offer future! Out of capacity: " + queueCapacity);
+                if (!fileIngest.futures.offer(future)) {
+                    throw new IllegalStateException("Unable to offer future! Out of capacity: " + fileIngest.queueCapacity);
                 }
             }
+            if (fileIngest.rowCount.get() % PROGRESS_INTERVAL == 0) {
+                fileIngest.logProgress();
+            }
+            fileIngest.inRowCallback = false;
+            fileIngest.lastParsedNanos = System.nanoTime();
         });
     }
 
-    String getString(JsonNode jsonNode, String fieldName) {
+    /**
+     * Approximate serialized size of a json node without serializing it.
+     */
+    static long estimateBytes(JsonNode node) {
+        if (node == null) {
+            return 0;
+        }
+        if (node.isContainerNode()) {
+            long bytes = 2;
+            var fields = node.fields();
+            while (fields.hasNext()) {
+                var field = fields.next();
+                bytes += field.getKey().length() + 4 + estimateBytes(field.getValue());
+            }
+            if (node.isArray()) {
+                for (JsonNode element : node) {
+                    bytes += 1 + estimateBytes(element);
+                }
+            }
+            return bytes;
+        }
+        return node.isTextual() ? node.textValue().length() + 2 : node.asText().length();
+    }
+
+    /**
+     * Apply the row transformer and create the message content. Called on the worker pool.
+     *
+     * @return entry or null if the row is not selected by the transformer
+     */
+    RawdataEntry toEntry(String position, FileIngest fileIngest, String sourceCharset, ObjectNode sourceDocument) {
+        JsonNode targetElementDocument = rowTransformer == null ? sourceDocument : rowTransformer.apply(sourceDocument);
+        if (targetElementDocument == null) {
+            return null;
+        }
+        JsonNode structureArrayNode = targetElementDocument.has("structure") ? targetElementDocument.get("structure") : sourceDocument.get("structure");
+        JsonMapping jsonMapping = fileIngest.jsonMapping;
+        if (jsonMapping == null || !jsonMapping.isMappingOf(structureArrayNode)) {
+            jsonMapping = new JsonMapping(structureArrayNode);
+            fileIngest.jsonMapping = jsonMapping;
+        }
+
+        // a transformed document that is not a single row keeps the json format
+        JsonNode dataArrayNode = targetElementDocument.get("data");
+        boolean binary = binaryOutput && dataArrayNode != null && dataArrayNode.size() == 1 && dataArrayNode.get(0).isArray();
+        byte[] bytes = binary ? jsonMapping.rowCodec().encode(dataArrayNode.get(0)) : jsonParser.toJSON(targetElementDocument).getBytes();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("{}:\n{}", position, jsonParser.toPrettyJSON(targetElementDocument));
+        }
+
+        // produce manifest json
+        MetadataContent.Builder metadataContentBuilder = new MetadataContent.Builder()
+                .topic(manifestFields.topic)
+                .position(position)
+                .resourceType("entry")
+                .contentKey("entry")
+                .source(manifestFields.source)
+                .dataset(manifestFields.dataset)
+                .tag(manifestFields.tag)
+                .description(manifestFields.description)
+                .charset(StandardCharsets.UTF_8.displayName())
+                .contentType(binary ? KostraRowCodec.CONTENT_TYPE : manifestFields.contentType)
+                .contentLength(bytes.length)
+                .markCreatedDate();
+
+        // store json mapping
+        metadataContentBuilder
+                .sourcePath(sourceConfiguration.sourcePath())
+                .sourceFile(fileIngest.sourceFile)
+                .sourceCharset(sourceCharset)
+                .recordType(BufferedRawdataProducer.RecordType.SINGLE.name().toLowerCase());
+
+        for (int j = 0; j < jsonMapping.names.length; j++) {
+            metadataContentBuilder.jsonMapping(jsonMapping.names[j], jsonMapping.types[j]);
+        }
+
+        return new RawdataEntry(bytes, metadataContentBuilder.build());
+    }
+
+    static String getString(JsonNode jsonNode, String fieldName) {
         return jsonNode.findValue(fieldName) != null ? jsonNode.findValue(fieldName).asText() : null;
     }
 
-    private String asDataTypeFormat(String type) {
+    static String asDataTypeFormat(String type) {
         return String.format("%s%s", type.substring(0, 1).toUpperCase(), type.substring(1).toLowerCase());
     }
 
@@ -235,33 +558,301 @@ public class KostraWorker implements AutoCloseable {
     public void close() {
         try {
             commitMessages();
+            if (shutdownDrain.isStopping()) {
+                threadPool.getExecutor().shutdownNow();
+                if (adaptiveExecutor != null) {
+                    adaptiveExecutor.shutdownNow();
+                }
+            }
             threadPool.shutdownAndAwaitTermination();
+            if (adaptiveExecutor != null) {
+                adaptiveExecutor.shutdown();
+                adaptiveExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            }
             client.close();
+            if (shutdownDrain.isStopping()) {
+                long dropped = 0;
+                for (FileIngest fileIngest : fileIngests) {
+                    dropped += fileIngest.bufferedReordering.pending();
+                    releaseDropped(fileIngest);
+                    if (fileIngest.lastPublishedPosition != null) {
+                        LOG.info("Shutdown - {}: last published position: {}", fileIngest.sourceFile, fileIngest.lastPublishedPosition);
+                    }
+                }
+                LOG.info("Shutdown - Drained: {}, dropped: {}", publishedMessageCount.get() - publishedAtStop.get(), dropped);
+            }
             LOG.info("Source - Published message Total-Count: {}", publishedMessageCount.get());
+            if (rowTransformer != null) {
+                LOG.info("Source - Row transform: {}", rowTransformer);
+            }
+            if (byteBudget != null) {
+                LOG.info("Source - {}", byteBudget);
+            }
+            long[] garbageCollection = garbageCollection();
+            LOG.info("Source - Envelope pool: {}, GC count: {}, GC time: {}ms", envelopePool,
+                    garbageCollection[0] - garbageCollectionAtStart[0], garbageCollection[1] - garbageCollectionAtStart[1]);
+            LOG.info("Source - {}", retryPolicy);
+            if (quarantine != null) {
+                quarantine.close();
+                LOG.info("Source - {}", quarantine.summary());
+            }
+            LOG.info("Source - Stages:\n{}", stageMetrics.summary(System.nanoTime() - startedNanos));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * @return accumulated collection count and collection time in milliseconds for all collectors
+     */
+    static long[] garbageCollection() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(collector.getCollectionCount(), 0);
+            millis += Math.max(collector.getCollectionTime(), 0);
+        }
+        return new long[]{count, millis};
+    }
+
+    /**
+     * Parse state of one source file. Each file has its own reordering buffer, so rows are published in file order
+     * while several files are parsed concurrently.
+     */
+    class FileIngest {
+        final Path source;
+        final String sourceFile;
+        final String positionPrefix;
+        final int queueCapacity;
+        final BufferedReordering<RowEnvelope> bufferedReordering = new BufferedReordering<>();
+        final Queue<CompletableFuture<Void>> futures;
+        final AtomicReference<JsonNode> structureArrayNodeRef = new AtomicReference<>();
+        final AtomicLong rowCount = new AtomicLong();
+        final AtomicLong publishedCount = new AtomicLong();
+        volatile String lastPublishedPosition;
+        volatile long startedNanos;
+        long lastParsedNanos; // parser thread
+        boolean inRowCallback; // parser thread
+        RowSelection rowSelection;
+        volatile JsonMapping jsonMapping;
+
+        FileIngest(Path source, int queueCapacity) {
+            this.source = source;
+            this.sourceFile = fileParser.sourceFile(source);
+            this.positionPrefix = fileParser.positionPrefix(source);
+            this.queueCapacity = queueCapacity;
+            this.futures = new LinkedBlockingDeque<>(queueCapacity);
+        }
+
+        /**
+         * @return false if the shutdown timeout was exceeded before all messages completed
+         */
+        boolean commitMessages() {
+            boolean drained = shutdownDrain.await(futures);
+            if (!drained) {
+                LOG.warn("Shutdown timeout exceeded. Unpublished messages from {} are dropped!", sourceFile);
+            }
+            return drained;
+        }
+
+        void started() {
+            startedNanos = System.nanoTime();
+            lastParsedNanos = startedNanos;
+            LOG.info("Source file {} - started", sourceFile);
+        }
+
+        void logProgress() {
+            double seconds = Math.max(System.nanoTime() - startedNanos, 1) / 1_000_000_000.0;
+            LOG.info("Source file {} - rows: {}, published: {}, {} rows/s", sourceFile, rowCount.get(), publishedCount.get(),
+                    String.format("%.0f", rowCount.get() / seconds));
+        }
+
+        void completed() {
+            double seconds = Math.max(System.nanoTime() - startedNanos, 1) / 1_000_000_000.0;
+            LOG.info("Source file {} - {} rows: {}, published: {} in {}s", sourceFile, shutdownDrain.isStopping() ? "stopped at" : "completed",
+                    rowCount.get(), publishedCount.get(), String.format("%.1f", seconds));
+        }
+    }
+
+    /**
+     * Quarantined rows of one source file, by row number.
+     */
+    static class RowSelection {
+        final Set<Long> rows = new HashSet<>();
+        long fromRow = Long.MAX_VALUE;
+
+        void add(String position) {
+            boolean remainingRows = position.endsWith(REMAINING_ROWS_SUFFIX);
+            String rowPosition = remainingRows ? position.substring(0, position.length() - REMAINING_ROWS_SUFFIX.length()) : position;
+            long row = Long.parseLong(rowPosition.substring(rowPosition.lastIndexOf(KostraFileParser.POSITION_SEPARATOR) + 1));
+            if (remainingRows) {
+                fromRow = Math.min(fromRow, row);
+            } else {
+                rows.add(row);
+            }
+        }
+
+        boolean test(long row) {
+            return row >= fromRow || rows.contains(row);
+        }
+    }
+
+    /**
+     * Column names and data types of a structure node, computed once per structure and not per row.
+     */
+    static class JsonMapping {
+        final JsonNode structureArrayNode;
+        final String[] names;
+        final String[] types;
+        private volatile KostraRowCodec rowCodec;
+
+        JsonMapping(JsonNode structureArrayNode) {
+            this.structureArrayNode = structureArrayNode;
+            this.names = new String[structureArrayNode.size()];
+            this.types = new String[structureArrayNode.size()];
+            for (int j = 0; j < structureArrayNode.size(); j++) {
+                JsonNode structureElementNode = structureArrayNode.get(j);
+                names[j] = structureElementNode.get("name").asText();
+                types[j] = asDataTypeFormat(structureElementNode.get("type").asText());
+            }
+        }
+
+        /**
+         * A transformer may create an equal structure node per row, so the mapping is reused by content.
+         */
+        boolean isMappingOf(JsonNode structureArrayNode) {
+            return this.structureArrayNode == structureArrayNode || this.structureArrayNode.equals(structureArrayNode);
+        }
+
+        KostraRowCodec rowCodec() {
+            KostraRowCodec codec = rowCodec;
+            if (codec == null) {
+                // created once per structure, a concurrent duplicate is equivalent
+                codec = new KostraRowCodec(structureArrayNode);
+                rowCodec = codec;
+            }
+            return codec;
+        }
+    }
+
+    /**
+     * Manifest values that are the same for all rows, looked up once in the specification.
+     */
+    static class ManifestFields {
+        final String topic;
+        final String source;
+        final String dataset;
+        final String tag;
+        final String description;
+        final String contentType;
+
+        ManifestFields(String topic, JsonNode specification) {
+            JsonNode metadata = specification.path("metadata");
+            JsonNode fileDescriptor = specification.path("fileDescriptor");
+            this.topic = topic;
+            this.source = getString(metadata, "source");
+            this.dataset = getString(metadata, "dataset");
+            this.tag = getString(metadata, "tag");
+            this.description = getString(metadata, "description");
+            this.contentType = getString(fileDescriptor, "contentType");
+        }
+    }
+
+    /**
+     * A recyclable row message. The source document wrapper is reused between rows. The row is cleared when its
+     * message has been buffered by the producer, and the envelope is the reordering element that carries the byte,
+     * timing and skip state of the row until it is published. Then it returns to the pool.
+     */
+    class RowEnvelope extends RawdataMessageBuffer {
+        final ObjectNode sourceDocument;
+        final ArrayNode dataArrayNode;
+        FileIngest fileIngest;
+        String sourceCharset;
+        String position;
+        long payloadBytes;
+        long completedNanos;
+        boolean skipped;
+
+        RowEnvelope() {
+            super(jsonParser, producer, null, (Supplier<RawdataEntry>) null, encryptionClient, secretKey);
+            metrics = stageMetrics;
+            sourceDocument = jsonParser.createObjectNode();
+            // field order is kept when structure is replaced
+            sourceDocument.putNull("structure");
+            dataArrayNode = sourceDocument.putArray("data");
+        }
+
+        void reset(FileIngest fileIngest, String sourceCharset, String position, JsonNode structureArrayNode, JsonNode dataElementArrayNode) {
+            this.fileIngest = fileIngest;
+            this.sourceCharset = sourceCharset;
+            this.position = position;
+            sourceDocument.set("structure", structureArrayNode);
+            dataArrayNode.add(dataElementArrayNode);
+        }
+
+        @Override
+        RawdataEntry entry() {
+            long transformNanos = System.nanoTime();
+            RawdataEntry entry = toEntry(position, fileIngest, sourceCharset, sourceDocument);
+            metrics.record("transform", transformNanos, entry == null ? 0 : entry.data.length, position);
+            return entry;
+        }
+
+        @Override
+        public String toPosition() {
+            return position;
+        }
+
+        @Override
+        void recycle() {
+            fileIngest = null;
+            dataArrayNode.removeAll();
+        }
+
+        /**
+         * Called when the row has been published.
+         */
+        void release() {
+            position = null;
+            payloadBytes = 0;
+            completedNanos = 0;
+            skipped = false;
+            envelopePool.release(this);
+        }
+    }
+
+    static class RawdataEntry {
+        final byte[] data;
+        final MetadataContent metadataContent;
+
+        RawdataEntry(byte[] data, MetadataContent metadataContent) {
+            Objects.requireNonNull(data);
+            this.data = data;
+            this.metadataContent = metadataContent;
+        }
+    }
+
     public static class RawdataMessageBuffer {
         private final JsonParser jsonParser;
         private final RawdataProducer producer;
         private final String position;
-        private final byte[] data;
+        private final Supplier<RawdataEntry> entrySupplier;
         private final EncryptionClient encryptionClient;
         private final byte[] secretKey;
-        private final MetadataContent metadataContent;
+        StageMetrics metrics = StageMetrics.NONE;
 
         public RawdataMessageBuffer(JsonParser jsonParser, RawdataProducer producer, String position, byte[] data, MetadataContent manifest) {
             this(jsonParser, producer, position, data, manifest, null, null);
         }
 
         public RawdataMessageBuffer(JsonParser jsonParser, RawdataProducer producer, String position, byte[] data, MetadataContent metadataContent, EncryptionClient encryptionClient, byte[] secretKey) {
+            this(jsonParser, producer, position, () -> new RawdataEntry(data, metadataContent), encryptionClient, secretKey);
+        }
+
+        RawdataMessageBuffer(JsonParser jsonParser, RawdataProducer producer, String position, Supplier<RawdataEntry> entrySupplier, EncryptionClient encryptionClient, byte[] secretKey) {
             this.jsonParser = jsonParser;
-            this.metadataContent = metadataContent;
-            Objects.requireNonNull(data);
             this.position = position;
-            this.data = data;
+            this.entrySupplier = entrySupplier;
             this.producer = producer;
             this.encryptionClient = encryptionClient;
             this.secretKey = secretKey;
@@ -275,13 +866,34 @@ public class KostraWorker implements AutoCloseable {
             return content;
         }
 
-        public void produce() {
+        /**
+         * @return false if the row was skipped by the row transformer
+         */
+        public boolean produce() {
+            RawdataEntry entry = entry();
+            if (entry == null) {
+                return false;
+            }
             RawdataMessage.Builder messageBuilder = producer.builder();
             messageBuilder.position(toPosition());
-            byte[] manifestData = jsonParser.toJSON(metadataContent.getElementNode()).getBytes();
+            byte[] manifestData = jsonParser.toJSON(entry.metadataContent.getElementNode()).getBytes();
+            long encryptNanos = System.nanoTime();
             messageBuilder.put("manifest.json", tryEncryptContent(manifestData));
-            messageBuilder.put("entry", tryEncryptContent(data));
+            messageBuilder.put("entry", tryEncryptContent(entry.data));
+            long bufferNanos = metrics.record("encrypt", encryptNanos, manifestData.length + entry.data.length, toPosition());
             producer.buffer(messageBuilder);
+            metrics.record("buffer", bufferNanos, entry.data.length, toPosition());
+            return true;
+        }
+
+        RawdataEntry entry() {
+            return entrySupplier.get();
+        }
+
+        /**
+         * Called when the message has been buffered by the producer.
+         */
+        void recycle() {
         }
 
         public String toPosition() {
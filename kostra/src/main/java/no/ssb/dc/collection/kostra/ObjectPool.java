@@ -0,0 +1,54 @@
+package no.ssb.dc.collection.kostra;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of recyclable objects. An object is created when the pool is empty, and dropped on release when the
+ * pool is full, so acquire never blocks.
+ */
+public class ObjectPool<T> {
+
+    private final Queue<T> pool;
+    private final Supplier<T> factory;
+    private final LongAdder created = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+
+    public ObjectPool(int capacity, Supplier<T> factory) {
+        this.pool = new ArrayBlockingQueue<>(capacity);
+        this.factory = factory;
+    }
+
+    public T acquire() {
+        T object = pool.poll();
+        if (object == null) {
+            created.increment();
+            return factory.get();
+        }
+        reused.increment();
+        return object;
+    }
+
+    public void release(T object) {
+        pool.offer(object);
+    }
+
+    public long created() {
+        return created.sum();
+    }
+
+    public long reused() {
+        return reused.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ObjectPool{" +
+                "created=" + created.sum() +
+                ", reused=" + reused.sum() +
+                ", idle=" + pool.size() +
+                '}';
+    }
+}
@@ -27,6 +27,7 @@ public interface SourceKostraConfiguration extends BaseConfiguration {
     String sourcePath();
 
     // /dapla/bin/conf/application-kostra.properties#source.file="$JSON_FILE" (env-var substitute)
+    // comma separated file names or glob patterns, e.g. "kostradata-2019.json,2020/*.json"
     @Property("file")
     String sourceFile();
 
@@ -34,17 +35,85 @@ public interface SourceKostraConfiguration extends BaseConfiguration {
     @Property("specification.file")
     String specificationFile();
 
+    // max source files parsed concurrently
+    @Property("parser.threads")
+    Integer parserThreads();
+
     @Property("queue.capacity")
     Boolean hasQueueCapacity();
 
     @Property("queue.capacity")
     Integer queueCapacity();
 
+    // max payload bytes read but not yet published (k, m or g suffix)
+    @Property("queue.capacity.bytes")
+    Boolean hasQueueCapacityBytes();
+
+    @Property("queue.capacity.bytes")
+    String queueCapacityBytes();
+
+    @Property("concurrency.adaptive")
+    Boolean hasConcurrencyAdaptive();
+
+    @Property("concurrency.adaptive")
+    Boolean concurrencyAdaptive();
+
+    @Property("concurrency.min")
+    Boolean hasConcurrencyMin();
+
+    @Property("concurrency.min")
+    Integer concurrencyMin();
+
+    @Property("concurrency.max")
+    Boolean hasConcurrencyMax();
+
+    @Property("concurrency.max")
+    Integer concurrencyMax();
+
+    // attempts per produce and publish; i/o and upload failures are retried with exponential backoff and full jitter
+    @Property("retry.max.attempts")
+    Integer retryMaxAttempts();
+
+    // backoff ceiling of the first retry, doubled for each further attempt
+    @Property("retry.backoff.millis")
+    Integer retryBackoffMillis();
+
+    // consecutive failures that open the circuit and pause intake (defaults to retry.max.attempts)
+    @Property("circuit.failure.threshold")
+    Boolean hasCircuitFailureThreshold();
+
+    @Property("circuit.failure.threshold")
+    Integer circuitFailureThreshold();
+
+    @Property("circuit.open.seconds")
+    Integer circuitOpenSeconds();
+
+    // record unreadable files or rows in a dead-letter file in this folder and continue, instead of aborting the run
+    @Property("quarantine.path")
+    Boolean hasQuarantinePath();
+
+    @Property("quarantine.path")
+    String quarantinePath();
+
+    // message entry format: json (row document with structure) or binary (typed row, see KostraRowCodec)
+    @Property("output.format")
+    String outputFormat();
+
+    // max time to drain in-flight messages after a stop request
+    @Property("shutdown.timeout.seconds")
+    Integer shutdownTimeoutSeconds();
+
     @Override
     default Map<String, String> defaultValues() {
         return Map.of(
                 "path", "/source",
-                "queue.capacity", "1000" // flush buffer on threshold
+                "parser.threads", "2",
+                "queue.capacity", "1000", // flush buffer on threshold
+                "retry.max.attempts", "5",
+                "retry.backoff.millis", "200",
+                "circuit.open.seconds", "30",
+                "output.format", "json",
+                "shutdown.timeout.seconds", "30"
         );
     }
 
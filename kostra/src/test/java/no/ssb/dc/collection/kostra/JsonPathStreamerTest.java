@@ -0,0 +1,92 @@
+package no.ssb.dc.collection.kostra;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JsonPathStreamerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JsonPathStreamerTest.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void thatHeaderAndRecordsAreEmitted() {
+        String json = "{\"meta\": {\"skip\": [1, 2, {\"a\": 3}]}, " +
+                "\"structure\": [{\"name\": \"a\"}, {\"name\": \"b\"}], " +
+                "\"data\": [[\"1\", \"2\"], [\"3\", \"4\"]]}";
+        List<JsonNode> headers = new ArrayList<>();
+        List<JsonNode> records = new ArrayList<>();
+        long count = new JsonPathStreamer(mapper)
+                .on("/structure", headers::add)
+                .on("/data[]", records::add)
+                .stream(new StringReader(json));
+
+        assertEquals(3, count);
+        assertEquals(1, headers.size());
+        assertEquals(2, headers.get(0).size());
+        assertEquals(List.of("[\"1\",\"2\"]", "[\"3\",\"4\"]"), List.of(records.get(0).toString(), records.get(1).toString()));
+    }
+
+    @Test
+    void thatNestedPathsAndIndexesMatch() {
+        String json = "{\"report\": {\"rows\": [{\"id\": 1}, {\"id\": 2}, {\"id\": 3}], \"total\": 3}}";
+        List<JsonNode> any = new ArrayList<>();
+        List<JsonNode> second = new ArrayList<>();
+        List<JsonNode> total = new ArrayList<>();
+        new JsonPathStreamer(mapper).on("/report/rows/*", any::add).stream(new StringReader(json));
+        new JsonPathStreamer(mapper).on("/report/rows/1", second::add).on("/report/total", total::add).stream(new StringReader(json));
+
+        assertEquals(3, any.size());
+        assertEquals(1, second.size());
+        assertEquals(2, second.get(0).get("id").asInt());
+        assertEquals(3, total.get(0).asInt());
+    }
+
+    /**
+     * Throughput benchmark on a generated KOSTRA-like file. Increase the row count for real measurements.
+     */
+    @Test
+    void benchmarkThroughput(@TempDir Path tempDir) throws IOException {
+        int rowCount = 200_000;
+        Path file = tempDir.resolve("kostradata-benchmark.json");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("{\"structure\": [{\"name\": \"region\", \"type\": \"string\"}, {\"name\": \"art\", \"type\": \"string\"}, {\"name\": \"belop\", \"type\": \"int\"}],\n\"data\": [\n");
+            for (int i = 0; i < rowCount; i++) {
+                writer.write(String.format("%s[\"%04d\", \"%03d\", \"%d\"]\n", i == 0 ? "" : ",", i % 9999, i % 999, i));
+            }
+            writer.write("]}\n");
+        }
+
+        AtomicLong records = new AtomicLong();
+        long startNanos = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            new JsonPathStreamer(mapper)
+                    .on("/structure", header -> {
+                    })
+                    .on("/data[]", record -> records.incrementAndGet())
+                    .stream(reader);
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+
+        assertEquals(rowCount, records.get());
+        LOG.info("JsonPathStreamer: {} records, {} bytes in {}s ({} records/s, {} MiB/s)", rowCount, Files.size(file),
+                String.format("%.2f", seconds), String.format("%.0f", rowCount / seconds), String.format("%.1f", Files.size(file) / seconds / (1024 * 1024)));
+    }
+}
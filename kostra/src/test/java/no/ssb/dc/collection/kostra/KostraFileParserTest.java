@@ -0,0 +1,42 @@
+package no.ssb.dc.collection.kostra;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KostraFileParserTest {
+
+    static List<String> resolve(Path sourcePath, String sourceFile) {
+        return KostraFileParser.resolveSourceFiles(sourcePath, sourceFile, "kostradata-spec.yaml").stream()
+                .map(source -> sourcePath.relativize(source).toString().replace('\\', '/'))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void thatListsAndGlobsAreResolvedInOrder(@TempDir Path sourcePath) throws IOException {
+        Files.createDirectories(sourcePath.resolve("2020"));
+        for (String file : List.of("kostradata-2019.json", "kostradata-2018.json", "kostradata-spec.yaml", "2020/b.json", "2020/a.json", "2020/notes.txt")) {
+            Files.writeString(sourcePath.resolve(file), "{}");
+        }
+
+        assertEquals(List.of("kostradata-2019.json"), resolve(sourcePath, "kostradata-2019.json"));
+        assertEquals(List.of("kostradata-2018.json", "kostradata-2019.json"), resolve(sourcePath, "kostradata-*.json"));
+        assertEquals(List.of("2020/a.json", "2020/b.json", "kostradata-2019.json"), resolve(sourcePath, "2020/*.json, kostradata-2019.json"));
+        assertEquals(List.of("kostradata-2018.json", "kostradata-2019.json", "2020/a.json", "2020/b.json"), resolve(sourcePath, "*.json,**/*.json"));
+        assertThrows(IllegalArgumentException.class, () -> resolve(sourcePath, "*.csv"));
+    }
+
+    @Test
+    void thatPositionsArePrefixedByFile() {
+        assertEquals("42", KostraFileParser.position("", 42));
+        assertEquals("2020/a.json:42", KostraFileParser.position("2020/a.json" + KostraFileParser.POSITION_SEPARATOR, 42));
+    }
+}
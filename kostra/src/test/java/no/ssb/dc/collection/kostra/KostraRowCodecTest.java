@@ -0,0 +1,81 @@
+package no.ssb.dc.collection.kostra;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KostraRowCodecTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    static final String DOCUMENT = "{\"structure\":[" +
+            "{\"name\":\"region\",\"type\":\"string\"}," +
+            "{\"name\":\"art\",\"type\":\"int\"}," +
+            "{\"name\":\"belop\",\"type\":\"int\"}," +
+            "{\"name\":\"andel\",\"type\":\"decimal\"}," +
+            "{\"name\":\"aktiv\",\"type\":\"boolean\"}," +
+            "{\"name\":\"merknad\",\"type\":\"string\"}]," +
+            "\"data\":[[\"0301\",\"007\",\"-1234567\",\"1.50\",\"true\",\"Bl\u00e5\"]]}";
+
+    @Test
+    void thatRowRoundTripsToTheJsonDocument() throws Exception {
+        JsonNode document = mapper.readTree(DOCUMENT);
+        KostraRowCodec codec = new KostraRowCodec(document.get("structure"));
+
+        byte[] entry = codec.encode(document.get("data").get(0));
+        assertTrue(KostraRowCodec.isEncoded(entry));
+        assertFalse(KostraRowCodec.isEncoded(DOCUMENT.getBytes()));
+        assertTrue(entry.length < mapper.writeValueAsBytes(document.get("data")).length, "Row is smaller than json data");
+
+        assertEquals(document, codec.toJsonDocument(entry));
+        // a reader of the manifest json mapping has the data type format
+        assertEquals(document.get("data").get(0), new KostraRowCodec(
+                new String[]{"region", "art", "belop", "andel", "aktiv", "merknad"},
+                new String[]{"String", "Int", "Int", "Decimal", "Boolean", "String"}).decode(entry));
+    }
+
+    @Test
+    void thatValuesThatDoNotMatchTheTypeAreKept() throws Exception {
+        JsonNode structure = mapper.readTree("[{\"name\":\"a\",\"type\":\"int\"},{\"name\":\"b\",\"type\":\"decimal\"},{\"name\":\"c\",\"type\":\"boolean\"}]");
+        KostraRowCodec codec = new KostraRowCodec(structure);
+        for (String row : new String[]{
+                "[\"\",\"\",\"\"]",
+                "[\"-0\",\"1e5\",\"TRUE\"]",
+                "[\"99999999999999999999\",\"-0.0\",\"yes\"]",
+                "[null,12.5,false]",
+                "[\"1\",\"2\",\"false\",\"extra\",{\"nested\":[1]}]",
+                "[]"}) {
+            JsonNode data = mapper.readTree(row);
+            assertEquals(data, codec.decode(codec.encode(data)), row);
+        }
+    }
+
+    @Test
+    void thatTruncatedRowIsRejected() throws Exception {
+        JsonNode document = mapper.readTree(DOCUMENT);
+        KostraRowCodec codec = new KostraRowCodec(document.get("structure"));
+        byte[] entry = codec.encode(document.get("data").get(0));
+        byte[] truncated = Arrays.copyOf(entry, entry.length - 2);
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(truncated));
+    }
+
+    @Test
+    void thatCodecIsCompiledFromManifest() throws Exception {
+        JsonNode document = mapper.readTree(DOCUMENT);
+        byte[] entry = new KostraRowCodec(document.get("structure")).encode(document.get("data").get(0));
+
+        String manifest = "{\"contentType\":\"" + KostraRowCodec.CONTENT_TYPE + "\",\"jsonMapping\":" + document.get("structure") + "}";
+        assertEquals(document, mapper.readTree(KostraRowCodec.fromManifest(manifest.getBytes(StandardCharsets.UTF_8)).toJson(entry)));
+        assertNull(KostraRowCodec.fromManifest("{\"contentType\":\"application/json\"}".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(IllegalArgumentException.class, () -> KostraRowCodec.fromManifest(("{\"contentType\":\"" + KostraRowCodec.CONTENT_TYPE + "\"}").getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,55 @@
+package no.ssb.dc.collection.kostra;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import no.ssb.dc.collection.pipeline.SourceInputException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KostraRowTransformerTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    static JsonNode row(String region, String value) throws IOException {
+        return mapper.readTree("{\"structure\": [{\"name\": \"region\", \"type\": \"string\"}, {\"name\": \"value\", \"type\": \"int\"}], " +
+                "\"data\": [[\"" + region + "\", \"" + value + "\"]]}");
+    }
+
+    @Test
+    void thatSpecificationWithoutTransformIsNotCompiled() throws IOException {
+        assertNull(KostraRowTransformer.compile(mapper.readTree("{\"metadata\": []}")));
+    }
+
+    @Test
+    void thatRowsAreSelectedAndReshaped() throws IOException {
+        KostraRowTransformer transformer = KostraRowTransformer.compile(mapper.readTree("{\"transform\": {" +
+                "\"select\": \".data[0][0] != \\\"0000\\\"\", " +
+                "\"map\": \"{region: .data[0][0], value: (.data[0][1] | tonumber)}\"}}"));
+
+        assertEquals(mapper.readTree("{\"region\": \"0301\", \"value\": 42}"), transformer.apply(row("0301", "42")));
+        assertNull(transformer.apply(row("0000", "1")));
+        assertEquals(2, transformer.rowCount());
+        assertEquals(1, transformer.selectedCount());
+    }
+
+    @Test
+    void thatRowThatCannotBeTransformedIsAnInputFailure() throws IOException {
+        KostraRowTransformer transformer = KostraRowTransformer.compile(mapper.readTree("{\"transform\": {" +
+                "\"map\": \"{value: (.data[0][1] | tonumber)}\"}}"));
+        JsonNode row = row("0301", "n/a");
+        assertThrows(SourceInputException.class, () -> transformer.apply(row));
+    }
+
+    @Test
+    void thatSelectOnlyReturnsSourceDocument() throws IOException {
+        KostraRowTransformer transformer = KostraRowTransformer.compile(mapper.readTree("{\"transform\": {\"select\": \"true\"}}"));
+        JsonNode document = row("0301", "42");
+        assertSame(document, transformer.apply(document));
+    }
+}
@@ -1,7 +1,6 @@
 package no.ssb.dc.collection.kostra;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import no.ssb.dapla.migration.rawdata.onprem.config.LocalFileSystemConfiguration;
 import no.ssb.dapla.migration.rawdata.onprem.worker.JsonParser;
 import no.ssb.rawdata.api.RawdataClient;
@@ -84,11 +83,11 @@ public class KostraTest {
         }
     }
 
-    private void handleStructure(ArrayNode jsonNode) {
+    private void handleStructure(JsonNode jsonNode) {
         LOG.trace("structure: {}", jsonNode);
     }
 
-    private void handleDataElement(ArrayNode jsonNode) {
+    private void handleDataElement(JsonNode jsonNode) {
         LOG.trace("data-element: {}", jsonNode);
     }
 
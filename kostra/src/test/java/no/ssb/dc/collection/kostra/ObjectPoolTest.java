@@ -0,0 +1,30 @@
+package no.ssb.dc.collection.kostra;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ObjectPoolTest {
+
+    @Test
+    void thatReleasedObjectsAreReusedUpToCapacity() {
+        AtomicInteger sequence = new AtomicInteger();
+        ObjectPool<int[]> pool = new ObjectPool<>(1, () -> new int[]{sequence.incrementAndGet()});
+
+        int[] first = pool.acquire();
+        int[] second = pool.acquire();
+        assertNotSame(first, second);
+
+        pool.release(first);
+        pool.release(second); // dropped, the pool is full
+        assertSame(first, pool.acquire());
+        assertEquals(3, pool.acquire()[0]);
+
+        assertEquals(3, pool.created());
+        assertEquals(1, pool.reused());
+    }
+}
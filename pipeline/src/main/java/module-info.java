@@ -0,0 +1,12 @@
+module rawdata.collection.pipeline {
+
+    requires java.base;
+    requires jdk.jfr;
+    requires java.xml;
+
+    requires org.slf4j;
+    requires com.fasterxml.jackson.core;
+
+    exports no.ssb.dc.collection.pipeline;
+
+}
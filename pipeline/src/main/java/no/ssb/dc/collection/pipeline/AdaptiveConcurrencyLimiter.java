@@ -0,0 +1,130 @@
+package no.ssb.dc.collection.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of in-flight messages and adjusts the limit using AIMD (additive increase, multiplicative decrease).
+ * <p>
+ * Latency samples are aggregated in windows. The limit is increased by one when the window latency is close to the
+ * observed baseline and the limit was saturated. It is decreased by 25% when latency grows beyond the tolerance of
+ * the baseline or when the reorder backlog exceeds its threshold.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    static final int MIN_WINDOW_SIZE = 16;
+    static final double LATENCY_TOLERANCE = 1.5;
+    static final double DECREASE_FACTOR = 0.75;
+    static final double BASELINE_DRIFT = 1.02;
+
+    private final Object lock = new Object();
+    private final int minLimit;
+    private final int maxLimit;
+    private final int backlogThreshold;
+
+    private int limit;
+    private int inFlight;
+    private boolean saturated;
+    private double baselineLatencyNanos;
+    private int windowSamples;
+    private long windowLatencyNanos;
+    private int windowMaxBacklog;
+    private long windowStartedNanos = System.nanoTime();
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int backlogThreshold) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException(String.format("Illegal concurrency bounds: min=%s max=%s", minLimit, maxLimit));
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backlogThreshold = backlogThreshold;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    public int limit() {
+        synchronized (lock) {
+            return limit;
+        }
+    }
+
+    public int inFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    /**
+     * Blocks the caller until the number of in-flight messages is below the current limit.
+     */
+    public void acquire() throws InterruptedException {
+        synchronized (lock) {
+            while (inFlight >= limit) {
+                saturated = true;
+                lock.wait();
+            }
+            inFlight++;
+            if (inFlight >= limit) {
+                saturated = true;
+            }
+        }
+    }
+
+    /**
+     * @param latencyNanos processing time of the completed message
+     * @param backlog      number of messages waiting for in-order publishing
+     */
+    public void release(long latencyNanos, int backlog) {
+        synchronized (lock) {
+            inFlight--;
+            windowSamples++;
+            windowLatencyNanos += latencyNanos;
+            windowMaxBacklog = Math.max(windowMaxBacklog, backlog);
+            if (windowSamples >= Math.max(MIN_WINDOW_SIZE, limit)) {
+                adjust();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private void adjust() {
+        double latency = (double) windowLatencyNanos / windowSamples;
+        long elapsedNanos = System.nanoTime() - windowStartedNanos;
+        double throughput = elapsedNanos > 0 ? windowSamples * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        baselineLatencyNanos = baselineLatencyNanos == 0 ? latency : Math.min(latency, baselineLatencyNanos * BASELINE_DRIFT);
+
+        int previousLimit = limit;
+        String reason;
+        if (windowMaxBacklog > backlogThreshold) {
+            limit = Math.max(minLimit, (int) (limit * DECREASE_FACTOR));
+            reason = "reorder backlog";
+        } else if (latency > baselineLatencyNanos * LATENCY_TOLERANCE) {
+            limit = Math.max(minLimit, (int) (limit * DECREASE_FACTOR));
+            reason = "latency";
+        } else if (saturated) {
+            limit = Math.min(maxLimit, limit + 1);
+            reason = "saturated";
+        } else {
+            reason = "idle";
+        }
+
+        if (limit != previousLimit) {
+            LOG.info("Concurrency limit {} -> {} ({}): latency={}ms baseline={}ms throughput={}/s backlog={}",
+                    previousLimit, limit, reason, String.format("%.2f", latency / 1_000_000), String.format("%.2f", baselineLatencyNanos / 1_000_000),
+                    String.format("%.0f", throughput), windowMaxBacklog);
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug("Concurrency limit {} ({}): latency={}ms baseline={}ms throughput={}/s backlog={}",
+                    limit, reason, String.format("%.2f", latency / 1_000_000), String.format("%.2f", baselineLatencyNanos / 1_000_000),
+                    String.format("%.0f", throughput), windowMaxBacklog);
+        }
+
+        saturated = inFlight >= limit;
+        windowSamples = 0;
+        windowLatencyNanos = 0;
+        windowMaxBacklog = 0;
+        windowStartedNanos = System.nanoTime();
+    }
+}
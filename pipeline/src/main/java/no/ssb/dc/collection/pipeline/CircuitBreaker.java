@@ -0,0 +1,81 @@
+package no.ssb.dc.collection.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Opens after a number of consecutive failures and stays open for a fixed period. While open, intake waits, so
+ * messages do not pile up behind a failing sink. After the open period the next operation is a probe: a success
+ * closes the circuit and a failure opens it again.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final Object lock = new Object();
+    private int consecutiveFailures;
+    private long openUntilNanos;
+    private long openCount;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    public void recordSuccess() {
+        synchronized (lock) {
+            consecutiveFailures = 0;
+        }
+    }
+
+    public void recordFailure() {
+        synchronized (lock) {
+            long nowNanos = System.nanoTime();
+            if (++consecutiveFailures >= failureThreshold && openUntilNanos - nowNanos <= 0) {
+                openUntilNanos = nowNanos + openNanos;
+                openCount++;
+                LOG.warn("Circuit open for {}s after {} consecutive failures", TimeUnit.NANOSECONDS.toSeconds(openNanos), consecutiveFailures);
+            }
+        }
+    }
+
+    public boolean isOpen() {
+        synchronized (lock) {
+            return openUntilNanos - System.nanoTime() > 0;
+        }
+    }
+
+    /**
+     * Wait while the circuit is open.
+     *
+     * @param stopped waiting ends when this returns true
+     */
+    public void awaitClosed(BooleanSupplier stopped) {
+        long remainingNanos;
+        while (!stopped.getAsBoolean() && (remainingNanos = remainingOpenNanos()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(remainingNanos, TimeUnit.MILLISECONDS.toNanos(100)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private long remainingOpenNanos() {
+        synchronized (lock) {
+            return openUntilNanos - System.nanoTime();
+        }
+    }
+
+    public long openCount() {
+        synchronized (lock) {
+            return openCount;
+        }
+    }
+}
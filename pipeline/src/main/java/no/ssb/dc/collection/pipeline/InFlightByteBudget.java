@@ -0,0 +1,92 @@
+package no.ssb.dc.collection.pipeline;
+
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Admission control on the payload bytes held by messages that are read but not yet published.
+ * <p>
+ * The reader blocks when admitting a message would exceed the budget. A single message larger than the budget is
+ * admitted when nothing else is in flight, so an oversized file never deadlocks the pipeline.
+ */
+public class InFlightByteBudget {
+
+    static final long POLL_MILLIS = 100;
+
+    private final Object lock = new Object();
+    private final long maxBytes;
+    private long currentBytes;
+    private long peakBytes;
+
+    public InFlightByteBudget(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Max bytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param value bytes with an optional k, m or g suffix, e.g. 512m
+     */
+    public static long parseBytes(String value) {
+        String normalizedValue = value.trim().toLowerCase(Locale.ROOT);
+        long multiplier = switch (normalizedValue.isEmpty() ? ' ' : normalizedValue.charAt(normalizedValue.length() - 1)) {
+            case 'k' -> 1024L;
+            case 'm' -> 1024L * 1024;
+            case 'g' -> 1024L * 1024 * 1024;
+            default -> 1L;
+        };
+        String number = multiplier == 1 ? normalizedValue : normalizedValue.substring(0, normalizedValue.length() - 1);
+        return Long.parseLong(number.trim()) * multiplier;
+    }
+
+    public void acquire(long bytes) throws InterruptedException {
+        acquire(bytes, () -> false);
+    }
+
+    /**
+     * @param stopped waiting ends when this returns true, e.g. when the worker is stopping or has failed
+     * @throws CancellationException if stopped while waiting. The bytes are not acquired.
+     */
+    public void acquire(long bytes, BooleanSupplier stopped) throws InterruptedException {
+        synchronized (lock) {
+            while (currentBytes > 0 && currentBytes + bytes > maxBytes) {
+                if (stopped.getAsBoolean()) {
+                    throw new CancellationException("Stopped while waiting for in-flight bytes: " + bytes);
+                }
+                lock.wait(POLL_MILLIS);
+            }
+            currentBytes += bytes;
+            peakBytes = Math.max(peakBytes, currentBytes);
+        }
+    }
+
+    public void release(long bytes) {
+        synchronized (lock) {
+            currentBytes -= bytes;
+            lock.notifyAll();
+        }
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    public long currentBytes() {
+        synchronized (lock) {
+            return currentBytes;
+        }
+    }
+
+    public long peakBytes() {
+        synchronized (lock) {
+            return peakBytes;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("in-flight bytes: current=%s peak=%s max=%s", currentBytes(), peakBytes(), maxBytes);
+    }
+}
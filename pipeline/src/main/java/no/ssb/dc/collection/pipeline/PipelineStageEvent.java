@@ -0,0 +1,59 @@
+package no.ssb.dc.collection.pipeline;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for one message in a pipeline stage, e.g. read, parse, encrypt, buffer, reorder wait or publish.
+ * The event is disabled by default, so the cost without a recording is an enabled check per stage.
+ * <p>
+ * The latency is measured by StageMetrics and carried in a field, the event itself is committed at the end of the
+ * stage.
+ */
+@Name(PipelineStageEvent.NAME)
+@Label("Pipeline Stage")
+@Category({"Rawdata Collection", "Pipeline"})
+@Description("Latency, size and position of a message in a pipeline stage")
+@Enabled(false)
+@StackTrace(false)
+public class PipelineStageEvent extends Event {
+
+    public static final String NAME = "no.ssb.rawdata.pipeline.Stage";
+
+    @Label("Pipeline")
+    String pipeline;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Position")
+    String position;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+
+    static void emit(String pipeline, String stage, String position, long bytes, long latencyNanos) {
+        PipelineStageEvent event = new PipelineStageEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.pipeline = pipeline;
+        event.stage = stage;
+        event.position = position;
+        event.bytes = bytes;
+        event.latency = latencyNanos;
+        event.commit();
+    }
+}
@@ -0,0 +1,163 @@
+package no.ssb.dc.collection.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Dead-letter file for input that could not be produced. Each line holds the position, the source and the failure
+ * reason separated by tabs. Quarantined items are skipped by the run and can be produced again by a re-drive, which
+ * takes the quarantined entries and starts a new quarantine file for items that fail again.
+ */
+public class Quarantine implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Quarantine.class);
+
+    static final String REDRIVE_SUFFIX = ".redrive";
+
+    private final Path file;
+    private final Map<String, Long> reasonCounts = new TreeMap<>();
+    private BufferedWriter writer;
+    private long count;
+
+    public Quarantine(Path file) {
+        this.file = file.toAbsolutePath().normalize();
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public void add(String position, String source, Throwable failure) {
+        Throwable reason = rootCause(failure);
+        LOG.warn("Quarantine {} ({}): {}", position, source, reason.toString());
+        synchronized (this) {
+            try {
+                if (writer == null) {
+                    Files.createDirectories(file.getParent());
+                    writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+                writer.write(sanitize(position) + "\t" + sanitize(source) + "\t" + sanitize(reason.toString()));
+                writer.newLine();
+                writer.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count++;
+            reasonCounts.merge(reason.getClass().getSimpleName(), 1L, Long::sum);
+        }
+    }
+
+    static Throwable rootCause(Throwable failure) {
+        Throwable cause = failure;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException
+                || cause.getClass() == RuntimeException.class || cause.getClass() == SourceInputException.class)
+                && cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    static String sanitize(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * Take the quarantined entries for a re-drive. Entries left by an interrupted re-drive are included, and an entry
+     * quarantined more than once is returned once.
+     */
+    public List<Entry> redriveEntries() {
+        Path redriveFile = redriveFile();
+        try {
+            if (Files.exists(file)) {
+                Files.write(redriveFile, Files.readAllBytes(file), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                Files.delete(file);
+            }
+            if (!Files.exists(redriveFile)) {
+                return List.of();
+            }
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            for (String line : Files.readAllLines(redriveFile, StandardCharsets.UTF_8)) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] columns = line.split("\t", 3);
+                Entry entry = new Entry(columns[0], columns.length > 1 ? columns[1] : "", columns.length > 2 ? columns[2] : "");
+                entries.put(entry.position, entry);
+            }
+            return new ArrayList<>(entries.values());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Remove the re-driven entries. Entries that failed again are in the quarantine file.
+     */
+    public void completeRedrive() {
+        try {
+            Files.deleteIfExists(redriveFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Path redriveFile() {
+        return file.resolveSibling(file.getFileName() + REDRIVE_SUFFIX);
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    public synchronized String summary() {
+        if (count == 0) {
+            return "Quarantined: 0";
+        }
+        return String.format("Quarantined: %d %s (file: %s)", count, reasonCounts, file);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        writer = null;
+    }
+
+    public static class Entry {
+        public final String position;
+        public final String source;
+        public final String reason;
+
+        Entry(String position, String source, String reason) {
+            this.position = position;
+            this.source = source;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return position + " (" + source + "): " + reason;
+        }
+    }
+}
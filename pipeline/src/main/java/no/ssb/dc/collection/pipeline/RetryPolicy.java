@@ -0,0 +1,169 @@
+package no.ssb.dc.collection.pipeline;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.NoSuchFileException;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Retries transient failures with exponential backoff and full jitter. Every transient failure is reported to the
+ * circuit breaker.
+ */
+public class RetryPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetryPolicy.class);
+
+    static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final CircuitBreaker circuitBreaker;
+    private final LongAdder retries = new LongAdder();
+
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, CircuitBreaker circuitBreaker) {
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.initialBackoffMillis = Math.max(initialBackoffMillis, 1);
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void execute(String operation, Object subject, Runnable action) {
+        execute(operation, subject, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * @param subject identifies the operation in log messages, e.g. a position
+     */
+    public <T> T execute(String operation, Object subject, Supplier<T> action) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = action.get();
+                circuitBreaker.recordSuccess();
+                return result;
+            } catch (RuntimeException e) {
+                if (!isTransient(e)) {
+                    // bad input says nothing about the health of the source or sink
+                    throw e;
+                }
+                circuitBreaker.recordFailure();
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                long backoffMillis = backoffMillis(attempt);
+                retries.increment();
+                LOG.warn("{} {} failed (attempt {}/{}). Retry in {}ms: {}", operation, subject, attempt, maxAttempts, backoffMillis, e.toString());
+                try {
+                    TimeUnit.MILLISECONDS.sleep(backoffMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    e.addSuppressed(ie);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    long backoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, initialBackoffMillis << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Exceptions of the rawdata providers that are retryable. They are matched by name anywhere in the class hierarchy,
+     * since the providers are not on the module path of the pipeline.
+     */
+    static final Set<String> TRANSIENT_PROVIDER_EXCEPTIONS = Set.of(
+            "com.google.cloud.BaseServiceException",
+            "org.apache.kafka.common.errors.RetriableException",
+            "java.sql.SQLTransientException",
+            "java.sql.SQLRecoverableException"
+    );
+
+    /**
+     * Only known transient failures are retried: I/O failures, timeouts, {@link TransientException} and the retryable
+     * exceptions of the rawdata providers. Any other failure fails on the first attempt, and so do input failures
+     * anywhere in the cause chain: a malformed, undecodable or missing source fails the same way on every attempt.
+     */
+    static boolean isTransient(Throwable throwable) {
+        Throwable failure = throwable;
+        while ((failure instanceof CompletionException || failure instanceof ExecutionException) && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (isInputFailure(cause)) {
+                return false;
+            }
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException) {
+                return false;
+            }
+            if (cause instanceof IOException
+                    || cause instanceof TimeoutException
+                    || cause instanceof TransientException
+                    || isTransientProviderFailure(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isTransientProviderFailure(Throwable failure) {
+        for (Class<?> type = failure.getClass(); type != null; type = type.getSuperclass()) {
+            if (!TRANSIENT_PROVIDER_EXCEPTIONS.contains(type.getName())) {
+                continue;
+            }
+            try {
+                // a cloud service exception tells whether the request is retryable, e.g. not on a 403 or 404
+                Method isRetryable = failure.getClass().getMethod("isRetryable");
+                return !Boolean.FALSE.equals(isRetryable.invoke(failure));
+            } catch (NoSuchMethodException e) {
+                return true;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    static boolean isInputFailure(Throwable failure) {
+        return failure instanceof SourceInputException
+                || failure instanceof JsonProcessingException
+                || failure instanceof XMLStreamException
+                || failure instanceof CharacterCodingException
+                || failure instanceof NoSuchFileException;
+    }
+
+    public long retries() {
+        return retries.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+                "maxAttempts=" + maxAttempts +
+                ", initialBackoffMillis=" + initialBackoffMillis +
+                ", retries=" + retries.sum() +
+                ", circuitOpenCount=" + circuitBreaker.openCount() +
+                '}';
+    }
+}
@@ -0,0 +1,95 @@
+package no.ssb.dc.collection.pipeline;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stop state of a worker. Until stopped, in-flight messages are awaited without a time limit. After a stop they are
+ * awaited until the shutdown deadline, and the messages that have not completed by then are dropped.
+ * <p>
+ * A failure stops the worker at once: intake ends, nothing more is awaited, and the failure is thrown by await.
+ */
+public class ShutdownDrain {
+
+    static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AtomicBoolean stopping = new AtomicBoolean();
+    private final AtomicLong deadlineNanos = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * @return true on the first call, which sets the deadline
+     */
+    public boolean stop(long timeout, TimeUnit unit) {
+        if (!stopping.compareAndSet(false, true)) {
+            return false;
+        }
+        deadlineNanos.set(System.nanoTime() + unit.toNanos(timeout));
+        return true;
+    }
+
+    public boolean isStopping() {
+        return stopping.get();
+    }
+
+    /**
+     * Record the first failure and stop without a drain deadline.
+     */
+    public void fail(Throwable cause) {
+        if (failure.compareAndSet(null, cause)) {
+            deadlineNanos.set(System.nanoTime());
+            stopping.set(true);
+        }
+    }
+
+    public Throwable failure() {
+        return failure.get();
+    }
+
+    /**
+     * @throws RuntimeException with the first failure as cause, if the worker has failed
+     */
+    public void checkFailed() {
+        Throwable cause = failure.get();
+        if (cause != null) {
+            throw new RuntimeException("Pipeline failed: " + cause, cause);
+        }
+    }
+
+    /**
+     * Wait for the futures and clear them. A stop while waiting applies the deadline.
+     *
+     * @return false if the deadline passed before all futures completed
+     * @throws RuntimeException if the worker has failed
+     */
+    public boolean await(Collection<? extends CompletableFuture<?>> futures) {
+        CompletableFuture<Void> allFutures = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+        boolean drained = false;
+        try {
+            while (!drained) {
+                boolean stopped = stopping.get();
+                try {
+                    allFutures.get(stopped ? Math.max(deadlineNanos.get() - System.nanoTime(), 0) : POLL_NANOS, TimeUnit.NANOSECONDS);
+                    drained = true;
+                } catch (TimeoutException e) {
+                    if (stopped) {
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        futures.clear();
+        checkFailed();
+        return drained;
+    }
+}
@@ -0,0 +1,23 @@
+package no.ssb.dc.collection.pipeline;
+
+/**
+ * A failure caused by the content of a source file or row, e.g. malformed xml or json, or a transform that cannot be
+ * applied. The same input fails the same way on every attempt, so it is not retried and does not count toward the
+ * circuit breaker.
+ */
+public class SourceInputException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public SourceInputException(String message) {
+        super(message);
+    }
+
+    public SourceInputException(Throwable cause) {
+        super(cause);
+    }
+
+    public SourceInputException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,150 @@
+package no.ssb.dc.collection.pipeline;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-stage counters for the produce pipeline: count, busy time, max latency and bytes. The summary reports
+ * throughput, mean latency and utilization (busy time per wall-clock time, i.e. the average number of busy threads),
+ * and which part of the pipeline bounds the run.
+ * <p>
+ * Stages are declared before the pipeline starts and are read-only afterwards. Each record is also emitted as a
+ * PipelineStageEvent when a flight recording has enabled it.
+ */
+public class StageMetrics {
+
+    public enum Kind {
+        SOURCE, // source thread: walk or parse
+        BACKPRESSURE, // source thread waits for downstream capacity
+        IO, // source reads on the worker pool
+        CPU,
+        SINK,
+        WAIT // queued, not busy
+    }
+
+    public static final StageMetrics NONE = new StageMetrics("none");
+
+    private final String pipeline;
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    /**
+     * @param pipeline name of the pipeline in flight recorder events, e.g. rema or kostra
+     */
+    public StageMetrics(String pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public String pipeline() {
+        return pipeline;
+    }
+
+    public StageMetrics stage(String name, Kind kind) {
+        stages.put(name, new Stage(name, kind));
+        return this;
+    }
+
+    /**
+     * @return current nano time, which may be used as start time of the next stage
+     */
+    public long record(String name, long startNanos) {
+        return record(name, startNanos, 0);
+    }
+
+    public long record(String name, long startNanos, long bytes) {
+        return record(name, startNanos, bytes, null);
+    }
+
+    /**
+     * @param position message position of the flight recorder event, see PipelineStageEvent
+     */
+    public long record(String name, long startNanos, long bytes, String position) {
+        long nowNanos = System.nanoTime();
+        Stage stage = stages.get(name);
+        if (stage != null) {
+            stage.record(nowNanos - startNanos, bytes);
+            PipelineStageEvent.emit(pipeline, name, position, bytes, nowNanos - startNanos);
+        }
+        return nowNanos;
+    }
+
+    public long count(String name) {
+        Stage stage = stages.get(name);
+        return stage == null ? 0 : stage.count.sum();
+    }
+
+    public long busyNanos(String name) {
+        Stage stage = stages.get(name);
+        return stage == null ? 0 : stage.nanos.sum();
+    }
+
+    long busyNanos(Kind kind) {
+        return stages.values().stream().filter(stage -> stage.kind == kind).mapToLong(stage -> stage.nanos.sum()).sum();
+    }
+
+    /**
+     * The source bounds the run when its thread seldom waits for downstream capacity. Otherwise the worker-side kind
+     * with the most busy time bounds it.
+     */
+    public String boundBy() {
+        long sourceNanos = busyNanos(Kind.SOURCE);
+        long backpressureNanos = busyNanos(Kind.BACKPRESSURE);
+        if (sourceNanos + backpressureNanos == 0) {
+            return "unknown";
+        }
+        if (backpressureNanos < sourceNanos) {
+            return "source";
+        }
+        long ioNanos = busyNanos(Kind.IO);
+        long cpuNanos = busyNanos(Kind.CPU);
+        long sinkNanos = busyNanos(Kind.SINK);
+        if (sinkNanos >= cpuNanos && sinkNanos >= ioNanos) {
+            return "sink";
+        }
+        return cpuNanos >= ioNanos ? "cpu" : "source io";
+    }
+
+    public String summary(long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos, 1) / 1_000_000_000.0;
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ROOT, "%-14s%-14s%12s%12s%12s%12s%10s%8s%n", "stage", "kind", "count", "items/s", "mean-us", "max-us", "MiB/s", "util"));
+        for (Stage stage : stages.values()) {
+            long count = stage.count.sum();
+            long nanos = stage.nanos.sum();
+            builder.append(String.format(Locale.ROOT, "%-14s%-14s%12d%12.0f%12.1f%12d%10.1f%8.2f%n",
+                    stage.name, stage.kind.name().toLowerCase(Locale.ROOT), count, count / seconds,
+                    count == 0 ? 0 : nanos / 1000.0 / count, TimeUnit.NANOSECONDS.toMicros(stage.maxNanos.get()),
+                    stage.bytes.sum() / seconds / (1024 * 1024), nanos / 1_000_000_000.0 / seconds));
+        }
+        builder.append(String.format(Locale.ROOT, "elapsed: %.1fs, bound by: %s", seconds, boundBy()));
+        return builder.toString();
+    }
+
+    static class Stage {
+        final String name;
+        final Kind kind;
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        Stage(String name, Kind kind) {
+            this.name = name;
+            this.kind = kind;
+        }
+
+        void record(long elapsedNanos, long recordBytes) {
+            count.increment();
+            nanos.add(elapsedNanos);
+            if (recordBytes > 0) {
+                bytes.add(recordBytes);
+            }
+            if (elapsedNanos > maxNanos.get()) {
+                maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+            }
+        }
+    }
+}
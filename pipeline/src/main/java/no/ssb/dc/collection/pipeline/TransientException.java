@@ -0,0 +1,22 @@
+package no.ssb.dc.collection.pipeline;
+
+/**
+ * A failure of the source or sink that may succeed on a later attempt, e.g. a failed upload. It is retried and counts
+ * toward the circuit breaker.
+ */
+public class TransientException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public TransientException(String message) {
+        super(message);
+    }
+
+    public TransientException(Throwable cause) {
+        super(cause);
+    }
+
+    public TransientException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
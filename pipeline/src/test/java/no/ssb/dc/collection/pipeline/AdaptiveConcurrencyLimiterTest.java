@@ -0,0 +1,44 @@
+package no.ssb.dc.collection.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    /**
+     * Simulates a slow RawdataProducer that serves 8 concurrent uploads at 10ms, while latency grows linearly above.
+     */
+    static long simulatedUploadLatency(int concurrency) {
+        return (long) (TimeUnit.MILLISECONDS.toNanos(10) * Math.max(1.0, concurrency / 8.0));
+    }
+
+    @Test
+    void thatLimitConvergesTowardsSinkCapacity() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 64, 1000);
+        Deque<Long> inFlight = new ArrayDeque<>();
+        for (int i = 0; i < 20_000; i++) {
+            while (limiter.inFlight() < limiter.limit()) {
+                limiter.acquire();
+                inFlight.add(simulatedUploadLatency(limiter.inFlight()));
+            }
+            limiter.release(inFlight.poll(), 0);
+        }
+        assertTrue(limiter.limit() >= 6 && limiter.limit() <= 16, "limit: " + limiter.limit());
+    }
+
+    @Test
+    void thatReorderBacklogDecreasesLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(32, 4, 64, 100);
+        for (int i = 0; i < AdaptiveConcurrencyLimiter.MIN_WINDOW_SIZE * 4; i++) {
+            limiter.acquire();
+            limiter.release(TimeUnit.MILLISECONDS.toNanos(10), 500);
+        }
+        assertTrue(limiter.limit() < 32, "limit: " + limiter.limit());
+        assertTrue(limiter.limit() >= 4, "limit: " + limiter.limit());
+    }
+}
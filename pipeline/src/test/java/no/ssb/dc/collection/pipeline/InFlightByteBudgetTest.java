@@ -0,0 +1,69 @@
+package no.ssb.dc.collection.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InFlightByteBudgetTest {
+
+    @Test
+    void thatBytesAreParsedWithSuffix() {
+        assertEquals(100, InFlightByteBudget.parseBytes("100"));
+        assertEquals(512 * 1024 * 1024L, InFlightByteBudget.parseBytes("512m"));
+        assertEquals(2 * 1024 * 1024 * 1024L, InFlightByteBudget.parseBytes("2G"));
+    }
+
+    @Test
+    void thatAcquireBlocksUntilBytesAreReleased() throws Exception {
+        InFlightByteBudget budget = new InFlightByteBudget(100);
+        budget.acquire(80);
+        CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> {
+            try {
+                budget.acquire(40);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> blocked.get(100, TimeUnit.MILLISECONDS));
+        budget.release(80);
+        blocked.get(1, TimeUnit.SECONDS);
+        assertEquals(40, budget.currentBytes());
+        assertEquals(80, budget.peakBytes());
+    }
+
+    @Test
+    void thatOversizedMessageIsAdmittedWhenEmpty() throws InterruptedException {
+        InFlightByteBudget budget = new InFlightByteBudget(100);
+        budget.acquire(1000);
+        assertEquals(1000, budget.currentBytes());
+    }
+
+    @Test
+    void thatWaitingAcquireEndsWhenStopped() throws InterruptedException {
+        InFlightByteBudget budget = new InFlightByteBudget(100);
+        budget.acquire(80, () -> false);
+        AtomicBoolean stopped = new AtomicBoolean();
+        CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> {
+            try {
+                budget.acquire(40, stopped::get);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> blocked.get(100, TimeUnit.MILLISECONDS));
+        // the bytes of a failed message are never released
+        stopped.set(true);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> blocked.get(1, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof CancellationException);
+        assertEquals(80, budget.currentBytes());
+    }
+}
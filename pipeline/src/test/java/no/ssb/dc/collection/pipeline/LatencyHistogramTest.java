@@ -0,0 +1,33 @@
+package no.ssb.dc.collection.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void thatBucketsCoverValuesWithinOneEighth() {
+        for (long value : new long[]{0, 7, 8, 15, 16, 1000, 123_456_789L, Long.MAX_VALUE / 3}) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(LatencyHistogram.lowerBound(bucket) <= value, "lower bound of " + value);
+            assertTrue(LatencyHistogram.lowerBound(bucket + 1) > value, "upper bound of " + value);
+            assertTrue(LatencyHistogram.lowerBound(bucket + 1) - LatencyHistogram.lowerBound(bucket) <= Math.max(1, value / 8), "width at " + value);
+        }
+    }
+
+    @Test
+    void thatPercentilesFollowRecordedLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i == 100 ? 5000 : 10));
+        }
+        assertEquals(100, histogram.count());
+        assertEquals(10, TimeUnit.NANOSECONDS.toMillis(histogram.percentileNanos(0.5)), 2);
+        assertEquals(10, TimeUnit.NANOSECONDS.toMillis(histogram.percentileNanos(0.99)), 2);
+        assertEquals(5000, TimeUnit.NANOSECONDS.toMillis(histogram.percentileNanos(1.0)));
+    }
+}
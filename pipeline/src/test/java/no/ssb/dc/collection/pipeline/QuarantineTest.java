@@ -0,0 +1,45 @@
+package no.ssb.dc.collection.pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuarantineTest {
+
+    @Test
+    void thatQuarantinedEntriesAreTakenForRedrive(@TempDir Path tempDir) {
+        Path file = tempDir.resolve("quarantine").resolve("rema-2018-10.quarantine");
+        try (Quarantine quarantine = new Quarantine(file)) {
+            quarantine.add("201101_2018-10-01T10:00:00_1", "/source/a", new CompletionException(new RuntimeException(new UncheckedIOException(new NoSuchFileException("/source/a")))));
+            quarantine.add("bad\tname", "/source/b", new IllegalStateException("Unable to parse\nfilename"));
+            quarantine.add("201101_2018-10-01T10:00:00_1", "/source/a", new IllegalStateException());
+            assertEquals(3, quarantine.count());
+            assertTrue(quarantine.summary().contains("IllegalStateException=2"), quarantine.summary());
+        }
+
+        Quarantine redrive = new Quarantine(file);
+        List<Quarantine.Entry> entries = redrive.redriveEntries();
+        assertEquals(List.of("201101_2018-10-01T10:00:00_1", "bad name"), entries.stream().map(entry -> entry.position).collect(Collectors.toList()));
+        assertEquals("java.lang.IllegalStateException: Unable to parse filename", entries.get(1).reason);
+        assertFalse(Files.exists(file));
+
+        // entries of an interrupted redrive are merged with new entries
+        redrive.add("201101_2018-10-02T10:00:00_2", "/source/c", new IOException());
+        redrive.close();
+        assertEquals(3, new Quarantine(file).redriveEntries().size());
+        redrive.completeRedrive();
+        assertEquals(List.of(), new Quarantine(file).redriveEntries());
+    }
+}
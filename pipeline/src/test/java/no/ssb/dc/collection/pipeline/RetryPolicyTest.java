@@ -0,0 +1,91 @@
+package no.ssb.dc.collection.pipeline;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.MalformedInputException;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+
+    @Test
+    void thatTransientFailuresAreRetried() {
+        RetryPolicy retryPolicy = new RetryPolicy(3, 1, new CircuitBreaker(10, 1000));
+        AtomicInteger attempts = new AtomicInteger();
+        String result = retryPolicy.execute("Publish", "f1", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new UncheckedIOException(new IOException("Read timed out"));
+            }
+            return "ok";
+        });
+        assertEquals("ok", result);
+        assertEquals(2, retryPolicy.retries());
+        assertFalse(retryPolicy.circuitBreaker().isOpen());
+
+        attempts.set(0);
+        assertThrows(IllegalArgumentException.class, () -> retryPolicy.execute("Publish", "f2", () -> {
+            attempts.incrementAndGet();
+            throw new IllegalArgumentException();
+        }));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void thatCircuitOpensOnConsecutiveFailures() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 60_000);
+        RetryPolicy retryPolicy = new RetryPolicy(2, 1, circuitBreaker);
+        assertThrows(RuntimeException.class, () -> retryPolicy.execute("Publish", "f1", () -> {
+            throw new TransientException("upload failed");
+        }));
+        assertTrue(circuitBreaker.isOpen());
+        assertEquals(1, circuitBreaker.openCount());
+
+        // waiting ends when the worker is stopped
+        circuitBreaker.awaitClosed(() -> true);
+    }
+
+    @Test
+    void thatFailuresAreClassified() {
+        assertTrue(RetryPolicy.isTransient(new CompletionException(new RuntimeException(new IOException()))));
+        assertTrue(RetryPolicy.isTransient(new TransientException("upload failed")));
+        assertTrue(RetryPolicy.isTransient(new RuntimeException(new TimeoutException())));
+        assertFalse(RetryPolicy.isTransient(new RuntimeException("upload failed")), "Unknown failures are not retried");
+        assertFalse(RetryPolicy.isTransient(new IllegalStateException()));
+        assertFalse(RetryPolicy.isTransient(new RuntimeException(new InterruptedException())));
+    }
+
+    @Test
+    void thatInputFailuresAreNotTransient() {
+        assertFalse(RetryPolicy.isTransient(new RuntimeException(new JsonParseException((JsonParser) null, "Unexpected character"))));
+        assertFalse(RetryPolicy.isTransient(new CompletionException(new RuntimeException(new XMLStreamException("Unexpected EOF")))));
+        assertFalse(RetryPolicy.isTransient(new SourceInputException("Transform map expression returned no output")));
+        assertFalse(RetryPolicy.isTransient(new UncheckedIOException(new MalformedInputException(1))));
+        assertFalse(RetryPolicy.isTransient(new UncheckedIOException(new NoSuchFileException("20181001_000000000-230101-1"))));
+    }
+
+    @Test
+    void thatInputFailuresDoNotOpenCircuit() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 60_000);
+        RetryPolicy retryPolicy = new RetryPolicy(3, 1, circuitBreaker);
+        AtomicInteger attempts = new AtomicInteger();
+        assertThrows(SourceInputException.class, () -> retryPolicy.execute("Produce", "f1", () -> {
+            attempts.incrementAndGet();
+            throw new SourceInputException(new XMLStreamException("Unexpected EOF"));
+        }));
+        assertEquals(1, attempts.get());
+        assertEquals(0, retryPolicy.retries());
+        assertFalse(circuitBreaker.isOpen());
+    }
+}
@@ -0,0 +1,93 @@
+package no.ssb.dc.collection.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShutdownDrainTest {
+
+    @Test
+    void thatInFlightMessagesAreDrainedBeforeDeadline() {
+        ShutdownDrain shutdownDrain = new ShutdownDrain();
+        List<String> published = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String position = String.valueOf(i);
+            futures.add(CompletableFuture.runAsync(() -> {
+                sleep(50);
+                synchronized (published) {
+                    published.add(position);
+                }
+            }));
+        }
+        assertTrue(shutdownDrain.stop(5, TimeUnit.SECONDS));
+        assertFalse(shutdownDrain.stop(0, TimeUnit.SECONDS), "Only the first stop sets the deadline");
+        assertTrue(shutdownDrain.isStopping());
+
+        assertTrue(shutdownDrain.await(futures));
+        assertEquals(3, published.size());
+        assertTrue(futures.isEmpty());
+    }
+
+    @Test
+    void thatRemainingMessagesAreDroppedAtDeadline() {
+        ShutdownDrain shutdownDrain = new ShutdownDrain();
+        CompletableFuture<Void> completed = CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> stuck = new CompletableFuture<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(List.of(completed, stuck));
+        shutdownDrain.stop(100, TimeUnit.MILLISECONDS);
+
+        long started = System.nanoTime();
+        assertFalse(shutdownDrain.await(futures));
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(5));
+        assertTrue(futures.isEmpty(), "Messages not completed at the deadline are dropped");
+        assertFalse(stuck.isDone());
+    }
+
+    @Test
+    void thatStopWhileWaitingAppliesDeadline() throws Exception {
+        ShutdownDrain shutdownDrain = new ShutdownDrain();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(List.of(new CompletableFuture<>()));
+        CompletableFuture<Boolean> drained = CompletableFuture.supplyAsync(() -> shutdownDrain.await(futures));
+        assertThrows(TimeoutException.class, () -> drained.get(200, TimeUnit.MILLISECONDS), "Waits without a deadline until stopped");
+
+        shutdownDrain.stop(100, TimeUnit.MILLISECONDS);
+        assertFalse(drained.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void thatFailureStopsWithoutDrainAndIsThrown() {
+        ShutdownDrain shutdownDrain = new ShutdownDrain();
+        shutdownDrain.stop(60, TimeUnit.SECONDS);
+        IllegalStateException cause = new IllegalStateException("Publish failed");
+        shutdownDrain.fail(cause);
+        shutdownDrain.fail(new IllegalStateException("Later failure"));
+        assertTrue(shutdownDrain.isStopping());
+        assertSame(cause, shutdownDrain.failure());
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(List.of(new CompletableFuture<>()));
+        long started = System.nanoTime();
+        RuntimeException e = assertThrows(RuntimeException.class, () -> shutdownDrain.await(futures));
+        assertSame(cause, e.getCause());
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(5), "The shutdown deadline does not apply");
+        assertTrue(futures.isEmpty());
+    }
+
+    static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
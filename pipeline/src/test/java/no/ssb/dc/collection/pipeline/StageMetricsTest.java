@@ -0,0 +1,57 @@
+package no.ssb.dc.collection.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StageMetricsTest {
+
+    static StageMetrics metrics() {
+        return new StageMetrics("rema")
+                .stage("walk", StageMetrics.Kind.SOURCE)
+                .stage("backpressure", StageMetrics.Kind.BACKPRESSURE)
+                .stage("read", StageMetrics.Kind.IO)
+                .stage("encrypt", StageMetrics.Kind.CPU)
+                .stage("publish", StageMetrics.Kind.SINK);
+    }
+
+    static void busy(StageMetrics metrics, String stage, long millis) {
+        metrics.record(stage, System.nanoTime() - millis * 1_000_000);
+    }
+
+    @Test
+    void thatSourceBoundsWhenItSeldomWaits() {
+        StageMetrics metrics = metrics();
+        busy(metrics, "walk", 100);
+        busy(metrics, "backpressure", 10);
+        busy(metrics, "publish", 500);
+        assertEquals("source", metrics.boundBy());
+    }
+
+    @Test
+    void thatBusiestDownstreamKindBoundsWhenSourceWaits() {
+        StageMetrics metrics = metrics();
+        busy(metrics, "walk", 10);
+        busy(metrics, "backpressure", 100);
+        busy(metrics, "read", 50);
+        busy(metrics, "encrypt", 300);
+        busy(metrics, "publish", 200);
+        assertEquals("cpu", metrics.boundBy());
+
+        busy(metrics, "publish", 200);
+        assertEquals("sink", metrics.boundBy());
+
+        String summary = metrics.summary(1_000_000_000L);
+        assertTrue(summary.contains("encrypt"), summary);
+        assertTrue(summary.endsWith("bound by: sink"), summary);
+        assertEquals(2, metrics.count("publish"));
+    }
+
+    @Test
+    void thatUndeclaredStagesAreIgnored() {
+        StageMetrics.NONE.record("read", System.nanoTime());
+        assertEquals(0, StageMetrics.NONE.count("read"));
+        assertEquals("unknown", StageMetrics.NONE.boundBy());
+    }
+}